@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * Runs the benchmarks, taking the same command line options as JMH's own launcher (i.e. <code>-h</code> for help, or
+ * a regular expression to select which benchmarks to run). Unless told otherwise, the results are written as JSON into
+ * <code>jmh-result.json</code>, so runs from different releases can be compared, and the recipes' logging is kept to
+ * warnings so it doesn't skew the measurements.
+ * </p>
+ */
+public class Benchmarks
+{
+    public static final String RESULT_FILE = "jmh-result.json";
+    private static final String LOGBACK_CONFIG = "-Dlogback.configurationFile=logback-benchmarks.xml";
+
+    public static void main(String... args) throws Exception
+    {
+        final CommandLineOptions cmdLine = new CommandLineOptions(args);
+        if (cmdLine.shouldHelp() || cmdLine.shouldList() || cmdLine.shouldListWithParams() || cmdLine.shouldListProfilers()
+                || cmdLine.shouldListResultFormats())
+        {
+            // Let JMH's launcher handle these
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdLine);
+        if (!cmdLine.getResultFormat().hasValue())
+        {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdLine.getResult().hasValue())
+        {
+            options.result(Benchmarks.RESULT_FILE);
+        }
+        if (!cmdLine.getJvmArgsAppend().hasValue())
+        {
+            options.jvmArgsAppend(Benchmarks.LOGBACK_CONFIG);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.armedia.acm.curator.Session;
+
+/**
+ * <p>
+ * A session of its own for each benchmark thread, so the threads contend with each other the way separate processes
+ * would (i.e. no coalescing or sharing of locks within a session).
+ * </p>
+ */
+@State(Scope.Thread)
+public class ClientState
+{
+    private Session session = null;
+
+    @Setup(Level.Trial)
+    public void setup(ServerState server) throws Exception
+    {
+        this.session = server.newSession();
+    }
+
+    public Session getSession()
+    {
+        return this.session;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        if (this.session != null)
+        {
+            this.session.close();
+        }
+        this.session = null;
+    }
+}
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.armedia.acm.curator.recipe.EphemeralValue;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EphemeralValueBenchmark
+{
+    private EphemeralValue value = null;
+    private AutoCloseable initial = null;
+    private long counter = 0;
+
+    @Setup(Level.Trial)
+    public void setup(ServerState server) throws Exception
+    {
+        this.value = new EphemeralValue(server.getSession(), "ephemeral");
+        this.initial = this.value.set("initial");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        this.initial.close();
+    }
+
+    /**
+     * Sets and then deletes the value (i.e. the whole lifecycle), since every handle returned must be closed.
+     */
+    @Benchmark
+    public void setDelete() throws Exception
+    {
+        try (AutoCloseable c = this.value.set(this.counter++))
+        {
+            // Nothing to do
+        }
+    }
+
+    @Benchmark
+    public Object get() throws Exception
+    {
+        return this.value.get();
+    }
+}
@@ -0,0 +1,87 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.armedia.acm.curator.recipe.Mutex;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MutexBenchmark
+{
+    /**
+     * A single thread acquiring and releasing the mutex: the cost of the ZooKeeper round trips alone.
+     */
+    @Benchmark
+    @Threads(1)
+    public void acquireRelease(ServerState server) throws Exception
+    {
+        try (AutoCloseable c = new Mutex(server.getSession(), "mutex").acquire())
+        {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Several threads sharing a session, which queue up locally instead of each creating its own lock node.
+     */
+    @Benchmark
+    @Threads(4)
+    public void sharedSession(ServerState server) throws Exception
+    {
+        try (AutoCloseable c = new Mutex(server.getSession(), "shared").acquire())
+        {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Several threads with a session each, contending for the mutex as separate processes would.
+     */
+    @Benchmark
+    @Threads(4)
+    public void separateSessions(ClientState client) throws Exception
+    {
+        try (AutoCloseable c = new Mutex(client.getSession(), "separate").acquire())
+        {
+            // Nothing to do
+        }
+    }
+}
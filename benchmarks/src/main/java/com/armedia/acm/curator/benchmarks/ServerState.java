@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.armedia.acm.curator.Session;
+
+/**
+ * <p>
+ * The in-process ZooKeeper server that the benchmarks run against, along with a session connected to it which all the
+ * benchmark threads share. Benchmarks which need each thread to act as a separate process use {@link ClientState}
+ * instead.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class ServerState
+{
+    private TestingServer server = null;
+    private Session session = null;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        this.server = new TestingServer();
+        this.session = newSession();
+    }
+
+    public Session newSession() throws InterruptedException
+    {
+        return new Session.Builder().connect(this.server.getConnectString()).build();
+    }
+
+    public Session getSession()
+    {
+        return this.session;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            if (this.session != null)
+            {
+                this.session.close();
+            }
+        }
+        finally
+        {
+            this.session = null;
+            if (this.server != null)
+            {
+                this.server.close();
+            }
+            this.server = null;
+        }
+    }
+}
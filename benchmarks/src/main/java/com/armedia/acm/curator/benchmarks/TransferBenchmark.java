@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.armedia.acm.curator.recipe.Download;
+import com.armedia.acm.curator.recipe.Upload;
+
+/**
+ * <p>
+ * Uploads and downloads of varying sizes. Both recipes skip the transfer when the contents haven't changed, so the
+ * full transfers change the source (or discard the downloaded file's version) before every invocation, while the
+ * <code>unchanged</code> variants measure the skipping itself, which is what most runs of an init container do.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark
+{
+    @Param({
+            "1024", "65536", "1048576", "8388608"
+    })
+    public int size;
+
+    private Path dir = null;
+    private Path source = null;
+    private Path target = null;
+    private Upload upload = null;
+    private Download download = null;
+    private final Random random = new Random();
+
+    @Setup(Level.Trial)
+    public void setup(ServerState server) throws Exception
+    {
+        this.dir = Files.createTempDirectory("transfer-benchmark");
+        this.source = this.dir.resolve("source");
+        this.target = this.dir.resolve("target");
+        final byte[] data = new byte[this.size];
+        this.random.nextBytes(data);
+        Files.write(this.source, data);
+
+        final String name = String.format("transfer-%d", this.size);
+        this.upload = new Upload(server.getSession(), name);
+        this.download = new Download(server.getSession(), name);
+        if ((this.upload.execute(this.source.toString(), false) != 0) || (this.download.execute(this.target.toString(), false) != 0))
+        {
+            throw new IllegalStateException(String.format("Failed to prime the transfer of %d bytes", this.size));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        FileUtils.deleteQuietly(this.dir.toFile());
+    }
+
+    @State(Scope.Thread)
+    public static class ChangedSource
+    {
+        @Setup(Level.Invocation)
+        public void setup(TransferBenchmark benchmark) throws Exception
+        {
+            // Change a single byte, which still defeats the skipping
+            try (FileChannel c = FileChannel.open(benchmark.source, StandardOpenOption.WRITE))
+            {
+                final byte[] b = new byte[1];
+                benchmark.random.nextBytes(b);
+                c.write(ByteBuffer.wrap(b), benchmark.random.nextInt(benchmark.size));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class StaleTarget
+    {
+        @Setup(Level.Invocation)
+        public void setup(TransferBenchmark benchmark) throws Exception
+        {
+            Files.deleteIfExists(Download.getStatFile(benchmark.target));
+        }
+    }
+
+    @Benchmark
+    public int upload(ChangedSource changed)
+    {
+        return this.upload.execute(this.source.toString(), false);
+    }
+
+    @Benchmark
+    public int uploadUnchanged()
+    {
+        return this.upload.execute(this.source.toString(), false);
+    }
+
+    @Benchmark
+    public int download(StaleTarget stale)
+    {
+        return this.download.execute(this.target.toString(), false);
+    }
+
+    @Benchmark
+    public int downloadUnchanged()
+    {
+        return this.download.execute(this.target.toString(), false);
+    }
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.benchmarks;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.armedia.acm.curator.tools.ValueCodec;
+
+/**
+ * <p>
+ * Compares the binary value codec against plain Java serialization, for the kinds of values usually stored. This needs
+ * no ZooKeeper at all.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValueCodecBenchmark
+{
+    @Param({
+            "binary", "java"
+    })
+    public String codec;
+
+    @Param({
+            "string", "long", "uuid", "instant", "map"
+    })
+    public String type;
+
+    private ValueCodec valueCodec = null;
+    private Serializable value = null;
+    private byte[] encoded = null;
+
+    private Serializable newValue()
+    {
+        switch (this.type)
+        {
+        case "string":
+            return "some-host.example.com:8443";
+        case "long":
+            return Long.valueOf(System.nanoTime());
+        case "uuid":
+            return UUID.randomUUID();
+        case "instant":
+            return Instant.now();
+        case "map":
+            final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < 8; i++)
+            {
+                map.put(String.format("key-%d", i), UUID.randomUUID().toString());
+            }
+            return map;
+        default:
+            throw new IllegalArgumentException(String.format("Unknown value type [%s]", this.type));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        switch (this.codec)
+        {
+        case "binary":
+            this.valueCodec = ValueCodec.BINARY;
+            break;
+        case "java":
+            this.valueCodec = ValueCodec.JAVA;
+            break;
+        default:
+            throw new IllegalArgumentException(String.format("Unknown codec [%s]", this.codec));
+        }
+        this.value = newValue();
+        this.encoded = this.valueCodec.encode(this.value);
+        if (!this.value.equals(this.valueCodec.decode(this.encoded)))
+        {
+            throw new IllegalStateException(String.format("The %s codec failed to round-trip the %s value", this.codec, this.type));
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception
+    {
+        return this.valueCodec.encode(this.value);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception
+    {
+        return this.valueCodec.decode(this.encoded);
+    }
+}
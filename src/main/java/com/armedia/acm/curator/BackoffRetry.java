@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
+
+/**
+ * Exponential backoff (optionally jittered) without Curator's limit on the number of retries, so that many clients
+ * that lost their connection at the same time don't all retry in lockstep.
+ */
+class BackoffRetry implements RetryPolicy
+{
+    enum Mode
+    {
+        //
+        exponential, //
+        full, //
+        decorrelated, //
+        //
+        ;
+    }
+
+    /**
+     * Gives up on retrying once the given time has elapsed, and defers to the wrapped policy otherwise.
+     */
+    static class Elapsed implements RetryPolicy
+    {
+        private final RetryPolicy policy;
+        private final long maxElapsed;
+
+        Elapsed(RetryPolicy policy, long maxElapsed)
+        {
+            this.policy = policy;
+            this.maxElapsed = maxElapsed;
+        }
+
+        @Override
+        public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper)
+        {
+            return (elapsedTimeMs < this.maxElapsed) && this.policy.allowRetry(retryCount, elapsedTimeMs, sleeper);
+        }
+
+        @Override
+        public boolean allowRetry(Throwable exception)
+        {
+            return this.policy.allowRetry(exception);
+        }
+    }
+
+    // Retry loops run within a single thread, so this is how we remember each one's last sleep
+    private final ThreadLocal<Long> previous = new ThreadLocal<>();
+    private final Mode mode;
+    private final long delay;
+    private final long maxDelay;
+    private final int maxRetries;
+
+    BackoffRetry(Mode mode, int delay, int maxDelay, int maxRetries)
+    {
+        this.mode = mode;
+        this.delay = delay;
+        this.maxDelay = Math.max(delay, maxDelay);
+        this.maxRetries = maxRetries;
+    }
+
+    long getSleepTime(int retryCount)
+    {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (this.mode)
+        {
+        case full:
+            return random.nextLong(getCappedExponential(retryCount) + 1);
+
+        case decorrelated:
+            Long previous = this.previous.get();
+            if ((retryCount == 0) || (previous == null))
+            {
+                previous = this.delay;
+            }
+            long sleep = Math.min(this.maxDelay, random.nextLong(this.delay, Math.max(this.delay, previous * 3) + 1));
+            this.previous.set(sleep);
+            return sleep;
+
+        case exponential:
+        default:
+            return getCappedExponential(retryCount);
+        }
+    }
+
+    private long getCappedExponential(int retryCount)
+    {
+        // Avoid overflowing: past this many doublings we're over any reasonable cap anyway
+        final long multiplier = 1L << Math.min(retryCount, 30);
+        return Math.min(this.maxDelay, this.delay * multiplier);
+    }
+
+    @Override
+    public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper)
+    {
+        if (retryCount >= this.maxRetries)
+        {
+            this.previous.remove();
+            return false;
+        }
+
+        try
+        {
+            sleeper.sleepFor(getSleepTime(retryCount), TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            this.previous.remove();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the Curator clients shared by {@link Session} instances within this JVM. Clients are keyed by the
+ * (normalized) host list and the connection settings, so sessions that only differ in their chroot or instance ID end
+ * up using the same ZooKeeper connection, each through its own namespace. The physical client is closed once the last
+ * session using it lets go of it.
+ */
+final class ClientPool
+{
+    static final int DEFAULT_PORT = 2181;
+
+    private static final ClientPool INSTANCE = new ClientPool();
+
+    static ClientPool get()
+    {
+        return ClientPool.INSTANCE;
+    }
+
+    /**
+     * Normalize the given host list so equivalent lists produce the same string: hosts are trimmed, lowercased, given
+     * the default port if they lack one, de-duplicated, and sorted (ZooKeeper shuffles them anyway).
+     */
+    static String normalize(String hostConnect)
+    {
+        TreeSet<String> hosts = new TreeSet<>();
+        for (String host : StringUtils.defaultString(hostConnect).split(","))
+        {
+            host = host.trim().toLowerCase(Locale.ROOT);
+            if (host.isEmpty())
+            {
+                continue;
+            }
+            if (host.indexOf(':') < 0)
+            {
+                host = String.format("%s:%d", host, ClientPool.DEFAULT_PORT);
+            }
+            hosts.add(host);
+        }
+        return String.join(",", hosts);
+    }
+
+    private static final class Entry
+    {
+        private final String key;
+        private final CuratorFramework client;
+        private volatile ConnectionState state = null;
+        private int references = 0;
+
+        private Entry(String key, CuratorFramework client)
+        {
+            this.key = key;
+            this.client = client;
+            this.client.getConnectionStateListenable().addListener((c, state) -> this.state = state);
+        }
+    }
+
+    /**
+     * A session's hold on a pooled client. Closing it more than once is harmless.
+     */
+    final class Lease implements AutoCloseable
+    {
+        private final Entry entry;
+        private final CuratorFramework client;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(Entry entry, String namespace)
+        {
+            this.entry = entry;
+            this.client = entry.client.usingNamespace(namespace);
+        }
+
+        public CuratorFramework getClient()
+        {
+            return this.client;
+        }
+
+        /**
+         * Returns the last connection state reported for the shared client, or <code>null</code> if it hasn't reported
+         * any yet.
+         */
+        public ConnectionState getConnectionState()
+        {
+            return this.entry.state;
+        }
+
+        @Override
+        public void close()
+        {
+            if (this.closed.compareAndSet(false, true))
+            {
+                release(this.entry);
+            }
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private ClientPool()
+    {
+    }
+
+    /**
+     * Obtain a lease on the client for the given key, using the given builder to create (and start) it if there's none
+     * yet. The builder must not have a namespace set: each lease applies its own.
+     */
+    synchronized Lease acquire(String key, CuratorFrameworkFactory.Builder builder, String namespace)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry == null)
+        {
+            this.log.info("Starting a new shared Curator client for [{}]", key);
+            entry = new Entry(key, builder.namespace(null).build());
+            entry.client.start();
+            this.entries.put(key, entry);
+        }
+        entry.references++;
+        this.log.debug("Shared Curator client for [{}] now has {} reference(s)", key, entry.references);
+        return new Lease(entry, namespace);
+    }
+
+    private synchronized void release(Entry entry)
+    {
+        if (--entry.references > 0)
+        {
+            this.log.debug("Shared Curator client for [{}] now has {} reference(s)", entry.key, entry.references);
+            return;
+        }
+
+        this.entries.remove(entry.key, entry);
+        this.log.info("Closing the shared Curator client for [{}]", entry.key);
+        try
+        {
+            entry.client.close();
+        }
+        catch (Exception e)
+        {
+            this.log.warn("Exception caught while closing the shared client for [{}]", entry.key, e);
+        }
+    }
+
+    synchronized int size()
+    {
+        return this.entries.size();
+    }
+}
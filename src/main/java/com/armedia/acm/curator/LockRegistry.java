@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Keeps a single lock instance (i.e. {@code InterProcessMutex}) per type and path for each {@link Session}, for as long
+ * as anyone is using (or waiting on) it. Since Curator's locks track reentrancy per instance, this is what allows a
+ * thread that already holds a lock to acquire it again without going back to ZooKeeper. Instances are dropped once
+ * they're no longer checked out, so the registry doesn't grow with every lock name ever used.
+ */
+public final class LockRegistry
+{
+    private static final class Entry
+    {
+        private final Object lock;
+        private int references = 0;
+
+        private Entry(Object lock)
+        {
+            this.lock = lock;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static String getKey(Class<?> type, String path)
+    {
+        return String.format("%s:%s", type.getName(), path);
+    }
+
+    /**
+     * Returns the instance for the given type and path, using the factory to create it if there's none. Every call must
+     * be balanced by a call to {@link #checkin(Class, String)} once the caller no longer needs the instance.
+     */
+    public <T> T checkout(Class<T> type, String path, Function<String, T> factory)
+    {
+        Objects.requireNonNull(type, "Must provide a lock type");
+        Objects.requireNonNull(path, "Must provide a lock path");
+        Objects.requireNonNull(factory, "Must provide a factory");
+        final Entry entry = this.entries.compute(LockRegistry.getKey(type, path), (k, e) -> {
+            if (e == null)
+            {
+                e = new Entry(factory.apply(path));
+            }
+            e.references++;
+            return e;
+        });
+        return type.cast(entry.lock);
+    }
+
+    public void checkin(Class<?> type, String path)
+    {
+        this.entries.computeIfPresent(LockRegistry.getKey(type, path), (k, e) -> (--e.references > 0 ? e : null));
+    }
+
+    public int size()
+    {
+        return this.entries.size();
+    }
+}
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator;
+
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.retry.BoundedExponentialBackoffRetry;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.retry.RetryForever;
+import org.apache.curator.retry.RetryUntilElapsed;
+
+/**
+ * The kinds of retry policies a {@link Session} may use. In all cases, a retry count of 0 or less means "retry
+ * forever" (or until the maximum elapsed time is reached, if one is given).
+ */
+public enum RetryType
+{
+    //
+    /** Always wait the base delay between retries */
+    forever, //
+
+    /** Curator's classic exponential backoff, which isn't capped unless the retries are unlimited */
+    exponential, //
+
+    /** Exponential backoff, capped at the maximum delay */
+    bounded, //
+
+    /** Exponential backoff with "full jitter": wait a random time between 0 and the capped exponential delay */
+    jitter, //
+
+    /** "Decorrelated jitter": wait a random time between the base delay and three times the previous wait, capped */
+    decorrelated, //
+
+    /** Always wait the base delay between retries, until the maximum elapsed time is reached */
+    elapsed, //
+    //
+    ;
+
+    public static RetryType parse(String value, RetryType def)
+    {
+        if (StringUtils.isBlank(value))
+        {
+            return def;
+        }
+        try
+        {
+            return RetryType.valueOf(value.trim().toLowerCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException(String.format("Unknown retry type [%s]", value), e);
+        }
+    }
+
+    /**
+     * Returns the type used when none is given explicitly, which is what sessions have always used: {@link #forever}
+     * when the count is 0 or less, and {@link #exponential} otherwise.
+     */
+    public static RetryType getDefault(int count)
+    {
+        return (count <= 0 ? RetryType.forever : RetryType.exponential);
+    }
+
+    /**
+     * Build the policy for the given settings, all in milliseconds. If the maximum elapsed time is positive, the policy
+     * will give up once it's reached, regardless of its type or the count.
+     */
+    public RetryPolicy build(int count, int delay, int maxDelay, int maxElapsed)
+    {
+        final int retries = (count > 0 ? count : Integer.MAX_VALUE);
+        RetryPolicy policy = null;
+        switch (this)
+        {
+        case forever:
+            policy = new RetryForever(delay);
+            break;
+
+        case exponential:
+            // Curator caps the retries at 29, so we have to step in if they're unlimited ... and then we also have
+            // to cap the delay, or each retry would soon wait for days
+            policy = (count > 0) //
+                    ? new ExponentialBackoffRetry(delay, count) //
+                    : new BackoffRetry(BackoffRetry.Mode.exponential, delay, maxDelay, retries);
+            break;
+
+        case bounded:
+            policy = (count > 0) //
+                    ? new BoundedExponentialBackoffRetry(delay, maxDelay, count) //
+                    : new BackoffRetry(BackoffRetry.Mode.exponential, delay, maxDelay, retries);
+            break;
+
+        case jitter:
+            policy = new BackoffRetry(BackoffRetry.Mode.full, delay, maxDelay, retries);
+            break;
+
+        case decorrelated:
+            policy = new BackoffRetry(BackoffRetry.Mode.decorrelated, delay, maxDelay, retries);
+            break;
+
+        case elapsed:
+            return new RetryUntilElapsed(maxElapsed > 0 ? maxElapsed : Integer.MAX_VALUE, delay);
+        }
+
+        return (maxElapsed > 0 ? new BackoffRetry.Elapsed(policy, maxElapsed) : policy);
+    }
+}
@@ -26,10 +26,19 @@
  */
 package com.armedia.acm.curator;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
@@ -39,12 +48,18 @@ import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
-import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.RetryForever;
+import org.apache.curator.utils.ZKPaths;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.armedia.acm.curator.metrics.PhaseMetrics;
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
+import com.armedia.acm.curator.tools.PayloadCodec;
 import com.armedia.acm.curator.tools.Tools;
+import com.armedia.acm.curator.tools.ValueCodec;
 
 public class Session implements AutoCloseable
 {
@@ -65,8 +80,21 @@ public class Session implements AutoCloseable
     public static final int MIN_RETRY_DELAY = 100;
     public static final int MAX_RETRY_DELAY = 60000;
 
+    public static final int DEFAULT_RETRY_MAX_DELAY = Session.MAX_RETRY_DELAY;
+    public static final int DEFAULT_RETRY_MAX_ELAPSED = 0;
+
     public static final boolean DEFAULT_WAIT_FOR_CONNECTION = true;
 
+    public static final boolean DEFAULT_SHARE_CONNECTION = false;
+
+    public static final int DEFAULT_CLEANUP_TIMEOUT = 10000;
+    public static final int MIN_CLEANUP_TIMEOUT = 100;
+
+    public static final int DEFAULT_LOG_SAMPLING = 1;
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = PayloadCodec.DEFAULT_THRESHOLD;
+    public static final int MIN_COMPRESSION_THRESHOLD = 64;
+
     protected static final String NULL_CLEANUP_KEY = "<n/a>";
 
     protected static final boolean validateHostPort(String hostport)
@@ -108,67 +136,146 @@ public class Session implements AutoCloseable
         return Session.sanitizeValue(connectionTimeout, Session.DEFAULT_CONNECTION_TIMEOUT, Session.MIN_CONNECTION_TIMEOUT);
     }
 
+    public static int sanitizeCleanupTimeout(int cleanupTimeout)
+    {
+        return Session.sanitizeValue(cleanupTimeout, Session.DEFAULT_CLEANUP_TIMEOUT, Session.MIN_CLEANUP_TIMEOUT);
+    }
+
+    public static int sanitizeLogSampling(int logSampling)
+    {
+        return Session.sanitizeValue(logSampling, Session.DEFAULT_LOG_SAMPLING, 1);
+    }
+
+    public static int sanitizeCompressionThreshold(int compressionThreshold)
+    {
+        return Session.sanitizeValue(compressionThreshold, Session.DEFAULT_COMPRESSION_THRESHOLD, Session.MIN_COMPRESSION_THRESHOLD);
+    }
+
+    private static final class Cleanup
+    {
+        private final AutoCloseable closeable;
+        private final String path;
+        private final long owner;
+
+        private Cleanup(AutoCloseable closeable, String path)
+        {
+            this.closeable = closeable;
+            this.path = path;
+            this.owner = Thread.currentThread().getId();
+        }
+    }
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private CuratorFramework client = null;
     private Thread cleanup = null;
     private final AtomicInteger cleanupKeys = new AtomicInteger();
-    private final Map<Integer, AutoCloseable> cleanups = Collections.synchronizedMap(new TreeMap<>());
-
-    private Session(Builder builder)
+    // Keys are handed out in increasing order, so iterating backwards undoes things in reverse order of registration
+    private final ConcurrentNavigableMap<Integer, Cleanup> cleanups = new ConcurrentSkipListMap<>();
+    private final int cleanupTimeout;
+    private final int logSampling;
+    private final LockRegistry locks = new LockRegistry();
+    private final PayloadCodec codec;
+    private final ValueCodec valueCodec;
+    private final int compressionThreshold;
+    private final String fingerprint;
+    private final CompletableFuture<Session> connected = new CompletableFuture<>();
+    private volatile ConnectionState connectionState = null;
+    private final ConnectionStateListener stateListener;
+    private final ClientPool.Lease lease;
+
+    private Session(Builder builder, boolean waitForConnection)
             throws InterruptedException
     {
+        this.codec = PayloadCodec.get(builder.codec);
+        this.valueCodec = ValueCodec.get(builder.valueCodec);
+        this.compressionThreshold = builder.compressionThreshold;
+        this.fingerprint = builder.fingerprint();
+        this.cleanupTimeout = builder.cleanupTimeout;
+        this.logSampling = builder.logSampling;
+
         if (Tools.isEmpty(builder.connect))
         {
             this.log.info("No ZooKeeper configuration");
+            this.connected.complete(this);
+            this.lease = null;
+            this.stateListener = null;
             return;
         }
 
+        final long start = PhaseMetrics.start();
         int sessionTimeout = builder.sessionTimeout;
         int connectionTimeout = builder.connectionTimeout;
 
-        RetryPolicy retryPolicy = null;
+        final RetryType retryType = builder.retryType();
         if (builder.retryCount <= 0)
         {
-            retryPolicy = new RetryForever(builder.retryDelay);
             this.log.debug("Clustering retry is infinite");
         }
         else
         {
             this.log.debug("Clustering retry count is {}", builder.retryCount);
-            retryPolicy = new ExponentialBackoffRetry(builder.retryDelay, builder.retryCount);
         }
+        RetryPolicy retryPolicy = retryType.build(builder.retryCount, builder.retryDelay, builder.retryMaxDelay, builder.retryMaxElapsed);
 
-        this.log.debug("Clustering retry policy is {}, with a delay of {}", retryPolicy.getClass().getSimpleName(),
-                builder.retryDelay);
+        this.log.debug("Clustering retry policy is {} ({}), with a delay of {} (max {}, max elapsed {})", retryType,
+                retryPolicy.getClass().getSimpleName(), builder.retryDelay, builder.retryMaxDelay, builder.retryMaxElapsed);
 
         this.log.info("ZooKeeper connection string: [{}]", builder.connect);
 
         retryPolicy = Tools.ifNull(retryPolicy, () -> new RetryForever(1000));
 
         this.log.trace("Initializing the Curator client");
-        if (StringUtils.isNotBlank(builder.chroot))
-        {
-            this.log.trace("Ensuring the existence of the chroot path [{}]", builder.chroot);
-            try (CuratorFramework chrootClient = CuratorFrameworkFactory.newClient(builder.hostConnect, sessionTimeout, connectionTimeout,
-                    retryPolicy))
+        // We connect to the hosts directly and apply the chroot as a namespace, instead of letting ZooKeeper apply it.
+        // This way we need only the one connection, since Curator ensures the namespace's node exists (with a single
+        // existence check, creating it only if it's missing) right before its first operation.
+        final CuratorFrameworkFactory.Builder clientBuilder = CuratorFrameworkFactory.builder() //
+                .connectString(builder.hostConnect) //
+                .sessionTimeoutMs(sessionTimeout) //
+                .connectionTimeoutMs(connectionTimeout) //
+                .retryPolicy(retryPolicy) //
+        ;
+        final String namespace = (StringUtils.isNotBlank(builder.chroot) ? builder.chroot.substring(1) : null);
+        this.stateListener = (client, state) -> {
+            this.log.debug("ZooKeeper connection state changed to {}", state);
+            this.connectionState = state;
+            if (state.isConnected() && this.connected.complete(this))
             {
-                chrootClient.start();
-                chrootClient.blockUntilConnected();
-                chrootClient.createContainers(builder.chroot);
-                this.log.info("Created the ZK chroot path at [{}]", builder.chroot);
+                PhaseMetrics.record(Phase.connect, start);
             }
-            catch (Exception e)
+        };
+        if (builder.shareConnection)
+        {
+            // The connection settings are what set clients apart, so that's what we key them on
+            final String key = String.format("%s;session=%d;connection=%d;retry=%s:%d/%d/%d/%d",
+                    ClientPool.normalize(builder.hostConnect), sessionTimeout, connectionTimeout, retryType, builder.retryCount,
+                    builder.retryDelay, builder.retryMaxDelay, builder.retryMaxElapsed);
+            this.lease = ClientPool.get().acquire(key, clientBuilder, namespace);
+            this.client = this.lease.getClient();
+            this.log.info("Using a shared Curator client (namespace = [{}])", this.client.getNamespace());
+            this.client.getConnectionStateListenable().addListener(this.stateListener);
+
+            // The client may have connected already, in which case we won't be told
+            final ConnectionState state = this.lease.getConnectionState();
+            if ((this.connectionState == null) && (state != null))
             {
-                throw new RuntimeException(String.format("Failed to create the ZK chroot path [%s]", builder.chroot), e);
+                this.stateListener.stateChanged(this.client, state);
             }
         }
-        this.client = CuratorFrameworkFactory.newClient(builder.connect, sessionTimeout, connectionTimeout, retryPolicy);
-        this.log.info("Starting the Curator client");
-        this.client.start();
-        if (builder.waitForConnection)
+        else
+        {
+            this.lease = null;
+            this.client = clientBuilder.namespace(namespace).build();
+            this.client.getConnectionStateListenable().addListener(this.stateListener);
+            this.log.info("Starting the Curator client (namespace = [{}])", this.client.getNamespace());
+            this.client.start();
+        }
+        PhaseMetrics.record(Phase.session, start);
+        if (waitForConnection)
         {
             this.client.blockUntilConnected();
+            // The listeners run on their own thread, so make sure the state's been published
+            this.connected.join();
         }
         this.cleanup = new Thread(this::cleanup, "ZookeeperConnection-Cleanup");
         this.cleanup.setDaemon(false);
@@ -185,12 +292,111 @@ public class Session implements AutoCloseable
         return (this.client != null);
     }
 
+    /**
+     * Returns a future that completes with this session once it first connects to ZooKeeper (right away if it's not
+     * enabled), or fails if the session is closed before that happens.
+     */
+    public CompletableFuture<Session> whenConnected()
+    {
+        return this.connected;
+    }
+
+    /**
+     * Returns the last connection state reported for this session, or <code>null</code> if it's not enabled or hasn't
+     * connected yet.
+     */
+    public ConnectionState getConnectionState()
+    {
+        return this.connectionState;
+    }
+
+    /**
+     * Register a listener to be notified of this session's connection state changes (SUSPENDED, RECONNECTED, LOST,
+     * etc.), until the returned handle is closed. Listeners are invoked on Curator's event thread, so they shouldn't
+     * block.
+     */
+    public AutoCloseable addConnectionStateListener(ConnectionStateListener listener)
+    {
+        final CuratorFramework client = getClient();
+        if ((listener == null) || (client == null))
+        {
+            return Tools::noop;
+        }
+        client.getConnectionStateListenable().addListener(listener);
+        return () -> client.getConnectionStateListenable().removeListener(listener);
+    }
+
+    public PayloadCodec getCodec()
+    {
+        return this.codec;
+    }
+
+    public int getCompressionThreshold()
+    {
+        return this.compressionThreshold;
+    }
+
+    /**
+     * The codec with which recipes store values (i.e. {@link com.armedia.acm.curator.recipe.EphemeralValue}), unless
+     * they're given one of their own.
+     */
+    public ValueCodec getValueCodec()
+    {
+        return this.valueCodec;
+    }
+
+    /**
+     * See {@link Builder#fingerprint()}.
+     */
+    public String getFingerprint()
+    {
+        return this.fingerprint;
+    }
+
+    public int getCleanupTimeout()
+    {
+        return this.cleanupTimeout;
+    }
+
+    public int getLogSampling()
+    {
+        return this.logSampling;
+    }
+
+    /**
+     * Decide whether the recipes should log the details of an individual acquisition (of a lock, leadership, etc.). Only
+     * about one in every {@link #getLogSampling()} of them is logged, picked at random so no state is shared among the
+     * threads doing the acquiring.
+     */
+    public boolean isLogSampled()
+    {
+        final int sampling = this.logSampling;
+        return (sampling <= 1) || (ThreadLocalRandom.current().nextInt(sampling) == 0);
+    }
+
+    /**
+     * Returns the registry that allows recipes within this session to share lock instances (see {@link LockRegistry}).
+     */
+    public LockRegistry getLocks()
+    {
+        return this.locks;
+    }
+
     public Object addCleanup(AutoCloseable closeable)
+    {
+        return addCleanup(closeable, null);
+    }
+
+    /**
+     * Register something to be closed when the session is, along with the path of the nodes it holds (if any), so that
+     * whatever can't be closed in time can at least be reported.
+     */
+    public Object addCleanup(AutoCloseable closeable, String path)
     {
         if ((closeable != null) && isEnabled())
         {
             int key = this.cleanupKeys.getAndIncrement();
-            this.cleanups.put(key, closeable);
+            this.cleanups.put(key, new Cleanup(closeable, path));
             return key;
         }
         return Session.NULL_CLEANUP_KEY;
@@ -198,27 +404,145 @@ public class Session implements AutoCloseable
 
     public AutoCloseable removeCleanup(Object key)
     {
-        return this.cleanups.remove(key);
+        // The skip list can't deal with nulls or foreign keys (i.e. NULL_CLEANUP_KEY)
+        if (key instanceof Integer)
+        {
+            Cleanup cleanup = this.cleanups.remove(key);
+            if (cleanup != null)
+            {
+                return cleanup.closeable;
+            }
+        }
+        return null;
     }
 
-    private synchronized void cleanup()
+    private void cleanup(long owner, List<Integer> keys, long deadline, Set<Integer> done)
     {
-        // Always unlock in reverse order to acquisition...
-        for (Object k : new TreeSet<>(this.cleanups.keySet()).descendingSet())
+        for (int i = 0; i < keys.size(); i++)
         {
-            AutoCloseable c = this.cleanups.get(k);
+            if (System.nanoTime() - deadline >= 0)
+            {
+                this.log.warn("Emergency cleanup for thread # {} ran out of time, abandoning {} item(s)", owner, keys.size() - i);
+                return;
+            }
+
+            Integer k = keys.get(i);
+            Cleanup c = this.cleanups.get(k);
+            if (c == null)
+            {
+                // Released while we were getting to it
+                done.add(k);
+                continue;
+            }
+
             this.log.warn("Emergency cleanup: closing out leadership selector # {}", k);
             try
             {
-                c.close();
+                c.closeable.close();
             }
             catch (Exception e)
             {
                 this.log.warn("Exception caught during cleanup of leadership selector # {}", k, e);
             }
+            done.add(k);
         }
+    }
 
-        if (this.client.getState() != CuratorFrameworkState.STOPPED)
+    /**
+     * Lists the ephemeral nodes this session's connection still holds at (or below) the given paths, or just the paths
+     * themselves if ZooKeeper can't be asked.
+     */
+    private Collection<String> getLeftovers(Collection<String> paths)
+    {
+        final Collection<String> leftovers = new TreeSet<>();
+        for (String path : paths)
+        {
+            final String fullPath = ZKPaths.fixForNamespace(this.client.getNamespace(), path);
+            try
+            {
+                leftovers.addAll(this.client.getZookeeperClient().getZooKeeper().getEphemerals(fullPath));
+            }
+            catch (Exception e)
+            {
+                this.log.debug("Failed to list the ephemeral nodes under [{}]", fullPath, e);
+                leftovers.add(fullPath);
+            }
+        }
+        return leftovers;
+    }
+
+    private synchronized void cleanup()
+    {
+        final long start = PhaseMetrics.start();
+
+        // Whatever was registered by a single thread may be nested, so it has to be closed in reverse order to its
+        // acquisition. However, what different threads registered is independent, so those can be released
+        // concurrently. We only wait so long for all of it, though: once the deadline expires we give up on the rest.
+        // If the connection is our own, closing it makes ZooKeeper get rid of whatever ephemeral nodes are left over.
+        // If it's shared, it stays up, and so do they, until the last session sharing it is closed.
+        final Map<Long, List<Integer>> owners = new LinkedHashMap<>();
+        final Set<Integer> done = ConcurrentHashMap.newKeySet();
+        for (Map.Entry<Integer, Cleanup> entry : this.cleanups.descendingMap().entrySet())
+        {
+            owners.computeIfAbsent(entry.getValue().owner, (o) -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.cleanupTimeout);
+        // Even a single owner's cleanup runs on its own thread, since any one item may hang (i.e. retrying forever
+        // while ZooKeeper is down), and the deadline is only checked between items
+        final List<Thread> threads = new ArrayList<>(owners.size());
+        owners.forEach((owner, keys) -> {
+            Thread t = new Thread(() -> cleanup(owner, keys, deadline, done), "ZookeeperConnection-Cleanup-" + owner);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        });
+
+        try
+        {
+            for (Thread t : threads)
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0)
+                {
+                    TimeUnit.NANOSECONDS.timedJoin(t, remaining);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        final Set<String> abandoned = new TreeSet<>();
+        owners.values().forEach((keys) -> keys.stream() //
+                .filter((k) -> !done.contains(k)) //
+                .map(this.cleanups::get) //
+                .filter((c) -> (c != null) && (c.path != null)) //
+                .forEach((c) -> abandoned.add(c.path)));
+        if (abandoned.isEmpty())
+        {
+            // Nothing was left behind
+        }
+        else if (this.lease != null)
+        {
+            this.log.warn(
+                    "Emergency cleanup did not complete within {}ms, and the connection is shared so these nodes will remain until the last session sharing it is closed: {}",
+                    this.cleanupTimeout, getLeftovers(abandoned));
+        }
+        else
+        {
+            this.log.warn("Emergency cleanup did not complete within {}ms, closing the client anyway to release the nodes under {}",
+                    this.cleanupTimeout, abandoned);
+        }
+
+        this.client.getConnectionStateListenable().removeListener(this.stateListener);
+        if (this.lease != null)
+        {
+            // Others may still be using it, so the pool decides when to close it
+            this.lease.close();
+        }
+        else if (this.client.getState() != CuratorFrameworkState.STOPPED)
         {
             try
             {
@@ -229,11 +553,13 @@ public class Session implements AutoCloseable
                 this.log.warn("Exception caught while closing the main client", e);
             }
         }
+        PhaseMetrics.record(Phase.cleanup, start);
     }
 
     @Override
     public synchronized void close()
     {
+        this.connected.completeExceptionally(new IllegalStateException("The session was closed before it connected"));
         if (this.client != null)
         {
             try
@@ -244,7 +570,15 @@ public class Session implements AutoCloseable
             {
                 if (this.cleanup != null)
                 {
-                    Runtime.getRuntime().removeShutdownHook(this.cleanup);
+                    try
+                    {
+                        Runtime.getRuntime().removeShutdownHook(this.cleanup);
+                    }
+                    catch (IllegalStateException e)
+                    {
+                        // The JVM is already shutting down, so the hook is running (or has run) anyway
+                        this.log.trace("Can't unregister the shutdown hook during shutdown", e);
+                    }
                 }
                 this.cleanup = null;
             }
@@ -263,7 +597,17 @@ public class Session implements AutoCloseable
 
         private Integer retryDelay = Session.DEFAULT_RETRY_DELAY;
         private Integer retryCount = Session.DEFAULT_RETRY_COUNT;
+        private RetryType retryType = null;
+        private Integer retryMaxDelay = null;
+        private Integer retryMaxElapsed = null;
         private Boolean waitForConnection = Session.DEFAULT_WAIT_FOR_CONNECTION;
+        private Boolean shareConnection = null;
+
+        private String codec = null;
+        private String valueCodec = null;
+        private Integer compressionThreshold = null;
+        private Integer cleanupTimeout = null;
+        private Integer logSampling = null;
 
         private String computeString(String name, String val)
         {
@@ -440,6 +784,47 @@ public class Session implements AutoCloseable
             return this;
         }
 
+        public RetryType retryType()
+        {
+            return Tools.ifNull(this.retryType, () -> RetryType.getDefault(this.retryCount));
+        }
+
+        public Builder retryType(RetryType retryType)
+        {
+            this.retryType = retryType;
+            return this;
+        }
+
+        public int retryMaxDelay()
+        {
+            return Tools.ifNull(this.retryMaxDelay, () -> Session.DEFAULT_RETRY_MAX_DELAY);
+        }
+
+        /**
+         * The longest (in milliseconds) the backoff policies may wait between retries. It's never less than the retry
+         * delay.
+         */
+        public Builder retryMaxDelay(int retryMaxDelay)
+        {
+            this.retryMaxDelay = Session.sanitizeValue(retryMaxDelay, Session.DEFAULT_RETRY_MAX_DELAY, Session.MIN_RETRY_DELAY);
+            return this;
+        }
+
+        public int retryMaxElapsed()
+        {
+            return Tools.ifNull(this.retryMaxElapsed, () -> Session.DEFAULT_RETRY_MAX_ELAPSED);
+        }
+
+        /**
+         * The longest (in milliseconds) an operation may keep retrying before giving up, regardless of the retry type or
+         * count. A value of 0 or less means there's no such limit.
+         */
+        public Builder retryMaxElapsed(int retryMaxElapsed)
+        {
+            this.retryMaxElapsed = Math.max(0, retryMaxElapsed);
+            return this;
+        }
+
         public boolean waitForConnection()
         {
             return this.waitForConnection;
@@ -451,6 +836,89 @@ public class Session implements AutoCloseable
             return this;
         }
 
+        public boolean shareConnection()
+        {
+            return Tools.ifNull(this.shareConnection, () -> Session.DEFAULT_SHARE_CONNECTION);
+        }
+
+        /**
+         * Share the ZooKeeper connection with any other sessions in this JVM that use the same hosts and connection
+         * settings (each still sees only its own chroot). Keep in mind that ephemeral nodes belong to the connection, so
+         * they'll only go away when the last of the sessions sharing it is closed.
+         */
+        public Builder shareConnection(Boolean share)
+        {
+            this.shareConnection = share;
+            return this;
+        }
+
+        public String codec()
+        {
+            return this.codec;
+        }
+
+        public Builder codec(String codec)
+        {
+            this.codec = codec;
+            return this;
+        }
+
+        public String valueCodec()
+        {
+            return this.valueCodec;
+        }
+
+        /**
+         * How values are stored (see {@link ValueCodec#get(String)}): <code>java</code> (the default), which every
+         * version can read, or the more compact <code>binary</code>, which older versions can't.
+         */
+        public Builder valueCodec(String valueCodec)
+        {
+            this.valueCodec = valueCodec;
+            return this;
+        }
+
+        public int compressionThreshold()
+        {
+            return Tools.ifNull(this.compressionThreshold, () -> Session.DEFAULT_COMPRESSION_THRESHOLD);
+        }
+
+        public Builder compressionThreshold(int compressionThreshold)
+        {
+            this.compressionThreshold = Session.sanitizeCompressionThreshold(compressionThreshold);
+            return this;
+        }
+
+        public int cleanupTimeout()
+        {
+            return Tools.ifNull(this.cleanupTimeout, () -> Session.DEFAULT_CLEANUP_TIMEOUT);
+        }
+
+        /**
+         * How long (in milliseconds) the session may spend releasing its outstanding locks, leaderships, etc. when it's
+         * closed (or the JVM shuts down) before it closes the connection anyway.
+         */
+        public Builder cleanupTimeout(int cleanupTimeout)
+        {
+            this.cleanupTimeout = Session.sanitizeCleanupTimeout(cleanupTimeout);
+            return this;
+        }
+
+        public int logSampling()
+        {
+            return Tools.ifNull(this.logSampling, () -> Session.DEFAULT_LOG_SAMPLING);
+        }
+
+        /**
+         * Log the details of only about one in every <code>logSampling</code> lock or leadership acquisitions, so
+         * heavy users of the recipes don't pay for building all those messages (1, the default, logs them all).
+         */
+        public Builder logSampling(int logSampling)
+        {
+            this.logSampling = Session.sanitizeLogSampling(logSampling);
+            return this;
+        }
+
         public Builder configure()
         {
             computeConnectStrings(computeString("zk.host", this.connect), computeString("zk.instance", this.instanceId));
@@ -461,14 +929,70 @@ public class Session implements AutoCloseable
             this.retryDelay = computeInteger("zk.retry.delay", this.retryDelay, Session.DEFAULT_RETRY_DELAY,
                     Session.MIN_CONNECTION_TIMEOUT);
             this.retryCount = computeInteger("zk.retry.count", this.retryCount, Session.DEFAULT_RETRY_COUNT, Session.MIN_RETRY_COUNT);
+            if (this.retryType == null)
+            {
+                this.retryType = RetryType.parse(computeString("zk.retry.type", null), RetryType.getDefault(this.retryCount));
+            }
+            this.retryMaxDelay = Math.max(this.retryDelay,
+                    computeInteger("zk.retry.max.delay", this.retryMaxDelay, Session.MIN_RETRY_DELAY, Session.DEFAULT_RETRY_MAX_DELAY));
+            this.retryMaxElapsed = computeInteger("zk.retry.max.elapsed", this.retryMaxElapsed, 0, Session.DEFAULT_RETRY_MAX_ELAPSED);
             this.waitForConnection = computeBoolean("zk.connection.wait", this.waitForConnection, Session.DEFAULT_WAIT_FOR_CONNECTION);
+            this.shareConnection = computeBoolean("zk.connection.shared", this.shareConnection, Session.DEFAULT_SHARE_CONNECTION);
+            this.codec = computeString("zk.codec", this.codec);
+            this.valueCodec = computeString("zk.value.codec", this.valueCodec);
+            this.cleanupTimeout = computeInteger("zk.cleanup.timeout", this.cleanupTimeout, Session.MIN_CLEANUP_TIMEOUT,
+                    Session.DEFAULT_CLEANUP_TIMEOUT);
+            this.logSampling = computeInteger("zk.log.sampling", this.logSampling, 1, Session.DEFAULT_LOG_SAMPLING);
+            this.compressionThreshold = computeInteger("zk.codec.threshold", this.compressionThreshold,
+                    Session.MIN_COMPRESSION_THRESHOLD, Session.DEFAULT_COMPRESSION_THRESHOLD);
             return this;
         }
 
+        /**
+         * Describes the settings that decide which ZooKeeper data the session works with, and how its payloads are
+         * encoded: sessions with the same fingerprint can run each other's operations. Only meaningful once the
+         * builder's been {@link #configure() configured}.
+         */
+        public String fingerprint()
+        {
+            return String.format("%s%s;codec=%s;threshold=%d;values=%s", ClientPool.normalize(this.hostConnect),
+                    StringUtils.defaultString(this.chroot), PayloadCodec.get(this.codec).getName(), compressionThreshold(),
+                    (ValueCodec.get(this.valueCodec) == ValueCodec.BINARY ? "binary" : "java"));
+        }
+
         public Session build() throws InterruptedException
         {
             configure();
-            return new Session(this);
+            return new Session(this, this.waitForConnection);
+        }
+
+        /**
+         * Builds the session without waiting for it to connect, regardless of {@link #waitForConnection()}. The
+         * returned future completes once the session first connects (see {@link Session#whenConnected()}), so the
+         * caller may do other work while the connection is established. If the future fails or is cancelled, the
+         * session is closed.
+         */
+        public CompletableFuture<Session> connectAsync()
+        {
+            configure();
+            try
+            {
+                final Session session = new Session(this, false);
+                final CompletableFuture<Session> connected = session.whenConnected();
+                connected.whenComplete((s, e) -> {
+                    if (e != null)
+                    {
+                        session.close();
+                    }
+                });
+                return connected;
+            }
+            catch (InterruptedException e)
+            {
+                // We don't wait for anything, so this can't really happen
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(e);
+            }
         }
     }
 }
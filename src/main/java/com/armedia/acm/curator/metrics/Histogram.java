@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A lock-free latency histogram in the style of HdrHistogram: values (in microseconds) are counted in buckets whose
+ * width doubles with every power of two, each split into {@link #SUB_BUCKETS} linear sub-buckets, so any recorded value
+ * is reported within about 6% of its actual value while the whole thing takes up a few KB. Values above
+ * {@link #MAX_VALUE} (about 71 minutes) all share the last bucket, so percentiles can't tell them apart, but the
+ * minimum, maximum, and total are always tracked exactly.
+ * </p>
+ */
+public final class Histogram
+{
+    private static final int SUB_BITS = 4;
+    public static final int SUB_BUCKETS = (1 << Histogram.SUB_BITS);
+    public static final long MAX_VALUE = (1L << 32) - 1;
+
+    private static final int BUCKETS = Histogram.getIndex(Histogram.MAX_VALUE) + 1;
+
+    static int getIndex(long value)
+    {
+        // The first two "powers" are linear, so each value gets its own bucket
+        if (value < (Histogram.SUB_BUCKETS << 1))
+        {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - Histogram.SUB_BITS;
+        return ((shift + 1) << Histogram.SUB_BITS) + (int) (value >>> shift) - Histogram.SUB_BUCKETS;
+    }
+
+    static long getValue(int index)
+    {
+        if (index < (Histogram.SUB_BUCKETS << 1))
+        {
+            return index;
+        }
+        final int shift = (index >>> Histogram.SUB_BITS) - 1;
+        final long lower = ((long) (index & (Histogram.SUB_BUCKETS - 1)) + Histogram.SUB_BUCKETS) << shift;
+        // Report the middle of the bucket
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(Histogram.BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void record(long duration, TimeUnit unit)
+    {
+        record(unit.toMicros(duration));
+    }
+
+    public void record(long micros)
+    {
+        micros = Math.max(0, micros);
+        this.counts.incrementAndGet(Histogram.getIndex(Math.min(Histogram.MAX_VALUE, micros)));
+        this.count.incrementAndGet();
+        this.total.addAndGet(micros);
+        this.min.accumulateAndGet(micros, Math::min);
+        this.max.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    public long getMin()
+    {
+        return (getCount() > 0 ? this.min.get() : 0);
+    }
+
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    public double getMean()
+    {
+        final long count = getCount();
+        return (count > 0 ? (double) this.total.get() / count : 0);
+    }
+
+    /**
+     * Returns the value (in microseconds) below which the given percentage of the recorded values fall.
+     */
+    public long getPercentile(double percentile)
+    {
+        final long count = getCount();
+        if (count <= 0)
+        {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil((Math.min(100, Math.max(0, percentile)) / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++)
+        {
+            seen += this.counts.get(i);
+            if (seen >= target)
+            {
+                if (i == (Histogram.BUCKETS - 1))
+                {
+                    // The last bucket has no upper bound, so the maximum is the best we can say about it
+                    return getMax();
+                }
+                // Never report beyond what was actually seen
+                return Math.max(getMin(), Math.min(getMax(), Histogram.getValue(i)));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns, for each of the given (ascending) upper bounds in microseconds, how many of the recorded values fall at
+     * or below it, as needed for cumulative (i.e. Prometheus-style) buckets. Since values are bucketed, one that's
+     * within the resolution of a bound may be counted as falling below it.
+     */
+    public long[] getCumulativeCounts(long... bounds)
+    {
+        final long[] counts = new long[bounds.length];
+        long seen = 0;
+        int i = 0;
+        for (int b = 0; b < bounds.length; b++)
+        {
+            final int last = Histogram.getIndex(Math.min(Histogram.MAX_VALUE, Math.max(0, bounds[b])));
+            for (; i <= last; i++)
+            {
+                seen += this.counts.get(i);
+            }
+            counts[b] = seen;
+        }
+        return counts;
+    }
+
+    public long getTotal()
+    {
+        return this.total.get();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < Histogram.BUCKETS; i++)
+        {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.min.set(Long.MAX_VALUE);
+        this.max.set(0);
+    }
+}
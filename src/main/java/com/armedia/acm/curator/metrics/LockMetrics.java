@@ -0,0 +1,350 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Wait time, hold time, and contention counters for a named lock (mutex, read or write lock, or leadership), shared by
+ * every recipe that uses that name within this JVM. Each instance is also registered as an MXBean named
+ * <code>com.armedia.acm.curator:type=Lock,kind=&lt;kind&gt;,name=&lt;name&gt;</code>, and {@link #render(Appendable)}
+ * produces a plain-text report of all of them.
+ * </p>
+ * <p>
+ * Names are often generated (i.e. random UUIDs), so only up to {@link #MAX_TRACKED} of them are tracked individually;
+ * any further ones are lumped together under {@link #OVERFLOW_NAME}.
+ * </p>
+ */
+public final class LockMetrics implements LockMetricsMXBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LockMetrics.class);
+
+    public static final String JMX_DOMAIN = "com.armedia.acm.curator";
+    public static final int MAX_TRACKED = 256;
+    public static final String OVERFLOW_NAME = "<other>";
+
+    private static final ConcurrentMap<String, LockMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private static String getKey(String kind, String name)
+    {
+        return String.format("%s:%s", kind, name);
+    }
+
+    public static LockMetrics get(String kind, String name)
+    {
+        Objects.requireNonNull(kind, "Must provide a lock kind");
+        Objects.requireNonNull(name, "Must provide a lock name");
+        LockMetrics metrics = LockMetrics.METRICS.get(LockMetrics.getKey(kind, name));
+        if (metrics != null)
+        {
+            return metrics;
+        }
+
+        // This may overshoot a bit under concurrency, which is fine: it's only meant to keep things bounded
+        if (LockMetrics.METRICS.size() >= LockMetrics.MAX_TRACKED)
+        {
+            name = LockMetrics.OVERFLOW_NAME;
+        }
+        final String actualName = name;
+        return LockMetrics.METRICS.computeIfAbsent(LockMetrics.getKey(kind, name), (k) -> new LockMetrics(kind, actualName).register());
+    }
+
+    /**
+     * Returns all the metrics tracked so far, sorted by kind and name.
+     */
+    public static List<LockMetrics> getAll()
+    {
+        final List<LockMetrics> all = new ArrayList<>(LockMetrics.METRICS.values());
+        all.sort(Comparator.comparing(LockMetrics::getKind).thenComparing(LockMetrics::getName));
+        return all;
+    }
+
+    private static String format(double millis)
+    {
+        return String.format("%.3f", millis);
+    }
+
+    /**
+     * Write a plain-text report of all the tracked locks, one per line, with times in milliseconds.
+     */
+    public static void render(Appendable out) throws IOException
+    {
+        for (LockMetrics m : LockMetrics.getAll())
+        {
+            out.append(String.format("%s %s acquisitions=%d timeouts=%d failures=%d waiting=%d held=%d queue=%d" //
+                    + " wait.mean=%s wait.p50=%s wait.p99=%s wait.max=%s" //
+                    + " hold.mean=%s hold.p50=%s hold.p99=%s hold.max=%s%n",
+                    m.kind, m.name, m.getAcquisitions(), m.getTimeouts(), m.getFailures(), m.getWaiting(), m.getHeld(), m.getQueueDepth(),
+                    LockMetrics.format(m.getWaitMean()), LockMetrics.format(m.getWaitMedian()),
+                    LockMetrics.format(m.getWait99thPercentile()), LockMetrics.format(m.getWaitMax()),
+                    LockMetrics.format(m.getHoldMean()), LockMetrics.format(m.getHoldMedian()),
+                    LockMetrics.format(m.getHold99thPercentile()), LockMetrics.format(m.getHoldMax())));
+        }
+    }
+
+    public static String render()
+    {
+        final StringBuilder sb = new StringBuilder();
+        try
+        {
+            LockMetrics.render(sb);
+        }
+        catch (IOException e)
+        {
+            // Can't happen with a StringBuilder
+            throw new RuntimeException("Failed to render the lock metrics", e);
+        }
+        return sb.toString();
+    }
+
+    private static double toMillis(double micros)
+    {
+        return micros / 1000.0;
+    }
+
+    private final String kind;
+    private final String name;
+    private final Histogram wait = new Histogram();
+    private final Histogram hold = new Histogram();
+    private final AtomicLong acquisitions = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong waiting = new AtomicLong(0);
+    private final AtomicLong held = new AtomicLong(0);
+    private final AtomicInteger queueDepth = new AtomicInteger(0);
+
+    private LockMetrics(String kind, String name)
+    {
+        this.kind = kind;
+        this.name = name;
+    }
+
+    private LockMetrics register()
+    {
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(String.format("%s:type=Lock,kind=%s,name=%s", LockMetrics.JMX_DOMAIN,
+                    ObjectName.quote(this.kind), ObjectName.quote(this.name)));
+            if (!server.isRegistered(objectName))
+            {
+                server.registerMBean(this, objectName);
+            }
+        }
+        catch (Exception e)
+        {
+            LockMetrics.LOG.warn("Failed to register the JMX bean for the {} lock [{}]", this.kind, this.name, e);
+        }
+        return this;
+    }
+
+    /**
+     * Signal that a thread has started waiting for the lock, returning the timestamp to pass on to
+     * {@link #acquired(long)}. It must be followed by a call to that method, {@link #timedOut()}, or {@link #failed()}.
+     */
+    public long waiting()
+    {
+        this.waiting.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Signal that the lock was acquired, returning the timestamp to pass on to {@link #released(long)}. The wait is
+     * also added to the current {@link PhaseTrace} (if any) as a phase named after the lock's kind.
+     */
+    public long acquired(long start)
+    {
+        final long now = System.nanoTime();
+        this.waiting.decrementAndGet();
+        this.wait.record(now - start, TimeUnit.NANOSECONDS);
+        this.acquisitions.incrementAndGet();
+        this.held.incrementAndGet();
+        PhaseTrace.record(this.kind, start, now);
+        return now;
+    }
+
+    public void timedOut()
+    {
+        this.waiting.decrementAndGet();
+        this.timeouts.incrementAndGet();
+    }
+
+    public void failed()
+    {
+        this.waiting.decrementAndGet();
+        this.failures.incrementAndGet();
+    }
+
+    public void released(long acquired)
+    {
+        this.held.decrementAndGet();
+        this.hold.record(System.nanoTime() - acquired, TimeUnit.NANOSECONDS);
+    }
+
+    public Histogram getWaitHistogram()
+    {
+        return this.wait;
+    }
+
+    public Histogram getHoldHistogram()
+    {
+        return this.hold;
+    }
+
+    @Override
+    public String getKind()
+    {
+        return this.kind;
+    }
+
+    @Override
+    public String getName()
+    {
+        return this.name;
+    }
+
+    @Override
+    public long getAcquisitions()
+    {
+        return this.acquisitions.get();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return this.timeouts.get();
+    }
+
+    @Override
+    public long getFailures()
+    {
+        return this.failures.get();
+    }
+
+    @Override
+    public long getWaiting()
+    {
+        return this.waiting.get();
+    }
+
+    @Override
+    public long getHeld()
+    {
+        return this.held.get();
+    }
+
+    /**
+     * Returns the number of nodes under the lock's node in ZooKeeper, i.e. how many participants (from any process) were
+     * queued up for it or holding it when it was last looked at. The recipes refresh it in the background whenever they
+     * acquire or release the lock (see {@link #setQueueDepth(int)}), so reading it never has to wait for ZooKeeper.
+     */
+    @Override
+    public int getQueueDepth()
+    {
+        return this.queueDepth.get();
+    }
+
+    public void setQueueDepth(int queueDepth)
+    {
+        this.queueDepth.set(Math.max(0, queueDepth));
+    }
+
+    @Override
+    public double getWaitMean()
+    {
+        return LockMetrics.toMillis(this.wait.getMean());
+    }
+
+    @Override
+    public double getWaitMedian()
+    {
+        return LockMetrics.toMillis(this.wait.getPercentile(50));
+    }
+
+    @Override
+    public double getWait99thPercentile()
+    {
+        return LockMetrics.toMillis(this.wait.getPercentile(99));
+    }
+
+    @Override
+    public double getWaitMax()
+    {
+        return LockMetrics.toMillis(this.wait.getMax());
+    }
+
+    @Override
+    public double getHoldMean()
+    {
+        return LockMetrics.toMillis(this.hold.getMean());
+    }
+
+    @Override
+    public double getHoldMedian()
+    {
+        return LockMetrics.toMillis(this.hold.getPercentile(50));
+    }
+
+    @Override
+    public double getHold99thPercentile()
+    {
+        return LockMetrics.toMillis(this.hold.getPercentile(99));
+    }
+
+    @Override
+    public double getHoldMax()
+    {
+        return LockMetrics.toMillis(this.hold.getMax());
+    }
+
+    @Override
+    public void reset()
+    {
+        this.wait.reset();
+        this.hold.reset();
+        this.acquisitions.set(0);
+        this.timeouts.set(0);
+        this.failures.set(0);
+    }
+}
@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+/**
+ * The JMX view of a named lock's {@link LockMetrics}. All times are in milliseconds.
+ */
+public interface LockMetricsMXBean
+{
+    public String getKind();
+
+    public String getName();
+
+    public long getAcquisitions();
+
+    public long getTimeouts();
+
+    public long getFailures();
+
+    public long getWaiting();
+
+    public long getHeld();
+
+    public int getQueueDepth();
+
+    public double getWaitMean();
+
+    public double getWaitMedian();
+
+    public double getWait99thPercentile();
+
+    public double getWaitMax();
+
+    public double getHoldMean();
+
+    public double getHoldMedian();
+
+    public double getHold99thPercentile();
+
+    public double getHoldMax();
+
+    public void reset();
+}
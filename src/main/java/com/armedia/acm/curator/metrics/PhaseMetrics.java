@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * How long each phase of the wrapper's work takes (parsing the configuration, connecting, running the wrapped
+ * commands, and transferring data), along with how many bytes were transferred each way. These are accumulated for the
+ * life of the process, so a daemon reports on all the operations it has run.
+ * </p>
+ * <p>
+ * Each phase is also added to the current {@link PhaseTrace}, if one is being collected.
+ * </p>
+ */
+public final class PhaseMetrics
+{
+    public static enum Phase
+    {
+        //
+        jvm, //
+        config, //
+        session, //
+        connect, //
+        chroot, //
+        check, //
+        spawn, //
+        command, //
+        upload, //
+        download, //
+        cleanup, //
+        //
+        ;
+    }
+
+    private static final Map<Phase, Histogram> DURATIONS;
+    private static final Map<Phase, AtomicLong> BYTES;
+    static
+    {
+        final Map<Phase, Histogram> durations = new EnumMap<>(Phase.class);
+        final Map<Phase, AtomicLong> bytes = new EnumMap<>(Phase.class);
+        for (Phase p : Phase.values())
+        {
+            durations.put(p, new Histogram());
+            bytes.put(p, new AtomicLong(0));
+        }
+        DURATIONS = Collections.unmodifiableMap(durations);
+        BYTES = Collections.unmodifiableMap(bytes);
+    }
+
+    private PhaseMetrics()
+    {
+    }
+
+    /**
+     * Returns the timestamp to later pass on to {@link #record(Phase, long)} once the phase is done.
+     */
+    public static long start()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the phase as having ended now, and return the current timestamp (i.e. to start the next one with).
+     */
+    public static long record(Phase phase, long start)
+    {
+        final long end = System.nanoTime();
+        PhaseMetrics.DURATIONS.get(phase).record(end - start, TimeUnit.NANOSECONDS);
+        PhaseTrace.record(phase.name(), start, end);
+        return end;
+    }
+
+    public static void transferred(Phase phase, long bytes)
+    {
+        PhaseMetrics.BYTES.get(phase).addAndGet(bytes);
+    }
+
+    public static Histogram getDurations(Phase phase)
+    {
+        return PhaseMetrics.DURATIONS.get(phase);
+    }
+
+    public static long getBytes(Phase phase)
+    {
+        return PhaseMetrics.BYTES.get(phase).get();
+    }
+
+    public static void reset()
+    {
+        for (Phase p : Phase.values())
+        {
+            PhaseMetrics.DURATIONS.get(p).reset();
+            PhaseMetrics.BYTES.get(p).set(0);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A timeline of the phases a single run goes through (from the JVM's start to the session's cleanup), which can be
+ * written out as a single JSON line on exit. Only one trace is collected at a time, and only once
+ * {@link #begin()} is invoked, so recording phases costs next to nothing otherwise. Long-lived processes (i.e. the
+ * daemon) shouldn't collect one, but the number of phases kept is capped at {@link #MAX_PHASES} regardless.
+ * </p>
+ */
+public final class PhaseTrace
+{
+    public static final int MAX_PHASES = 256;
+
+    /**
+     * The target value which sends the trace to stderr instead of a file.
+     */
+    public static final String STDERR = "-";
+
+    private static volatile PhaseTrace CURRENT = null;
+
+    private static final class Span
+    {
+        private final String phase;
+        private final long start;
+        private final long end;
+
+        private Span(String phase, long start, long end)
+        {
+            this.phase = phase;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Start collecting a new trace, replacing any previous one.
+     */
+    public static PhaseTrace begin()
+    {
+        final PhaseTrace trace = new PhaseTrace();
+        PhaseTrace.CURRENT = trace;
+        return trace;
+    }
+
+    /**
+     * Stop collecting the current trace (if any), and return it.
+     */
+    public static PhaseTrace end()
+    {
+        final PhaseTrace trace = PhaseTrace.CURRENT;
+        PhaseTrace.CURRENT = null;
+        return trace;
+    }
+
+    public static PhaseTrace current()
+    {
+        return PhaseTrace.CURRENT;
+    }
+
+    /**
+     * Add the phase that spanned the given {@link System#nanoTime()} timestamps to the current trace, if there is
+     * one.
+     */
+    public static void record(String phase, long start, long end)
+    {
+        final PhaseTrace trace = PhaseTrace.CURRENT;
+        if (trace != null)
+        {
+            trace.add(new Span(phase, start, end));
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String value)
+    {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            switch (c)
+            {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20)
+                {
+                    sb.append(String.format("\\u%04x", (int) c));
+                }
+                else
+                {
+                    sb.append(c);
+                }
+                break;
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void appendValue(StringBuilder sb, Object value)
+    {
+        if (value == null)
+        {
+            sb.append("null");
+        }
+        else if ((value instanceof Number) || (value instanceof Boolean))
+        {
+            sb.append(value);
+        }
+        else
+        {
+            PhaseTrace.appendString(sb, value.toString());
+        }
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private final Instant jvmStart;
+    private final long origin;
+    private final List<Span> spans = new ArrayList<>();
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    private PhaseTrace()
+    {
+        // All offsets are relative to the JVM's start, which is only known to the millisecond
+        final long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        this.origin = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(uptime);
+        this.jvmStart = Instant.ofEpochMilli(ManagementFactory.getRuntimeMXBean().getStartTime());
+        this.attributes.put("pid", ProcessHandle.current().pid());
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} timestamp of the JVM's start.
+     */
+    public long getOrigin()
+    {
+        return this.origin;
+    }
+
+    private synchronized void add(Span span)
+    {
+        if (this.spans.size() < PhaseTrace.MAX_PHASES)
+        {
+            this.spans.add(span);
+        }
+    }
+
+    /**
+     * Add a value to describe the run with (i.e. the mode, or the exit status).
+     */
+    public synchronized PhaseTrace set(String key, Object value)
+    {
+        this.attributes.put(key, value);
+        return this;
+    }
+
+    public synchronized List<String> getPhases()
+    {
+        final List<String> phases = new ArrayList<>(this.spans.size());
+        this.spans.forEach((s) -> phases.add(s.phase));
+        return phases;
+    }
+
+    /**
+     * Render the trace as a single line of JSON, with all the times given in milliseconds. Each phase's start is given
+     * as the offset from the JVM's start, in the order they ended.
+     */
+    public synchronized String toJson()
+    {
+        final StringBuilder sb = new StringBuilder(128 + (this.spans.size() * 64));
+        sb.append("{\"start\":");
+        PhaseTrace.appendString(sb, this.jvmStart.toString());
+        this.attributes.forEach((k, v) -> {
+            sb.append(',');
+            PhaseTrace.appendString(sb, k);
+            sb.append(':');
+            PhaseTrace.appendValue(sb, v);
+        });
+        sb.append(",\"total\":").append(PhaseTrace.millis(System.nanoTime() - this.origin));
+        sb.append(",\"phases\":[");
+        boolean first = true;
+        for (Span s : this.spans)
+        {
+            if (!first)
+            {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"phase\":");
+            PhaseTrace.appendString(sb, s.phase);
+            sb.append(",\"start\":").append(PhaseTrace.millis(s.start - this.origin));
+            sb.append(",\"duration\":").append(PhaseTrace.millis(s.end - s.start));
+            sb.append('}');
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * Write the trace to stderr (if the target is {@link #STDERR}), or append it to the given file, as a single line.
+     */
+    public void write(String target) throws IOException
+    {
+        final String line = toJson() + System.lineSeparator();
+        if (PhaseTrace.STDERR.equals(target))
+        {
+            final PrintStream err = System.err;
+            err.print(line);
+            err.flush();
+            return;
+        }
+
+        // A single append of a short line keeps lines from concurrent writers from being interleaved
+        Files.write(Path.of(target), line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+}
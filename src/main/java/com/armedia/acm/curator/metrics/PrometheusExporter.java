@@ -0,0 +1,288 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Publishes the {@link PhaseMetrics} and {@link LockMetrics} in the Prometheus text exposition format, either through
+ * an embedded HTTP endpoint (see {@link #start(String, int)}) for long-lived processes, or by writing them into a file
+ * (see {@link #write(Path)}) to be picked up by node_exporter's textfile collector, for short-lived ones.
+ * </p>
+ */
+public final class PrometheusExporter implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final String PATH = "/metrics";
+
+    private static final String PREFIX = "curator_wrapper";
+
+    // The bucket bounds, in microseconds, that cover everything from a quick ZooKeeper round trip to a long-running
+    // command
+    private static final long[] BUCKETS = {
+            1000L, 5000L, 10000L, 50000L, 100000L, 250000L, 500000L, //
+            1000000L, 2500000L, 5000000L, 10000000L, 30000000L, 60000000L, 300000000L, 1800000000L //
+    };
+
+    private static String escape(String value)
+    {
+        return StringUtils.replaceEach(value, new String[] {
+                "\\", "\"", "\n"
+        }, new String[] {
+                "\\\\", "\\\"", "\\n"
+        });
+    }
+
+    private static String seconds(double micros)
+    {
+        return String.valueOf(micros / 1000000.0);
+    }
+
+    private static void header(Appendable out, String metric, String type, String help) throws IOException
+    {
+        out.append(String.format("# HELP %s_%s %s%n# TYPE %s_%s %s%n", PrometheusExporter.PREFIX, metric, help, PrometheusExporter.PREFIX,
+                metric, type));
+    }
+
+    private static void sample(Appendable out, String metric, String labels, Object value) throws IOException
+    {
+        out.append(PrometheusExporter.PREFIX).append('_').append(metric);
+        if (!StringUtils.isEmpty(labels))
+        {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(String.valueOf(value)).append('\n');
+    }
+
+    private static void histogram(Appendable out, String metric, String labels, Histogram h) throws IOException
+    {
+        final String prefix = (StringUtils.isEmpty(labels) ? "" : labels + ",");
+        final long[] counts = h.getCumulativeCounts(PrometheusExporter.BUCKETS);
+        // Read the count last so the +Inf bucket is never below the others
+        final long count = h.getCount();
+        for (int i = 0; i < counts.length; i++)
+        {
+            PrometheusExporter.sample(out, metric + "_bucket",
+                    String.format("%sle=\"%s\"", prefix, PrometheusExporter.seconds(PrometheusExporter.BUCKETS[i])), Math.min(count, counts[i]));
+        }
+        PrometheusExporter.sample(out, metric + "_bucket", String.format("%sle=\"+Inf\"", prefix), count);
+        PrometheusExporter.sample(out, metric + "_sum", labels, PrometheusExporter.seconds(h.getTotal()));
+        PrometheusExporter.sample(out, metric + "_count", labels, count);
+    }
+
+    private static String lockLabels(LockMetrics m)
+    {
+        return String.format("kind=\"%s\",name=\"%s\"", PrometheusExporter.escape(m.getKind()), PrometheusExporter.escape(m.getName()));
+    }
+
+    public static void render(Appendable out) throws IOException
+    {
+        PrometheusExporter.header(out, "phase_seconds", "histogram", "Time spent in each phase of the wrapper's operations");
+        for (Phase p : Phase.values())
+        {
+            PrometheusExporter.histogram(out, "phase_seconds", String.format("phase=\"%s\"", p.name()), PhaseMetrics.getDurations(p));
+        }
+
+        PrometheusExporter.header(out, "transfer_bytes_total", "counter", "Bytes transferred to (upload) or from (download) ZooKeeper");
+        PrometheusExporter.sample(out, "transfer_bytes_total", "direction=\"upload\"", PhaseMetrics.getBytes(Phase.upload));
+        PrometheusExporter.sample(out, "transfer_bytes_total", "direction=\"download\"", PhaseMetrics.getBytes(Phase.download));
+
+        final Iterable<LockMetrics> locks = LockMetrics.getAll();
+        PrometheusExporter.header(out, "lock_wait_seconds", "histogram", "Time spent waiting to acquire each lock");
+        for (LockMetrics m : locks)
+        {
+            PrometheusExporter.histogram(out, "lock_wait_seconds", PrometheusExporter.lockLabels(m), m.getWaitHistogram());
+        }
+        PrometheusExporter.header(out, "lock_hold_seconds", "histogram", "Time each lock was held for");
+        for (LockMetrics m : locks)
+        {
+            PrometheusExporter.histogram(out, "lock_hold_seconds", PrometheusExporter.lockLabels(m), m.getHoldHistogram());
+        }
+        PrometheusExporter.header(out, "lock_timeouts_total", "counter", "Attempts to acquire each lock that timed out");
+        for (LockMetrics m : locks)
+        {
+            PrometheusExporter.sample(out, "lock_timeouts_total", PrometheusExporter.lockLabels(m), m.getTimeouts());
+        }
+        PrometheusExporter.header(out, "lock_failures_total", "counter", "Attempts to acquire each lock that failed");
+        for (LockMetrics m : locks)
+        {
+            PrometheusExporter.sample(out, "lock_failures_total", PrometheusExporter.lockLabels(m), m.getFailures());
+        }
+        PrometheusExporter.header(out, "lock_waiting", "gauge", "Threads currently waiting for each lock");
+        for (LockMetrics m : locks)
+        {
+            PrometheusExporter.sample(out, "lock_waiting", PrometheusExporter.lockLabels(m), m.getWaiting());
+        }
+        PrometheusExporter.header(out, "lock_held", "gauge", "Threads currently holding each lock");
+        for (LockMetrics m : locks)
+        {
+            PrometheusExporter.sample(out, "lock_held", PrometheusExporter.lockLabels(m), m.getHeld());
+        }
+    }
+
+    public static String render()
+    {
+        final StringBuilder sb = new StringBuilder();
+        try
+        {
+            PrometheusExporter.render(sb);
+        }
+        catch (IOException e)
+        {
+            // Can't happen with a StringBuilder
+            throw new RuntimeException("Failed to render the metrics", e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the metrics into the given file. The file is replaced atomically, as the textfile collector requires.
+     */
+    public static void write(Path file) throws IOException
+    {
+        final Path absolute = file.toAbsolutePath();
+        final Path parent = absolute.getParent();
+        if (parent != null)
+        {
+            Files.createDirectories(parent);
+        }
+        final Path temp = absolute.resolveSibling(String.format(".%s.%s.tmp", absolute.getFileName(), UUID.randomUUID()));
+        try
+        {
+            try (Writer w = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+            {
+                PrometheusExporter.render(w);
+            }
+            try
+            {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Start serving the metrics over HTTP at {@link #PATH}, on the given address and port (if the address is blank, all
+     * interfaces are used, and if the port is 0, an ephemeral one is chosen). The endpoint stops when the returned
+     * object is closed.
+     */
+    public static PrometheusExporter start(String host, int port) throws IOException
+    {
+        final InetSocketAddress address = (StringUtils.isBlank(host) ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+        final HttpServer server = HttpServer.create(address, 0);
+        final ExecutorService executor = Executors.newSingleThreadExecutor((r) -> {
+            final Thread t = new Thread(r, "metrics-exporter");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(PrometheusExporter.PATH, PrometheusExporter::handle);
+        server.start();
+        PrometheusExporter.LOG.info("Serving the metrics at http://{}:{}{}", server.getAddress().getHostString(),
+                server.getAddress().getPort(), PrometheusExporter.PATH);
+        return new PrometheusExporter(server, executor);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException
+    {
+        // HttpExchange is only AutoCloseable from Java 17 on
+        try
+        {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final byte[] body = PrometheusExporter.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PrometheusExporter.CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private PrometheusExporter(HttpServer server, ExecutorService executor)
+    {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return this.server.getAddress();
+    }
+
+    @Override
+    public void close()
+    {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
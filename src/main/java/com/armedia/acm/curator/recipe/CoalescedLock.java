@@ -0,0 +1,340 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.recipe;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A two-level lock: threads within this JVM first queue up on a fair, local lock, and only the one at the head of the
+ * queue needs to hold the ZooKeeper lock. When it's done, it hands the ZooKeeper lock over to the next local waiter (up
+ * to {@link #MAX_HANDOFFS} times in a row, so other processes get their turn), which saves creating, watching, and
+ * deleting a lock node for every thread.
+ * <p>
+ * Curator's {@link InterProcessMutex} may only be released by the thread that acquired it, so each stretch of time for
+ * which we hold it (a "tenure") is managed by its own thread. This keeps the node layout the same as a plain
+ * {@link InterProcessMutex}'s, so we still exclude processes that use one directly.
+ */
+class CoalescedLock
+{
+    static final int MAX_HANDOFFS = 16;
+
+    private final class Tenure implements Runnable
+    {
+        private final long timeout;
+        private final CompletableFuture<Boolean> acquired = new CompletableFuture<>();
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private final Thread thread;
+
+        private Tenure(long timeout)
+        {
+            this.timeout = timeout;
+            this.thread = new Thread(this, String.format("Mutex-Tenure-%s", CoalescedLock.this.path));
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                final boolean ok;
+                if (this.timeout < 0)
+                {
+                    CoalescedLock.this.mutex.acquire();
+                    ok = true;
+                }
+                else
+                {
+                    ok = CoalescedLock.this.mutex.acquire(this.timeout, TimeUnit.NANOSECONDS);
+                }
+                if (!this.acquired.complete(ok) && ok)
+                {
+                    // Nobody's waiting for it anymore
+                    CoalescedLock.this.mutex.release();
+                    return;
+                }
+                if (!ok)
+                {
+                    return;
+                }
+            }
+            catch (Throwable t)
+            {
+                this.acquired.completeExceptionally(t);
+                return;
+            }
+
+            try
+            {
+                this.release.await();
+            }
+            catch (InterruptedException e)
+            {
+                // We release it anyway
+            }
+
+            try
+            {
+                CoalescedLock.this.mutex.release();
+                this.released.complete(null);
+            }
+            catch (Throwable t)
+            {
+                this.released.completeExceptionally(t);
+            }
+        }
+
+        private boolean await() throws Exception
+        {
+            try
+            {
+                return this.acquired.get();
+            }
+            catch (InterruptedException e)
+            {
+                // Don't leave the lock behind if the tenure thread gets it after all
+                if (!this.acquired.complete(false) && this.acquired.getNow(false))
+                {
+                    release();
+                }
+                this.thread.interrupt();
+                throw e;
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+
+        private void release() throws Exception
+        {
+            this.release.countDown();
+            try
+            {
+                this.released.get();
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final String path;
+    private final InterProcessMutex mutex;
+    private final ReentrantLock local = new ReentrantLock(true);
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    // These are guarded by the local lock
+    private Tenure tenure = null;
+    private int handoffs = 0;
+
+    // Lets tests widen the window between deciding on a handoff and actually making it
+    volatile Runnable beforeHandoff = null;
+
+    CoalescedLock(CuratorFramework client, String path)
+    {
+        this.path = path;
+        this.mutex = new InterProcessMutex(client, path);
+    }
+
+    /**
+     * Acquire the lock, waiting at most the given number of nanoseconds for it (forever, if it's negative).
+     */
+    boolean acquire(long timeout) throws Exception
+    {
+        final long start = System.nanoTime();
+        boolean locked = false;
+        this.waiting.incrementAndGet();
+        try
+        {
+            if (timeout < 0)
+            {
+                this.local.lockInterruptibly();
+                locked = true;
+            }
+            else
+            {
+                locked = this.local.tryLock(timeout, TimeUnit.NANOSECONDS);
+            }
+        }
+        finally
+        {
+            this.waiting.decrementAndGet();
+            if (!locked)
+            {
+                abandon();
+            }
+        }
+
+        if (!locked)
+        {
+            return false;
+        }
+
+        if (this.tenure != null)
+        {
+            // Either we already hold it, or it was handed over to us
+            this.log.trace("Reusing the ZooKeeper lock at [{}] (hold count {})", this.path, this.local.getHoldCount());
+            return true;
+        }
+
+        boolean acquired = false;
+        try
+        {
+            final Tenure tenure = new Tenure(timeout < 0 ? -1 : Math.max(0, timeout - (System.nanoTime() - start)));
+            acquired = tenure.await();
+            if (acquired)
+            {
+                this.tenure = tenure;
+                this.handoffs = 0;
+            }
+            return acquired;
+        }
+        finally
+        {
+            if (!acquired)
+            {
+                this.local.unlock();
+            }
+        }
+    }
+
+    void release() throws Exception
+    {
+        if (!this.local.isHeldByCurrentThread())
+        {
+            throw new IllegalMonitorStateException(String.format("The lock at [%s] is not held by this thread", this.path));
+        }
+
+        boolean handedOff = false;
+        try
+        {
+            if (this.local.getHoldCount() == 1)
+            {
+                if ((this.waiting.get() > 0) && (this.handoffs < CoalescedLock.MAX_HANDOFFS))
+                {
+                    this.handoffs++;
+                    handedOff = true;
+                    this.log.trace("Handing the ZooKeeper lock at [{}] over to a local waiter (# {})", this.path, this.handoffs);
+                    final Runnable beforeHandoff = this.beforeHandoff;
+                    if (beforeHandoff != null)
+                    {
+                        beforeHandoff.run();
+                    }
+                }
+                else
+                {
+                    endTenure();
+                }
+            }
+        }
+        finally
+        {
+            this.local.unlock();
+        }
+
+        if (handedOff)
+        {
+            // The waiter we handed it to may have given up before we let go of the local lock, in which case it
+            // couldn't release the ZooKeeper lock on its way out, so we have to
+            abandon();
+        }
+    }
+
+    private void endTenure() throws Exception
+    {
+        final Tenure tenure = this.tenure;
+        this.tenure = null;
+        this.handoffs = 0;
+        if (tenure != null)
+        {
+            tenure.release();
+        }
+    }
+
+    /**
+     * Called when a waiter gives up: if the lock was handed over to it, and there's nobody else to take it, we have to
+     * let go of the ZooKeeper lock on its behalf.
+     */
+    private void abandon()
+    {
+        if ((this.waiting.get() > 0) || !this.local.tryLock())
+        {
+            return;
+        }
+
+        try
+        {
+            if ((this.local.getHoldCount() == 1) && (this.waiting.get() == 0) && (this.tenure != null))
+            {
+                endTenure();
+            }
+        }
+        catch (Exception e)
+        {
+            this.log.warn("Failed to release the abandoned ZooKeeper lock at [{}]", this.path, e);
+        }
+        finally
+        {
+            this.local.unlock();
+        }
+    }
+
+    boolean isHeldLocally()
+    {
+        return this.local.isLocked();
+    }
+
+    boolean isHeldInZooKeeper()
+    {
+        return this.mutex.isAcquiredInThisProcess();
+    }
+}
@@ -26,24 +26,465 @@
  */
 package com.armedia.acm.curator.recipe;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.data.Stat;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.PhaseMetrics;
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
 
 public class Download extends FileTransfer
 {
     private static final byte[] NO_BYTES = {};
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String STAT_FILE_SUFFIX = ".zkstat";
+    private static final String STAT_NODE = "node";
+    private static final String STAT_MZXID = "mzxid";
+    private static final String STAT_VERSION = "version";
+    private static final String STAT_SIZE = "size";
+    private static final String STAT_MODIFIED = "modified";
+
+    private final boolean sync;
 
     public Download(Session session)
     {
-        super(session);
+        this(session, null);
     }
 
     public Download(Session session, String name)
+    {
+        this(session, name, false);
+    }
+
+    public Download(Session session, String name, boolean sync)
     {
         super(session, name);
+        this.sync = sync;
+    }
+
+    private static void write(FileChannel out, byte[] data) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining())
+        {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the contents were fully retrieved and verified, <code>false</code> if they changed
+     * while being read (i.e. a concurrent upload replaced them), and the download should be retried.
+     */
+    private boolean downloadFile(CuratorFramework client, String znode, FileChannel out, Stat stat, byte[] data) throws Exception
+    {
+        if (data == null)
+        {
+            data = client.getData().storingStatIn(stat).forPath(znode);
+            if (data == null)
+            {
+                data = Download.NO_BYTES;
+            }
+        }
+
+        if (FileTransfer.isDirectory(data))
+        {
+            throw new IOException(String.format("The node [%s] is a directory, a recursive download is required", znode));
+        }
+
+        out.truncate(0);
+        out.position(0);
+
+        final Manifest manifest = Manifest.decode(data);
+        if (manifest == null)
+        {
+            // Legacy, non-chunked contents
+            Download.write(out, data);
+            PhaseMetrics.transferred(Phase.download, data.length);
+            return true;
+        }
+
+        this.log.debug("Retrieving {} from [{}]", manifest, znode);
+        final MessageDigest digest = FileTransfer.newDigest();
+        long length = 0;
+        for (int i = 0; i < manifest.getChunkCount(); i++)
+        {
+            final byte[] chunk;
+            try
+            {
+                chunk = decode(client.getData().forPath(getChunkPath(znode, manifest.getGeneration(), i)));
+            }
+            catch (NoNodeException e)
+            {
+                this.log.debug("Chunk # {} from [{}] is gone, the contents were replaced while being read", i, znode);
+                return false;
+            }
+            digest.update(chunk);
+            length += chunk.length;
+            Download.write(out, chunk);
+        }
+
+        if ((length != manifest.getLength()) || !manifest.matches(digest))
+        {
+            this.log.debug("The contents of [{}] failed verification, they may have been replaced while being read", znode);
+            return false;
+        }
+        PhaseMetrics.transferred(Phase.download, length);
+        return true;
+    }
+
+    /**
+     * Returns the location of the file used to record the version of the node last downloaded into the given target
+     * file.
+     */
+    public static Path getStatFile(Path target)
+    {
+        return target.resolveSibling(String.format(".%s%s", target.getFileName(), Download.STAT_FILE_SUFFIX));
+    }
+
+    private boolean isCurrent(String znode, Path target, Stat stat)
+    {
+        final Path statFile = Download.getStatFile(target);
+        if (!Files.isRegularFile(target) || !Files.isRegularFile(statFile))
+        {
+            return false;
+        }
+
+        final Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(statFile, StandardCharsets.UTF_8))
+        {
+            p.load(r);
+            return znode.equals(p.getProperty(Download.STAT_NODE)) //
+                    && (stat.getMzxid() == Long.parseLong(p.getProperty(Download.STAT_MZXID))) //
+                    && (stat.getVersion() == Integer.parseInt(p.getProperty(Download.STAT_VERSION))) //
+                    && (Files.size(target) == Long.parseLong(p.getProperty(Download.STAT_SIZE))) //
+                    && (Files.getLastModifiedTime(target).toMillis() == Long.parseLong(p.getProperty(Download.STAT_MODIFIED))) //
+            ;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // If it can't be read or parsed, it's not current
+            this.log.trace("Failed to read the stat file at [{}]", statFile, e);
+            return false;
+        }
+    }
+
+    private void storeStat(String znode, Path target, Stat stat) throws IOException
+    {
+        final Properties p = new Properties();
+        p.setProperty(Download.STAT_NODE, znode);
+        p.setProperty(Download.STAT_MZXID, String.valueOf(stat.getMzxid()));
+        p.setProperty(Download.STAT_VERSION, String.valueOf(stat.getVersion()));
+        p.setProperty(Download.STAT_SIZE, String.valueOf(Files.size(target)));
+        p.setProperty(Download.STAT_MODIFIED, String.valueOf(Files.getLastModifiedTime(target).toMillis()));
+        try (Writer w = Files.newBufferedWriter(Download.getStatFile(target), StandardCharsets.UTF_8))
+        {
+            p.store(w, null);
+        }
+    }
+
+    private void copyPermissions(Path source, Path target)
+    {
+        if (!Files.exists(source))
+        {
+            return;
+        }
+
+        try
+        {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            this.log.trace("Failed to copy the permissions from [{}] to [{}]", source, target, e);
+        }
+    }
+
+    protected void downloadFile(String znode, Path target) throws Exception
+    {
+        downloadFile(znode, target, true);
+    }
+
+    /**
+     * <p>
+     * Download the contents of the given node into the given file. Chunked contents are streamed one chunk at a time,
+     * so memory use is bounded by the chunk size regardless of the file's size. The contents are verified against the
+     * manifest's digest, and if they're found to have changed while being read, the download is retried.
+     * </p>
+     * <p>
+     * If <code>conditional</code> is <code>true</code>, the node's version is recorded in a sidecar file (see
+     * {@link #getStatFile(Path)}), and subsequent downloads into the same (unmodified) file will only check the node's
+     * version, skipping the transfer if it hasn't changed.
+     * </p>
+     * <p>
+     * The target file is replaced atomically (via a rename), so concurrent readers never observe a partially-written
+     * file. If this instance was created with <code>sync</code> set to <code>true</code>, the data is also flushed to
+     * the storage device before the rename.
+     * </p>
+     */
+    protected void downloadFile(String znode, Path target, boolean conditional) throws Exception
+    {
+        downloadFile(znode, target, conditional, null, null);
+    }
+
+    /**
+     * Same as {@link #downloadFile(String, Path, boolean)}, but if <code>data</code> isn't <code>null</code>, it's
+     * taken to be the node's contents as already read along with <code>dataStat</code>, so the first attempt doesn't
+     * need to read them again.
+     */
+    private void downloadFile(String znode, Path target, boolean conditional, byte[] data, Stat dataStat) throws Exception
+    {
+        final CuratorFramework client = getClient();
+        if (data == null)
+        {
+            dataStat = null;
+        }
+        if (conditional)
+        {
+            final Stat current = (dataStat != null ? dataStat : client.checkExists().forPath(znode));
+            if (current == null)
+            {
+                throw new NoNodeException(znode);
+            }
+            if (isCurrent(znode, target, current))
+            {
+                this.log.debug("The file [{}] is already up-to-date with [{}] (mzxid = {})", target, znode, current.getMzxid());
+                return;
+            }
+            Files.deleteIfExists(Download.getStatFile(target));
+        }
+
+        final Path absolute = target.toAbsolutePath();
+        final Path parent = absolute.getParent();
+        if (parent != null)
+        {
+            Files.createDirectories(parent);
+        }
+
+        // Write into a temporary file in the same directory, and move it into place once it's complete and
+        // verified, so concurrent readers only ever see the old contents or the new ones
+        final Path temp = absolute.resolveSibling(String.format(".%s.%s.tmp", absolute.getFileName(), UUID.randomUUID()));
+        final Stat stat = (dataStat != null ? dataStat : new Stat());
+        try
+        {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                boolean done = false;
+                for (int attempt = 1; !done && (attempt <= Download.MAX_ATTEMPTS); attempt++)
+                {
+                    // Retries must read the contents afresh
+                    done = downloadFile(client, znode, out, stat, (attempt == 1 ? data : null));
+                }
+                if (!done)
+                {
+                    throw new IOException(
+                            String.format("The contents of [%s] could not be verified after %d attempts", znode, Download.MAX_ATTEMPTS));
+                }
+                if (this.sync)
+                {
+                    out.force(true);
+                }
+            }
+            copyPermissions(absolute, temp);
+            try
+            {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                this.log.debug("Atomic moves aren't supported for [{}], falling back to a regular move", absolute);
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+
+        if (conditional)
+        {
+            storeStat(znode, target, stat);
+        }
+    }
+
+    /**
+     * A node found while listing a directory during a recursive download, along with the contents and stat read from
+     * it, so files needn't be read again before they're downloaded.
+     */
+    private static final class Entry
+    {
+        private final String znode;
+        private final Path target;
+        private final byte[] data;
+        private final Stat stat;
+
+        private Entry(String znode, Path target, byte[] data, Stat stat)
+        {
+            this.znode = znode;
+            this.target = target;
+            this.data = (data != null ? data : Download.NO_BYTES);
+            this.stat = stat;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("[%s] -> [%s]", this.znode, this.target);
+        }
+    }
+
+    private static KeeperException error(CuratorEvent event)
+    {
+        return KeeperException.create(KeeperException.Code.get(event.getResultCode()), event.getPath());
+    }
+
+    private CompletableFuture<List<String>> getChildren(CuratorFramework client, String znode) throws Exception
+    {
+        final CompletableFuture<List<String>> result = new CompletableFuture<>();
+        client.getChildren().inBackground((c, event) -> {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue())
+            {
+                result.complete(event.getChildren());
+            }
+            else
+            {
+                result.completeExceptionally(Download.error(event));
+            }
+        }).forPath(znode);
+        return result;
+    }
+
+    private CompletableFuture<Entry> getEntry(CuratorFramework client, String znode, Path target) throws Exception
+    {
+        final CompletableFuture<Entry> result = new CompletableFuture<>();
+        client.getData().inBackground((c, event) -> {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue())
+            {
+                result.complete(new Entry(znode, target, event.getData(), event.getStat()));
+            }
+            else
+            {
+                result.completeExceptionally(Download.error(event));
+            }
+        }).forPath(znode);
+        return result;
+    }
+
+    /**
+     * List the given directory, and read each of its children, all in the background.
+     */
+    private CompletableFuture<List<Entry>> listDirectory(CuratorFramework client, String znode, Path target)
+    {
+        try
+        {
+            Files.createDirectories(target);
+            return getChildren(client, znode).thenCompose((children) -> {
+                final List<CompletableFuture<Entry>> entries = new ArrayList<>(children.size());
+                for (String child : children)
+                {
+                    try
+                    {
+                        entries.add(getEntry(client, getChildPath(znode, child), target.resolve(child)));
+                    }
+                    catch (Exception e)
+                    {
+                        entries.add(CompletableFuture.failedFuture(e));
+                    }
+                }
+                return CompletableFuture.allOf(entries.toArray(new CompletableFuture<?>[entries.size()]))
+                        .thenApply((v) -> entries.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+            });
+        }
+        catch (Exception e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * <p>
+     * Download the node tree rooted at the given node (as created by {@link Upload#uploadTree(Path, String)}) into the
+     * given directory. The tree is processed one level at a time: the directories in each level, and the nodes within
+     * them, are read using the client's asynchronous API, and then the files in that level are downloaded in parallel,
+     * starting from the contents already read while listing them. Local files with no remote counterpart are left
+     * untouched.
+     * </p>
+     */
+    protected int downloadTree(String znode, Path root) throws Exception
+    {
+        final CuratorFramework client = getClient();
+
+        int failures = 0;
+        List<Pair<String, Path>> directories = Collections.singletonList(Pair.of(znode, root));
+        while (!directories.isEmpty())
+        {
+            final List<CompletableFuture<List<Entry>>> listings = new ArrayList<>(directories.size());
+            for (Pair<String, Path> d : directories)
+            {
+                listings.add(listDirectory(client, d.getLeft(), d.getRight()));
+            }
+
+            final List<Pair<String, Path>> subdirectories = new ArrayList<>();
+            final List<Entry> files = new ArrayList<>();
+            for (int i = 0; i < listings.size(); i++)
+            {
+                try
+                {
+                    for (Entry entry : listings.get(i).get())
+                    {
+                        if (FileTransfer.isDirectory(entry.data))
+                        {
+                            subdirectories.add(Pair.of(entry.znode, entry.target));
+                        }
+                        else
+                        {
+                            files.add(entry);
+                        }
+                    }
+                }
+                catch (ExecutionException e)
+                {
+                    this.log.error("Failed to transfer {}", directories.get(i), e.getCause());
+                    failures++;
+                }
+            }
+
+            this.log.debug("Downloading {} files from {} directories", files.size(), directories.size());
+            // No stat files here, as they'd pollute the mirrored tree
+            failures += runParallel(files, (f) -> downloadFile(f.znode, f.target, false, f.data, f.stat));
+            directories = subdirectories;
+        }
+
+        if (failures > 0)
+        {
+            this.log.error("Failed to download {} entries from [{}] into [{}]", failures, znode, root);
+        }
+        return failures;
     }
 
     @Override
@@ -55,14 +496,22 @@ public class Download extends FileTransfer
             return 1;
         }
 
+        final long start = PhaseMetrics.start();
         try
         {
-            byte[] data = getSession().getClient().getData().forPath(this.path);
-            if (data == null)
+            if (recursive)
             {
-                data = Download.NO_BYTES;
+                final Stat stat = new Stat();
+                final byte[] data = getClient().getData().storingStatIn(stat).forPath(this.path);
+                if (FileTransfer.isDirectory(data))
+                {
+                    return (downloadTree(this.path, Path.of(target)) == 0 ? 0 : 1);
+                }
+                // Don't read it twice
+                downloadFile(this.path, Path.of(target), true, (data != null ? data : Download.NO_BYTES), stat);
+                return 0;
             }
-            FileUtils.writeByteArrayToFile(new File(target), data);
+            downloadFile(this.path, Path.of(target));
             return 0;
         }
         catch (Exception e)
@@ -70,5 +519,9 @@ public class Download extends FileTransfer
             this.log.error("Failed to download the contents of [{}] into [{}]", this.name, target, e);
             return 1;
         }
+        finally
+        {
+            PhaseMetrics.record(Phase.download, start);
+        }
     }
 }
@@ -41,6 +41,7 @@ import org.apache.zookeeper.Watcher.Event.EventType;
 
 import com.armedia.acm.curator.Session;
 import com.armedia.acm.curator.tools.Tools;
+import com.armedia.acm.curator.tools.ValueCodec;
 
 public class EphemeralValue extends Recipe implements AutoCloseable
 {
@@ -51,9 +52,26 @@ public class EphemeralValue extends Recipe implements AutoCloseable
         this(session, null);
     }
 
+    private final ValueCodec codec;
+
     public EphemeralValue(Session session, String name)
+    {
+        this(session, name, null);
+    }
+
+    public EphemeralValue(Session session, String name, ValueCodec codec)
     {
         super(session, name);
+        if (codec == null)
+        {
+            codec = (session != null ? session.getValueCodec() : ValueCodec.DEFAULT);
+        }
+        this.codec = codec;
+    }
+
+    public ValueCodec getCodec()
+    {
+        return this.codec;
     }
 
     public boolean exists() throws Exception
@@ -75,7 +93,7 @@ public class EphemeralValue extends Recipe implements AutoCloseable
             return Tools::noop;
         }
 
-        final byte[] data = Tools.serialize(value);
+        final byte[] data = encode(this.codec.encode(value));
         this.log.trace("Setting the ephemeral value at [{}] ({} bytes)", this.path, data.length);
         try
         {
@@ -108,7 +126,7 @@ public class EphemeralValue extends Recipe implements AutoCloseable
 
         try
         {
-            return Tools.deserialize(getClient().getData().forPath(this.path));
+            return this.codec.decode(decode(getClient().getData().forPath(this.path)));
         }
         catch (NoNodeException e)
         {
@@ -27,21 +27,298 @@ package com.armedia.acm.curator.recipe;
  * #L%
  */
 
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
+import org.apache.commons.lang3.function.FailableConsumer;
 
 import com.armedia.acm.curator.Session;
 
 public abstract class FileTransfer extends Recipe
 {
+    /**
+     * The default size of each chunk node. This is kept well below ZooKeeper's default <code>jute.maxbuffer</code>
+     * (1MB) so that several chunks can be batched into a single transaction.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+    public static final int MIN_CHUNK_SIZE = 1024;
+    public static final int MAX_CHUNK_SIZE = 512 * 1024;
+
+    /**
+     * The maximum number of payload bytes to send in a single transaction. ZooKeeper applies the
+     * <code>jute.maxbuffer</code> limit to the whole multi-op request, so we stay comfortably below it.
+     */
+    protected static final int MAX_TRANSACTION_BYTES = 512 * 1024;
+
+    protected static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The maximum number of concurrent node transfers when operating recursively. The ZooKeeper client pipelines
+     * requests from concurrent callers over the single connection, so this keeps several round trips in flight.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * The data stored in nodes that represent directories during recursive transfers
+     */
+    protected static final byte[] DIRECTORY_MARKER = "CWFD".getBytes(StandardCharsets.US_ASCII);
+
+    protected static boolean isDirectory(byte[] data)
+    {
+        return Arrays.equals(FileTransfer.DIRECTORY_MARKER, data);
+    }
+
+    protected static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(FileTransfer.DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(String.format("The %s digest is not available", FileTransfer.DIGEST_ALGORITHM), e);
+        }
+    }
+
+    /**
+     * <p>
+     * Describes a file stored in chunked form. The manifest is stored as the data for the transfer's node, and the
+     * chunks are stored as its children (see {@link FileTransfer#getChunkPath(String, long, int)}). Each upload uses a
+     * new, random generation number so the chunks for the new contents never clash with the ones being replaced.
+     * </p>
+     * <p>
+     * Nodes whose data doesn't start with the manifest's magic marker are treated as legacy, raw (non-chunked)
+     * contents.
+     * </p>
+     */
+    protected static final class Manifest
+    {
+        private static final byte[] MAGIC = "CWFT".getBytes(StandardCharsets.US_ASCII);
+        private static final byte FORMAT_VERSION = 1;
+
+        private final long generation;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final long length;
+        private final byte[] digest;
+
+        protected Manifest(long generation, int chunkSize, int chunkCount, long length, byte[] digest)
+        {
+            this.generation = generation;
+            this.chunkSize = chunkSize;
+            this.chunkCount = chunkCount;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        public long getGeneration()
+        {
+            return this.generation;
+        }
+
+        public int getChunkSize()
+        {
+            return this.chunkSize;
+        }
+
+        public int getChunkCount()
+        {
+            return this.chunkCount;
+        }
+
+        public long getLength()
+        {
+            return this.length;
+        }
+
+        public byte[] getDigest()
+        {
+            return this.digest.clone();
+        }
+
+        public boolean matches(MessageDigest digest)
+        {
+            return matches(digest.digest());
+        }
+
+        public boolean matches(byte[] digest)
+        {
+            return MessageDigest.isEqual(this.digest, digest);
+        }
+
+        public byte[] encode()
+        {
+            ByteBuffer buf = ByteBuffer.allocate(Manifest.MAGIC.length + 1 + 8 + 4 + 4 + 8 + 1 + this.digest.length);
+            buf.put(Manifest.MAGIC);
+            buf.put(Manifest.FORMAT_VERSION);
+            buf.putLong(this.generation);
+            buf.putInt(this.chunkSize);
+            buf.putInt(this.chunkCount);
+            buf.putLong(this.length);
+            buf.put((byte) this.digest.length);
+            buf.put(this.digest);
+            return buf.array();
+        }
+
+        /**
+         * Decode the manifest from the given data, returning <code>null</code> if the data isn't a manifest (i.e.
+         * it's legacy, raw file contents).
+         */
+        public static Manifest decode(byte[] data)
+        {
+            if ((data == null) || (data.length < Manifest.MAGIC.length)
+                    || !Arrays.equals(Manifest.MAGIC, Arrays.copyOf(data, Manifest.MAGIC.length)))
+            {
+                return null;
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(data, Manifest.MAGIC.length, data.length - Manifest.MAGIC.length);
+            try
+            {
+                byte version = buf.get();
+                if (version != Manifest.FORMAT_VERSION)
+                {
+                    throw new IllegalStateException(String.format("Unsupported file transfer manifest version %d", version));
+                }
+                long generation = buf.getLong();
+                int chunkSize = buf.getInt();
+                int chunkCount = buf.getInt();
+                long length = buf.getLong();
+                byte[] digest = new byte[buf.get() & 0xFF];
+                buf.get(digest);
+                return new Manifest(generation, chunkSize, chunkCount, length, digest);
+            }
+            catch (BufferUnderflowException e)
+            {
+                throw new IllegalStateException("The file transfer manifest is truncated", e);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Manifest [generation=%016x, chunkSize=%d, chunkCount=%d, length=%d]", this.generation,
+                    this.chunkSize, this.chunkCount, this.length);
+        }
+    }
+
+    protected final int chunkSize;
+
     protected FileTransfer(Session session)
     {
-        super(session);
+        this(session, null);
     }
 
     protected FileTransfer(Session session, String name)
     {
-        super(session, name);
+        this(session, name, FileTransfer.DEFAULT_CHUNK_SIZE);
+    }
+
+    protected FileTransfer(Session session, String name, int chunkSize)
+    {
+        // Uploads and downloads must share the same node space
+        super(session, FileTransfer.class, name);
+        this.chunkSize = Math.min(FileTransfer.MAX_CHUNK_SIZE, Math.max(FileTransfer.MIN_CHUNK_SIZE, chunkSize));
+    }
+
+    protected final String getChunkPath(String znode, long generation, int index)
+    {
+        return String.format("%s/%016x-%08d", znode, generation, index);
+    }
+
+    /**
+     * Compute the digest of the given file's contents, reading it in chunk-sized blocks.
+     */
+    protected final byte[] digest(Path file) throws IOException
+    {
+        final MessageDigest digest = FileTransfer.newDigest();
+        final ByteBuffer buf = ByteBuffer.allocate(this.chunkSize);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            while (in.read(buf) >= 0)
+            {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    protected final String getChildPath(String znode, String name)
+    {
+        if (StringUtils.isBlank(name) || ".".equals(name) || "..".equals(name) || (name.indexOf('/') >= 0))
+        {
+            throw new IllegalArgumentException(String.format("The name [%s] can't be used as a node name", name));
+        }
+        return String.format("%s/%s", znode, name);
+    }
+
+    /**
+     * Run the given task for each of the given items, with at most {@link #DEFAULT_PARALLELISM} running concurrently.
+     * Failures are logged, and the number of failed items is returned.
+     */
+    protected final <T> int runParallel(Collection<T> items, FailableConsumer<T, Exception> task) throws InterruptedException
+    {
+        if ((items == null) || items.isEmpty())
+        {
+            return 0;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(FileTransfer.DEFAULT_PARALLELISM, items.size()));
+        try
+        {
+            final List<Future<?>> futures = new ArrayList<>(items.size());
+            for (T item : items)
+            {
+                futures.add(executor.submit(() -> {
+                    task.accept(item);
+                    return null;
+                }));
+            }
+
+            int failures = 0;
+            int i = 0;
+            for (T item : items)
+            {
+                try
+                {
+                    futures.get(i++).get();
+                }
+                catch (ExecutionException e)
+                {
+                    this.log.error("Failed to transfer {}", item, e.getCause());
+                    failures++;
+                }
+            }
+            return failures;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    public final int getChunkSize()
+    {
+        return this.chunkSize;
     }
 
     protected boolean parseRecursive(String str)
@@ -54,5 +331,10 @@ public abstract class FileTransfer extends Recipe
         return execute(target, false);
     }
 
+    public int execute(String target, String recursive)
+    {
+        return execute(target, parseRecursive(recursive));
+    }
+
     public abstract int execute(String counterpart, boolean recursive);
 }
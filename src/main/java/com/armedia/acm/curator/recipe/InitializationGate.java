@@ -28,20 +28,32 @@ package com.armedia.acm.curator.recipe;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import org.apache.commons.lang3.function.FailableBiFunction;
+import org.apache.curator.framework.recipes.watch.PersistentWatcher;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.tools.JavaValueCodec;
 
 public class InitializationGate extends Recipe
 {
@@ -85,32 +97,62 @@ public class InitializationGate extends Recipe
 
     private static final InitializationInfo NULL_INFO = new InitializationInfo(null, null, null, null);
 
+    /**
+     * The maximum number of parsed version strings kept in memory
+     */
+    public static final int VERSION_CACHE_SIZE = 1024;
+
+    // Parsing a version tokenizes it into a list of items, so we only want to do it once per version string. The
+    // parsed instances are never handed out, so they're never modified after parsing.
+    private static final Map<String, ComparableVersion> VERSIONS = Collections
+            .synchronizedMap(new LinkedHashMap<String, ComparableVersion>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ComparableVersion> eldest)
+                {
+                    return size() > InitializationGate.VERSION_CACHE_SIZE;
+                }
+            });
+
+    private static ComparableVersion parseVersion(String version)
+    {
+        return InitializationGate.VERSIONS.computeIfAbsent(version, ComparableVersion::new);
+    }
+
+    /**
+     * <p>
+     * The information stored in the gate's node. It's encoded in a simple, versioned binary layout so it can be read
+     * without reflection (or by non-Java tools). All integers are big-endian, and all strings are stored as a 4-byte
+     * length followed by that many bytes of UTF-8 (a length of -1 denotes <code>null</code>):
+     * </p>
+     *
+     * <pre>
+     * magic      4 bytes  "CWIG"
+     * format     1 byte   1
+     * version    string
+     * started    1 byte   0 = absent, 1 = present, followed by 8 bytes epoch seconds + 4 bytes nanoseconds
+     * duration   1 byte   0 = absent, 1 = present, followed by 8 bytes seconds + 4 bytes nanoseconds
+     * extraData  4 bytes  entry count (-1 = absent), followed by that many key and value strings
+     * </pre>
+     * <p>
+     * Nodes written by earlier versions (using Java serialization) are still read transparently, and will be
+     * rewritten in the new layout the next time the information is updated.
+     * </p>
+     */
     public static class InitializationInfo implements Serializable
     {
         private static final long serialVersionUID = 1L;
 
+        private static final byte[] MAGIC = "CWIG".getBytes(StandardCharsets.US_ASCII);
+        private static final byte FORMAT_VERSION = 1;
+
         private final String version;
         private final Instant started;
         private final Duration duration;
         private final Map<String, String> extraData;
 
-        private InitializationInfo(byte[] data)
-        {
-            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)))
-            {
-                this.version = String.class.cast(in.readObject());
-                this.started = Instant.class.cast(in.readObject());
-                this.duration = Duration.class.cast(in.readObject());
-                @SuppressWarnings("unchecked")
-                Map<String, String> extraData = (Map<String, String>) in.readObject();
-                this.extraData = extraData;
-            }
-            catch (IOException | ClassNotFoundException e)
-            {
-                throw new RuntimeException("Unexpected exception caught", e);
-            }
-        }
-
         private InitializationInfo(String version, Instant started, Duration duration, Map<String, String> extraData)
         {
             this.version = version;
@@ -148,16 +190,132 @@ public class InitializationGate extends Recipe
             return this.extraData;
         }
 
+        private static void writeString(DataOutputStream out, String s) throws IOException
+        {
+            if (s == null)
+            {
+                out.writeInt(-1);
+                return;
+            }
+            final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        private static String readString(ByteBuffer in)
+        {
+            final int length = in.getInt();
+            if (length < 0)
+            {
+                return null;
+            }
+            if (length > in.remaining())
+            {
+                throw new BufferUnderflowException();
+            }
+            final String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return s;
+        }
+
+        private static InitializationInfo decode(byte[] data)
+        {
+            if (JavaValueCodec.isSerialized(data))
+            {
+                return InitializationInfo.decodeLegacy(data);
+            }
+
+            final ByteBuffer in = ByteBuffer.wrap(data);
+            try
+            {
+                final byte[] magic = new byte[InitializationInfo.MAGIC.length];
+                in.get(magic);
+                if (!Arrays.equals(InitializationInfo.MAGIC, magic))
+                {
+                    throw new RuntimeException(
+                            String.format("The stored initialization information has an unknown format (%d bytes)", data.length));
+                }
+                final byte format = in.get();
+                if (format != InitializationInfo.FORMAT_VERSION)
+                {
+                    throw new RuntimeException(
+                            String.format("The stored initialization information has an unsupported format version %d", format));
+                }
+
+                final String version = InitializationInfo.readString(in);
+                final Instant started = (in.get() != 0) ? Instant.ofEpochSecond(in.getLong(), in.getInt()) : null;
+                final Duration duration = (in.get() != 0) ? Duration.ofSeconds(in.getLong(), in.getInt()) : null;
+                Map<String, String> extraData = null;
+                final int count = in.getInt();
+                if (count >= 0)
+                {
+                    extraData = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++)
+                    {
+                        final String key = InitializationInfo.readString(in);
+                        extraData.put(key, InitializationInfo.readString(in));
+                    }
+                }
+                return new InitializationInfo(version, started, duration, extraData);
+            }
+            catch (BufferUnderflowException e)
+            {
+                throw new RuntimeException(
+                        String.format("The stored initialization information is truncated (%d bytes)", data.length), e);
+            }
+        }
+
+        private static InitializationInfo decodeLegacy(byte[] data)
+        {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)))
+            {
+                final String version = String.class.cast(in.readObject());
+                final Instant started = Instant.class.cast(in.readObject());
+                final Duration duration = Duration.class.cast(in.readObject());
+                @SuppressWarnings("unchecked")
+                Map<String, String> extraData = (Map<String, String>) in.readObject();
+                return new InitializationInfo(version, started, duration, extraData);
+            }
+            catch (IOException | ClassNotFoundException e)
+            {
+                throw new RuntimeException("Unexpected exception caught", e);
+            }
+        }
+
         private byte[] encode()
         {
             try (ByteArrayOutputStream baos = new ByteArrayOutputStream())
             {
-                try (ObjectOutputStream out = new ObjectOutputStream(baos))
+                try (DataOutputStream out = new DataOutputStream(baos))
                 {
-                    out.writeObject(this.version);
-                    out.writeObject(this.started);
-                    out.writeObject(this.duration);
-                    out.writeObject(this.extraData);
+                    out.write(InitializationInfo.MAGIC);
+                    out.writeByte(InitializationInfo.FORMAT_VERSION);
+                    InitializationInfo.writeString(out, this.version);
+                    out.writeByte(this.started != null ? 1 : 0);
+                    if (this.started != null)
+                    {
+                        out.writeLong(this.started.getEpochSecond());
+                        out.writeInt(this.started.getNano());
+                    }
+                    out.writeByte(this.duration != null ? 1 : 0);
+                    if (this.duration != null)
+                    {
+                        out.writeLong(this.duration.getSeconds());
+                        out.writeInt(this.duration.getNano());
+                    }
+                    if (this.extraData == null)
+                    {
+                        out.writeInt(-1);
+                    }
+                    else
+                    {
+                        out.writeInt(this.extraData.size());
+                        for (Map.Entry<String, String> e : this.extraData.entrySet())
+                        {
+                            InitializationInfo.writeString(out, e.getKey());
+                            InitializationInfo.writeString(out, e.getValue());
+                        }
+                    }
                 }
                 return baos.toByteArray();
             }
@@ -168,6 +326,11 @@ public class InitializationGate extends Recipe
         }
 
         private boolean needsUpdate(String v)
+        {
+            return needsUpdate(v, null);
+        }
+
+        private boolean needsUpdate(String v, ComparableVersion parsed)
         {
             // If *they* don't have a version or it's the same as ours, no update
             if ((v == null) || Objects.equals(this.version, v))
@@ -182,8 +345,8 @@ public class InitializationGate extends Recipe
             }
 
             // We both have versions? Compare them for realsies...
-            ComparableVersion a = new ComparableVersion(v);
-            ComparableVersion b = new ComparableVersion(this.version);
+            ComparableVersion a = (parsed != null ? parsed : InitializationGate.parseVersion(v));
+            ComparableVersion b = InitializationGate.parseVersion(this.version);
             return a.compareTo(b) > 0;
         }
 
@@ -198,25 +361,34 @@ public class InitializationGate extends Recipe
         }
     }
 
-    private static String toHexString(byte[] arr)
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static String toHexString(byte[] arr)
     {
         if (arr == null)
         {
             return null;
         }
-        if (arr.length == 0)
+        final char[] hex = new char[arr.length << 1];
+        for (int i = 0; i < arr.length; i++)
         {
-            return "";
+            final int b = (arr[i] & 0xFF);
+            hex[i << 1] = InitializationGate.HEX[b >>> 4];
+            hex[(i << 1) + 1] = InitializationGate.HEX[b & 0x0F];
         }
-        StringBuilder buf = new StringBuilder();
-        for (byte b : arr)
-        {
-            buf.append(String.format("%02x", b & 0x000000FF));
-        }
-        return buf.toString();
+        return new String(hex);
     }
 
     private final Mutex mutex;
+    private final boolean cached;
+
+    // All guarded by cacheLock
+    private final Object cacheLock = new Object();
+    private PersistentWatcher watcher = null;
+    private Object cleanupKey = null;
+    private boolean watching = false;
+    private long generation = 0;
+    private InitializationInfo cachedInfo = null;
 
     public InitializationGate(Session session)
     {
@@ -225,8 +397,54 @@ public class InitializationGate extends Recipe
 
     public InitializationGate(Session session, String name)
     {
-        super(session, name);
+        this(session, name, false);
+    }
+
+    protected InitializationGate(Session session, String name, boolean cached)
+    {
+        // Cached gates must use the same node as the others
+        super(session, InitializationGate.class, name);
         this.mutex = new Mutex(session, String.format("initializer-%s", this.name));
+        this.cached = cached;
+    }
+
+    /**
+     * <p>
+     * A gate which keeps the stored information in memory, and only reads it from ZooKeeper again when a persistent
+     * watch on the node reports a change (or the connection is disrupted). This is meant for long-lived gates that are
+     * checked often. The watch is started on first use, and released by {@link #close()} or when the session is
+     * closed.
+     * </p>
+     * <p>
+     * Checks made while holding the gate's mutex always read the node directly, so the cache never causes an
+     * initialization to be skipped or repeated.
+     * </p>
+     */
+    public static class Cached extends InitializationGate implements AutoCloseable
+    {
+        protected Cached(Session session, String name)
+        {
+            super(session, name, true);
+        }
+
+        @Override
+        public void close() throws Exception
+        {
+            super.stopWatcher();
+        }
+    }
+
+    /**
+     * Create a {@link Cached cached} gate, which should be closed once it's no longer needed.
+     */
+    public static Cached cached(Session session, String name)
+    {
+        return new Cached(session, name);
+    }
+
+    public boolean isCached()
+    {
+        return this.cached;
     }
 
     public Mutex getMutex()
@@ -234,6 +452,41 @@ public class InitializationGate extends Recipe
         return this.mutex;
     }
 
+    /**
+     * Returns <code>true</code> if the stored version is older than the given one (i.e. if
+     * {@link #initialize(Initializer)} would run an initializer for it).
+     */
+    public boolean needsUpdate(String version) throws Exception
+    {
+        return getInitializationInfo().needsUpdate(version);
+    }
+
+    /**
+     * Returns the gates, from among the ones given, whose stored version is older than the given one, in iteration
+     * order. The incoming version is only parsed once, and the stored versions are compared in their parsed form.
+     * This is cheapest for {@link Cached cached} gates, which don't need
+     * to read their nodes again.
+     */
+    public static Set<InitializationGate> needsUpdate(Collection<? extends InitializationGate> gates, String version)
+            throws Exception
+    {
+        final Set<InitializationGate> ret = new LinkedHashSet<>();
+        if ((gates == null) || (version == null))
+        {
+            return ret;
+        }
+
+        final ComparableVersion parsed = InitializationGate.parseVersion(version);
+        for (InitializationGate gate : gates)
+        {
+            if ((gate != null) && gate.getInitializationInfo().needsUpdate(version, parsed))
+            {
+                ret.add(gate);
+            }
+        }
+        return ret;
+    }
+
     public boolean initialize(Initializer initializer) throws Exception
     {
         return initialize(initializer, null);
@@ -247,15 +500,23 @@ public class InitializationGate extends Recipe
             return false;
         }
 
+        // This is the path taken on every call once initialized, so only some of them get logged
+        final boolean verbose = isLogSampled();
         String incoming = initializer.getVersion();
-        this.log.info("Attempting to initialize for [{}] on version {}", this.name, incoming);
+        if (verbose)
+        {
+            this.log.info("Attempting to initialize for [{}] on version {}", this.name, incoming);
+        }
         InitializationInfo existing = getInitializationInfo();
-        this.log.info("Existing version info before mutex lock      : {}", existing);
+        if (verbose)
+        {
+            this.log.info("Existing version info before mutex lock      : {}", existing);
+        }
         if (existing.needsUpdate(incoming))
         {
             try (AutoCloseable lock = this.mutex.acquire(maxWait))
             {
-                existing = getInitializationInfo();
+                existing = loadInitializationInfo();
                 this.log.info("Actual existing version info after mutex lock: {}", existing);
                 if (existing.needsUpdate(incoming))
                 {
@@ -277,6 +538,48 @@ public class InitializationGate extends Recipe
         return false;
     }
 
+    private void invalidate(boolean connected)
+    {
+        synchronized (this.cacheLock)
+        {
+            this.watching &= connected;
+            this.generation++;
+            this.cachedInfo = null;
+        }
+    }
+
+    private void startWatcher()
+    {
+        // Must be called while holding cacheLock
+        if (this.watcher != null)
+        {
+            return;
+        }
+
+        this.log.debug("Starting the persistent watch for the initialization information at [{}]", this.path);
+        final PersistentWatcher watcher = new PersistentWatcher(getClient(), this.path, false);
+        watcher.getListenable().addListener((event) -> {
+            // Any event at all may mean the data changed, and we can only trust the cache while connected
+            this.log.trace("Invalidating the cached initialization information due to {}", event);
+            invalidate(event.getState() == KeeperState.SyncConnected);
+        });
+        // Called once the watch is (re-)established, so only from here on may we cache
+        watcher.getResetListenable().addListener(() -> {
+            synchronized (this.cacheLock)
+            {
+                this.watching = (this.watcher != null);
+                invalidate(true);
+            }
+        });
+        watcher.start();
+        this.watcher = watcher;
+        this.cleanupKey = addCleanup(watcher);
+    }
+
+    /**
+     * Return the stored information. For a {@link Cached cached} gate, this is answered from memory unless the node
+     * has changed since the last read.
+     */
     public InitializationInfo getInitializationInfo() throws Exception
     {
         if (!isSessionEnabled())
@@ -285,14 +588,50 @@ public class InitializationGate extends Recipe
             return InitializationGate.NULL_INFO;
         }
 
-        try
+        if (!this.cached)
         {
-            byte[] data = getClient().getData().forPath(this.path);
-            if (this.log.isDebugEnabled())
+            return loadInitializationInfo();
+        }
+
+        final long generation;
+        synchronized (this.cacheLock)
+        {
+            startWatcher();
+            if (this.cachedInfo != null)
+            {
+                return this.cachedInfo;
+            }
+            generation = this.generation;
+        }
+
+        final InitializationInfo info = loadInitializationInfo();
+        synchronized (this.cacheLock)
+        {
+            // Only keep it if nothing changed while we were reading it
+            if (this.watching && (this.watcher != null) && (generation == this.generation))
             {
-                this.log.debug("Data loaded from the node named [{}] = [{}]", this.name, InitializationGate.toHexString(data));
+                this.cachedInfo = info;
             }
-            return new InitializationInfo(data);
+        }
+        return info;
+    }
+
+    protected InitializationInfo loadInitializationInfo() throws Exception
+    {
+        if (!isSessionEnabled())
+        {
+            this.log.warn("The current session is not enabled, cannot retrieve the stored initialization information");
+            return InitializationGate.NULL_INFO;
+        }
+
+        try
+        {
+            byte[] data = getClient().getData().forPath(this.path);
+            this.log.atDebug()
+                    .addArgument(this.name)
+                    .addArgument(() -> InitializationGate.toHexString(data))
+                    .log("Data loaded from the node named [{}] = [{}]");
+            return InitializationInfo.decode(decode(data));
         }
         catch (NoNodeException e)
         {
@@ -311,11 +650,8 @@ public class InitializationGate extends Recipe
 
         InitializationInfo info = new InitializationInfo(version, start, duration, extraData);
         this.log.debug("Encoding the data from {}", info);
-        byte[] data = info.encode();
-        if (this.log.isDebugEnabled())
-        {
-            this.log.debug("Data encoded as [{}]", InitializationGate.toHexString(data));
-        }
+        byte[] data = encode(info.encode());
+        this.log.atDebug().addArgument(() -> InitializationGate.toHexString(data)).log("Data encoded as [{}]");
         try
         {
             getClient().setData().idempotent().forPath(this.path, data);
@@ -324,5 +660,40 @@ public class InitializationGate extends Recipe
         {
             getClient().create().idempotent().creatingParentContainersIfNeeded().forPath(this.path, data);
         }
+        finally
+        {
+            if (this.cached)
+            {
+                invalidate(true);
+            }
+        }
+    }
+
+    private void stopWatcher() throws Exception
+    {
+        final PersistentWatcher watcher;
+        final Object cleanupKey;
+        synchronized (this.cacheLock)
+        {
+            watcher = this.watcher;
+            cleanupKey = this.cleanupKey;
+            this.watcher = null;
+            this.cleanupKey = null;
+            this.watching = false;
+            this.generation++;
+            this.cachedInfo = null;
+        }
+
+        if (watcher != null)
+        {
+            try
+            {
+                watcher.close();
+            }
+            finally
+            {
+                removeCleanup(cleanupKey);
+            }
+        }
     }
 }
\ No newline at end of file
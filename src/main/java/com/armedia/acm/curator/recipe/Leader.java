@@ -40,8 +40,10 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.leader.LeaderSelector;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListener;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListenerAdapter;
+import org.apache.curator.framework.state.ConnectionStateListener;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.LockMetrics;
 import com.armedia.acm.curator.tools.Tools;
 
 public class Leader extends Recipe
@@ -50,6 +52,8 @@ public class Leader extends Recipe
 
     public static final String DEFAULT_NAME = "default";
 
+    private static final String METRICS_KIND = "leader";
+
     private final AtomicReference<Object> cleanupKey = new AtomicReference<>();
 
     public Leader(Session session)
@@ -93,13 +97,23 @@ public class Leader extends Recipe
             @Override
             public void takeLeadership(CuratorFramework client)
             {
+                final boolean verbose = isLogSampled();
                 try
                 {
-                    Leader.this.log.info("Leadership acquired with the name [{}]  (# {})", Leader.this.name, Leader.this.cleanupKey.get());
+                    if (verbose)
+                    {
+                        Leader.this.log.info("Leadership acquired with the name [{}]  (# {})", Leader.this.name, Leader.this.cleanupKey.get());
+                    }
                     awaitLeadership.await();
-                    Leader.this.log.info("Signalled the start of the execution, awaiting completion (# {})", Leader.this.cleanupKey.get());
+                    if (verbose)
+                    {
+                        Leader.this.log.info("Signalled the start of the execution, awaiting completion (# {})", Leader.this.cleanupKey.get());
+                    }
                     awaitCompletion.await();
-                    Leader.this.log.info("Execution completed; the barrier returned normally (# {})", Leader.this.cleanupKey.get());
+                    if (verbose)
+                    {
+                        Leader.this.log.info("Execution completed; the barrier returned normally (# {})", Leader.this.cleanupKey.get());
+                    }
                 }
                 catch (BrokenBarrierException e)
                 {
@@ -128,7 +142,10 @@ public class Leader extends Recipe
         this.cleanupKey.set(addCleanup(selector));
 
         AutoCloseable close = () -> {
-            this.log.info("Processing completed, relinquishing leadership (selector # {})", this.cleanupKey.get());
+            if (isLogSampled())
+            {
+                this.log.info("Processing completed, relinquishing leadership (selector # {})", this.cleanupKey.get());
+            }
             awaitCompletion.await();
             try
             {
@@ -145,9 +162,17 @@ public class Leader extends Recipe
         };
 
         // We will block in this await() invocation until leadership is acquired.
+        final LockMetrics metrics = getMetrics(Leader.METRICS_KIND);
         while (true)
         {
-            this.log.info("Waiting for leadership to be attained (# {})", this.cleanupKey.get());
+            final boolean verbose = isLogSampled();
+            if (verbose)
+            {
+                this.log.info("Waiting for leadership to be attained (# {})", this.cleanupKey.get());
+            }
+            final long start = metrics.waiting();
+            boolean acquired = false;
+            boolean timedOut = false;
             try
             {
                 if (!maxWait.isNegative() && !maxWait.isZero())
@@ -158,6 +183,13 @@ public class Leader extends Recipe
                 {
                     awaitLeadership.await();
                 }
+                acquired = true;
+            }
+            catch (final TimeoutException e)
+            {
+                timedOut = true;
+                metrics.timedOut();
+                throw e;
             }
             catch (final InterruptedException e)
             {
@@ -171,19 +203,38 @@ public class Leader extends Recipe
             }
             finally
             {
+                if (!acquired && !timedOut)
+                {
+                    metrics.failed();
+                }
+                refreshQueueDepth(metrics);
                 this.log.trace("The leadership wait is finished (# {})", this.cleanupKey.get());
             }
 
+            final long acquiredAt = metrics.acquired(start);
             if (job == null)
             {
-                return close;
+                return () -> {
+                    try
+                    {
+                        close.close();
+                    }
+                    finally
+                    {
+                        metrics.released(acquiredAt);
+                        refreshQueueDepth(metrics);
+                    }
+                };
             }
 
             boolean ret = false;
             try
             {
                 ret = job.getAsBoolean();
-                this.log.info("Processing completed, relinquishing leadership (selector # {})", this.cleanupKey.get());
+                if (verbose)
+                {
+                    this.log.info("Processing completed, relinquishing leadership (selector # {})", this.cleanupKey.get());
+                }
                 try
                 {
                     awaitCompletion.await();
@@ -202,10 +253,12 @@ public class Leader extends Recipe
             }
             finally
             {
+                metrics.released(acquiredAt);
                 if (selector.hasLeadership())
                 {
                     selector.interruptLeadership();
                 }
+                refreshQueueDepth(metrics);
             }
 
             if (!ret)
@@ -346,4 +399,28 @@ public class Leader extends Recipe
     {
         return execute(null, maxWait);
     }
+
+    /**
+     * <p>
+     * Same as {@link #awaitLeadership(Duration)}, but the given listener will also be notified of any connection state
+     * changes for as long as leadership is held. Leadership is only relinquished on LOST, so this allows the leader to
+     * react to SUSPENDED (leadership may be lost soon) and RECONNECTED (it wasn't) as well.
+     * </p>
+     */
+    public AutoCloseable awaitLeadership(Duration maxWait, ConnectionStateListener listener)
+            throws InterruptedException, TimeoutException
+    {
+        final AutoCloseable leadership = execute(null, maxWait);
+        final AutoCloseable listening = addConnectionStateListener(listener);
+        return () -> {
+            try
+            {
+                listening.close();
+            }
+            finally
+            {
+                leadership.close();
+            }
+        };
+    }
 }
\ No newline at end of file
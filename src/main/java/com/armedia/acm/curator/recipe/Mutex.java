@@ -27,18 +27,20 @@
 package com.armedia.acm.curator.recipe;
 
 import java.time.Duration;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.state.ConnectionStateListener;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.LockMetrics;
 import com.armedia.acm.curator.tools.Tools;
 
 public class Mutex extends Recipe
 {
     public static final String DEFAULT_NAME = "default";
 
+    private static final String METRICS_KIND = "mutex";
+
     public Mutex(Session session)
     {
         this(session, null);
@@ -55,6 +57,15 @@ public class Mutex extends Recipe
     }
 
     public AutoCloseable acquire(Duration maxWait) throws Exception
+    {
+        return acquire(maxWait, null);
+    }
+
+    /**
+     * Acquire the mutex, and notify the given listener of any connection state changes for as long as it's held. This
+     * allows the holder to react if the lock may have been lost (i.e. on SUSPENDED or LOST).
+     */
+    public AutoCloseable acquire(Duration maxWait, ConnectionStateListener listener) throws Exception
     {
         if (!isSessionEnabled())
         {
@@ -62,22 +73,76 @@ public class Mutex extends Recipe
             return Tools::noop;
         }
 
-        final InterProcessMutex lock = new InterProcessMutex(getClient(), this.path);
-        if ((maxWait != null) && !maxWait.isNegative() && !maxWait.isZero())
+        // Threads in this session first queue up locally, so only one of them at a time needs a lock node in ZooKeeper
+        // (see CoalescedLock). Reusing the session's instance also makes this reentrant.
+        final CoalescedLock lock = checkoutLock(CoalescedLock.class, (p) -> new CoalescedLock(getClient(), p));
+        final LockMetrics metrics = getMetrics(Mutex.METRICS_KIND);
+        final boolean verbose = isLogSampled();
+        final long start = metrics.waiting();
+        boolean acquired = false;
+        boolean timedOut = false;
+        try
         {
-            this.log.info("Acquiring the mutex named [{}] (maximum wait {})", this.name, maxWait);
-            if (!lock.acquire(maxWait.toMillis(), TimeUnit.MILLISECONDS))
+            if ((maxWait != null) && !maxWait.isNegative() && !maxWait.isZero())
             {
-                throw new TimeoutException(String.format("Timed out acquiring the lock [%s] (timeout = %s)", this.name, maxWait));
+                if (verbose)
+                {
+                    this.log.info("Acquiring the mutex named [{}] (maximum wait {})", this.name, maxWait);
+                }
+                if (!lock.acquire(maxWait.toNanos()))
+                {
+                    timedOut = true;
+                    metrics.timedOut();
+                    throw new TimeoutException(String.format("Timed out acquiring the lock [%s] (timeout = %s)", this.name, maxWait));
+                }
             }
+            else
+            {
+                if (verbose)
+                {
+                    this.log.info("Acquiring the mutex named [{}]", this.name);
+                }
+                lock.acquire(-1);
+            }
+            acquired = true;
         }
-        else
+        finally
         {
-            this.log.info("Acquiring the mutex named [{}]", this.name);
-            lock.acquire();
+            if (!acquired)
+            {
+                if (!timedOut)
+                {
+                    metrics.failed();
+                }
+                checkinLock(CoalescedLock.class);
+            }
+            refreshQueueDepth(metrics);
         }
 
-        this.log.trace("Acquired the lock named [{}]", this.name);
-        return new ItemCloser<>(lock, InterProcessMutex::release);
+        final long acquiredAt = metrics.acquired(start);
+        if (verbose)
+        {
+            this.log.trace("Acquired the lock named [{}]", this.name);
+        }
+        final AutoCloseable listening = addConnectionStateListener(listener);
+        return new ItemCloser<>(lock, (l) -> {
+            try
+            {
+                listening.close();
+            }
+            finally
+            {
+                try
+                {
+                    l.release();
+                }
+                finally
+                {
+                    metrics.released(acquiredAt);
+                    refreshQueueDepth(metrics);
+                    checkinLock(CoalescedLock.class);
+                }
+            }
+        });
     }
 }
\ No newline at end of file
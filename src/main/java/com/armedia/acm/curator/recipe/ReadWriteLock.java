@@ -29,21 +29,31 @@ package com.armedia.acm.curator.recipe;
 import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.curator.framework.recipes.locks.InterProcessLock;
 import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock;
 import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock.ReadLock;
 import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock.WriteLock;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.LockMetrics;
 
 public class ReadWriteLock extends Recipe
 {
     public static final String DEFAULT_NAME = "default";
 
+    private static final String READ_KIND = "read";
+    private static final String WRITE_KIND = "write";
+
     public class Read implements AutoCloseable
     {
         private final InterProcessReadWriteLock rwLock;
         public final ReadLock lock;
+        private final AtomicBoolean checkedOut = new AtomicBoolean(false);
+        private final LockMetrics metrics;
+        private long acquiredAt = 0;
+        private boolean held = false;
 
         private Read(Duration maxWait) throws Exception
         {
@@ -52,25 +62,29 @@ public class ReadWriteLock extends Recipe
                 ReadWriteLock.this.log.debug("The current session is not enabled - read locking functionality is not available");
                 this.lock = null;
                 this.rwLock = null;
+                this.metrics = null;
                 return;
             }
 
-            this.rwLock = new InterProcessReadWriteLock(getClient(), ReadWriteLock.this.path);
+            this.metrics = getMetrics(ReadWriteLock.READ_KIND);
+
+            this.rwLock = checkout();
+            this.checkedOut.set(true);
 
             this.lock = this.rwLock.readLock();
-            if ((maxWait != null) && !maxWait.isNegative() && !maxWait.isZero())
+            boolean acquired = false;
+            try
             {
-                ReadWriteLock.this.log.info("Acquiring the read lock at [{}] (maximum wait {})", ReadWriteLock.this.path, maxWait);
-                if (!this.lock.acquire(maxWait.toMillis(), TimeUnit.MILLISECONDS))
-                {
-                    throw new TimeoutException(
-                            String.format("Timed out acquiring the read lock [%s] (timeout = %s)", ReadWriteLock.this.name, maxWait));
-                }
+                this.acquiredAt = acquire(this.lock, "read", this.metrics, maxWait);
+                this.held = true;
+                acquired = true;
             }
-            else
+            finally
             {
-                ReadWriteLock.this.log.info("Acquiring the read lock at [{}]", ReadWriteLock.this.path);
-                this.lock.acquire();
+                if (!acquired)
+                {
+                    checkin(this.checkedOut);
+                }
             }
 
             ReadWriteLock.this.log.trace("Acquired the read lock at [{}]", ReadWriteLock.this.path);
@@ -83,17 +97,55 @@ public class ReadWriteLock extends Recipe
 
         public Write upgrade(Duration maxWait) throws Exception
         {
-            close();
+            // We keep the instance checked out, since the write lock has to use the same one in order to re-acquire
+            // this read lock when it's released
+            release();
             return new Write(maxWait, this);
         }
 
-        @Override
-        public void close() throws Exception
+        private void release() throws Exception
         {
             ReadWriteLock.this.log.trace("Releasing the read lock at [{}]", ReadWriteLock.this.path);
             if (this.lock != null)
             {
                 this.lock.release();
+                if (this.held)
+                {
+                    this.held = false;
+                    this.metrics.released(this.acquiredAt);
+                    refreshQueueDepth(this.metrics);
+                }
+            }
+        }
+
+        private void reacquire() throws Exception
+        {
+            ReadWriteLock.this.log.trace("Re-acquiring the read lock at [{}]", ReadWriteLock.this.path);
+            final long start = this.metrics.waiting();
+            try
+            {
+                this.lock.acquire();
+            }
+            catch (Exception e)
+            {
+                this.metrics.failed();
+                throw e;
+            }
+            this.acquiredAt = this.metrics.acquired(start);
+            this.held = true;
+            refreshQueueDepth(this.metrics);
+        }
+
+        @Override
+        public void close() throws Exception
+        {
+            try
+            {
+                release();
+            }
+            finally
+            {
+                checkin(this.checkedOut);
             }
         }
     }
@@ -103,6 +155,9 @@ public class ReadWriteLock extends Recipe
         private final InterProcessReadWriteLock rwLock;
         private final WriteLock lock;
         private final Read read;
+        private final AtomicBoolean checkedOut = new AtomicBoolean(false);
+        private final LockMetrics metrics;
+        private long acquiredAt = 0;
 
         private Write(Duration maxWait) throws Exception
         {
@@ -117,30 +172,37 @@ public class ReadWriteLock extends Recipe
                 this.rwLock = null;
                 this.lock = null;
                 this.read = null;
+                this.metrics = null;
                 return;
             }
 
+            this.metrics = getMetrics(ReadWriteLock.WRITE_KIND);
+
             this.read = read;
-            this.rwLock = (read != null //
-                    ? read.rwLock //
-                    : new InterProcessReadWriteLock(getClient(),
-                            ReadWriteLock.this.path) //
-            );
+            if (read != null)
+            {
+                // The read lock holds on to the instance for us
+                this.rwLock = read.rwLock;
+            }
+            else
+            {
+                this.rwLock = checkout();
+                this.checkedOut.set(true);
+            }
 
             this.lock = this.rwLock.writeLock();
-            if ((maxWait != null) && !maxWait.isNegative() && !maxWait.isZero())
+            boolean acquired = false;
+            try
             {
-                ReadWriteLock.this.log.info("Acquiring the write lock at [{}] (maximum wait {})", ReadWriteLock.this.path, maxWait);
-                if (!this.lock.acquire(maxWait.toMillis(), TimeUnit.MILLISECONDS))
-                {
-                    throw new TimeoutException(
-                            String.format("Timed out acquiring the write lock [%s] (timeout = %s)", ReadWriteLock.this.name, maxWait));
-                }
+                this.acquiredAt = acquire(this.lock, "write", this.metrics, maxWait);
+                acquired = true;
             }
-            else
+            finally
             {
-                ReadWriteLock.this.log.info("Acquiring the write lock at [{}]", ReadWriteLock.this.path);
-                this.lock.acquire();
+                if (!acquired)
+                {
+                    checkin(this.checkedOut);
+                }
             }
 
             ReadWriteLock.this.log.trace("Acquired the write lock at [{}]", ReadWriteLock.this.path);
@@ -151,17 +213,81 @@ public class ReadWriteLock extends Recipe
         {
             if (this.read != null)
             {
-                ReadWriteLock.this.log.trace("Re-acquiring the read lock at [{}]", ReadWriteLock.this.path);
-                this.read.lock.acquire();
+                this.read.reacquire();
             }
             ReadWriteLock.this.log.trace("Releasing the write lock at [{}]", ReadWriteLock.this.path);
-            if (this.lock != null)
+            try
             {
-                this.lock.release();
+                if (this.lock != null)
+                {
+                    this.lock.release();
+                    this.metrics.released(this.acquiredAt);
+                    refreshQueueDepth(this.metrics);
+                }
+            }
+            finally
+            {
+                checkin(this.checkedOut);
             }
         }
     }
 
+    private long acquire(InterProcessLock lock, String label, LockMetrics metrics, Duration maxWait) throws Exception
+    {
+        final boolean verbose = isLogSampled();
+        final long start = metrics.waiting();
+        boolean acquired = false;
+        boolean timedOut = false;
+        try
+        {
+            if ((maxWait != null) && !maxWait.isNegative() && !maxWait.isZero())
+            {
+                if (verbose)
+                {
+                    this.log.info("Acquiring the {} lock at [{}] (maximum wait {})", label, this.path, maxWait);
+                }
+                if (!lock.acquire(maxWait.toMillis(), TimeUnit.MILLISECONDS))
+                {
+                    timedOut = true;
+                    metrics.timedOut();
+                    throw new TimeoutException(String.format("Timed out acquiring the %s lock [%s] (timeout = %s)", label, this.name, maxWait));
+                }
+            }
+            else
+            {
+                if (verbose)
+                {
+                    this.log.info("Acquiring the {} lock at [{}]", label, this.path);
+                }
+                lock.acquire();
+            }
+            acquired = true;
+        }
+        finally
+        {
+            if (!acquired && !timedOut)
+            {
+                metrics.failed();
+            }
+            refreshQueueDepth(metrics);
+        }
+        return metrics.acquired(start);
+    }
+
+    private InterProcessReadWriteLock checkout()
+    {
+        // Sharing the session's instance keeps Curator's per-thread reentrancy bookkeeping intact
+        return checkoutLock(InterProcessReadWriteLock.class, (p) -> new InterProcessReadWriteLock(getClient(), p));
+    }
+
+    private void checkin(AtomicBoolean checkedOut)
+    {
+        if (checkedOut.compareAndSet(true, false))
+        {
+            checkinLock(InterProcessReadWriteLock.class);
+        }
+    }
+
     public ReadWriteLock(Session session)
     {
         this(session, null);
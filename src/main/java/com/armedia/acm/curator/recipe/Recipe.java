@@ -28,13 +28,18 @@ package com.armedia.acm.curator.recipe;
 
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.function.FailableConsumer;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.LockMetrics;
+import com.armedia.acm.curator.tools.PayloadCodec;
 import com.armedia.acm.curator.tools.Tools;
 
 public class Recipe
@@ -95,9 +100,18 @@ public class Recipe
     }
 
     protected Recipe(Session session, String name)
+    {
+        this(session, null, name);
+    }
+
+    protected Recipe(Session session, Class<? extends Recipe> type, String name)
     {
         this.session = session;
-        String root = String.format("/%s", getClass().getSimpleName().toLowerCase());
+        if (type == null)
+        {
+            type = getClass();
+        }
+        String root = String.format("/%s", type.getSimpleName().toLowerCase());
         if (Tools.isEmpty(name))
         {
             this.name = UUID.randomUUID().toString();
@@ -114,6 +128,14 @@ public class Recipe
         return (this.session != null) && this.session.isEnabled();
     }
 
+    /**
+     * Whether to log the details of the current acquisition (see {@link Session#isLogSampled()}).
+     */
+    protected final boolean isLogSampled()
+    {
+        return (this.session == null) || this.session.isLogSampled();
+    }
+
     protected final CuratorFramework getClient()
     {
         return (this.session != null ? this.session.getClient() : null);
@@ -123,7 +145,7 @@ public class Recipe
     {
         if (cleanup != null)
         {
-            return this.session.addCleanup(cleanup);
+            return this.session.addCleanup(cleanup, this.path);
         }
         return null;
     }
@@ -137,6 +159,93 @@ public class Recipe
         return null;
     }
 
+    /**
+     * Register a listener for the session's connection state changes, until the returned handle is closed (see
+     * {@link Session#addConnectionStateListener(ConnectionStateListener)}).
+     */
+    protected final AutoCloseable addConnectionStateListener(ConnectionStateListener listener)
+    {
+        if (this.session == null)
+        {
+            return Tools::noop;
+        }
+        return this.session.addConnectionStateListener(listener);
+    }
+
+    /**
+     * Returns the session's lock instance of the given type for this recipe's path, creating it with the factory if
+     * needed (see {@link com.armedia.acm.curator.LockRegistry}). Each call must be balanced by a call to {@link #checkinLock(Class)}.
+     */
+    protected final <T> T checkoutLock(Class<T> type, Function<String, T> factory)
+    {
+        return this.session.getLocks().checkout(type, this.path, factory);
+    }
+
+    protected final void checkinLock(Class<?> type)
+    {
+        this.session.getLocks().checkin(type, this.path);
+    }
+
+    /**
+     * Returns the metrics for this recipe's lock of the given kind.
+     */
+    protected final LockMetrics getMetrics(String kind)
+    {
+        return LockMetrics.get(kind, this.name);
+    }
+
+    /**
+     * Refresh the given metrics' queue depth from the number of children of this recipe's node, in the background so
+     * the caller never has to wait for it (see {@link LockMetrics#getQueueDepth()}).
+     */
+    protected final void refreshQueueDepth(LockMetrics metrics)
+    {
+        final CuratorFramework client = getClient();
+        if (client == null)
+        {
+            return;
+        }
+
+        try
+        {
+            client.getChildren().inBackground((c, event) -> {
+                if (event.getResultCode() == KeeperException.Code.OK.intValue())
+                {
+                    metrics.setQueueDepth(event.getChildren().size());
+                }
+                else if (event.getResultCode() == KeeperException.Code.NONODE.intValue())
+                {
+                    metrics.setQueueDepth(0);
+                }
+            }).forPath(this.path);
+        }
+        catch (Exception e)
+        {
+            // It's only a metric, so it can wait until next time (i.e. the client may be closing)
+            this.log.trace("Failed to refresh the queue depth for [{}]", this.path, e);
+        }
+    }
+
+    /**
+     * Encode the given data for storage using the session's codec (see {@link PayloadCodec}).
+     */
+    protected final byte[] encode(byte[] data)
+    {
+        if (this.session == null)
+        {
+            return PayloadCodec.DEFAULT.encode(data);
+        }
+        return this.session.getCodec().encode(data, this.session.getCompressionThreshold());
+    }
+
+    /**
+     * Decode the given data as read from storage, regardless of the codec used to encode it.
+     */
+    protected final byte[] decode(byte[] data)
+    {
+        return PayloadCodec.decode(data);
+    }
+
     public final Session getSession()
     {
         return this.session;
@@ -26,15 +26,83 @@
  */
 package com.armedia.acm.curator.recipe;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.KeeperException.NodeExistsException;
+import org.apache.zookeeper.data.Stat;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.PhaseMetrics;
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
 
 public class Upload extends FileTransfer
 {
+    private static final byte[] NO_BYTES = {};
+
+    /**
+     * Queues up the operations of an upload, committing them in transactions of at most
+     * {@link FileTransfer#MAX_TRANSACTION_BYTES} (unless a single operation is bigger than that), in the order they
+     * were added.
+     */
+    private final class Batch
+    {
+        private final CuratorFramework client;
+        private final String znode;
+        private final List<CuratorOp> ops = new ArrayList<>();
+        private int bytes = 0;
+        private int committed = 0;
+
+        private Batch(CuratorFramework client, String znode)
+        {
+            this.client = client;
+            this.znode = znode;
+        }
+
+        private void add(CuratorOp op, String path, byte[] data) throws Exception
+        {
+            // The check has to come first: once it's queued, the operation must go out with the rest
+            final int size = path.length() + data.length;
+            if (!this.ops.isEmpty() && ((this.bytes + size) > FileTransfer.MAX_TRANSACTION_BYTES))
+            {
+                commit();
+            }
+            this.ops.add(op);
+            this.bytes += size;
+        }
+
+        private void commit() throws Exception
+        {
+            if (this.ops.isEmpty())
+            {
+                return;
+            }
+            Upload.this.log.trace("Committing {} operations ({} bytes) for [{}]", this.ops.size(), this.bytes, this.znode);
+            this.client.transaction().forOperations(this.ops);
+            this.committed += this.ops.size();
+            this.ops.clear();
+            this.bytes = 0;
+        }
+    }
+
     public Upload(Session session)
     {
         super(session);
@@ -45,6 +113,246 @@ public class Upload extends FileTransfer
         super(session, name);
     }
 
+    public Upload(Session session, String name, int chunkSize)
+    {
+        super(session, name, chunkSize);
+    }
+
+    private static int fill(FileChannel in, ByteBuffer buf) throws Exception
+    {
+        while (buf.hasRemaining())
+        {
+            if (in.read(buf) < 0)
+            {
+                break;
+            }
+        }
+        return buf.position();
+    }
+
+    /**
+     * Check whether the node's current contents already match the given file, to avoid a no-op write (which would
+     * still bump the node's version, fire any watches, and have to be replicated across the ensemble). The file is
+     * only hashed if its length matches the stored length.
+     */
+    private boolean isUnchanged(Path source, byte[] current, Manifest previous) throws IOException
+    {
+        final long length = Files.size(source);
+        if (previous != null)
+        {
+            return (previous.getLength() == length) && previous.matches(digest(source));
+        }
+
+        // Legacy, raw contents (or a new, empty node)
+        if ((current == null) || FileTransfer.isDirectory(current) || (current.length != length))
+        {
+            return false;
+        }
+        return MessageDigest.isEqual(FileTransfer.newDigest().digest(current), digest(source));
+    }
+
+    /**
+     * <p>
+     * Upload the contents of the given file into the given node, in chunked form. If the node already holds the same
+     * contents, nothing is written. The chunks are created in batched
+     * transactions, and the final transaction atomically replaces the manifest (guarded by the node's version, to
+     * detect concurrent uploads) and removes the previous generation's chunks (or as many of them as fit, the rest
+     * being removed right after). This means readers will never observe a manifest that references missing chunks,
+     * and memory use is bounded by the transaction size regardless of the file's size.
+     * </p>
+     */
+    protected void uploadFile(Path source, String znode) throws Exception
+    {
+        final CuratorFramework client = getClient();
+
+        final Stat stat = new Stat();
+        byte[] current = null;
+        try
+        {
+            current = client.getData().storingStatIn(stat).forPath(znode);
+        }
+        catch (NoNodeException e)
+        {
+            try
+            {
+                client.create().creatingParentContainersIfNeeded().forPath(znode, Upload.NO_BYTES);
+            }
+            catch (NodeExistsException e2)
+            {
+                // Someone beat us to it ... that's OK, the version check will sort it out
+            }
+            current = client.getData().storingStatIn(stat).forPath(znode);
+        }
+        final Manifest previous = Manifest.decode(current);
+        if (isUnchanged(source, current, previous))
+        {
+            this.log.debug("The contents of [{}] are already stored in [{}], skipping the upload", source, znode);
+            return;
+        }
+
+        if (FileTransfer.isDirectory(current))
+        {
+            // This used to be a directory, so clear out its contents
+            for (String child : client.getChildren().forPath(znode))
+            {
+                client.delete().guaranteed().deletingChildrenIfNeeded().forPath(String.format("%s/%s", znode, child));
+            }
+        }
+
+        final long generation = ThreadLocalRandom.current().nextLong();
+        final MessageDigest digest = FileTransfer.newDigest();
+        final ByteBuffer buf = ByteBuffer.allocate(this.chunkSize);
+        final Batch batch = new Batch(client, znode);
+        int chunks = 0;
+        long length = 0;
+        try
+        {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ))
+            {
+                while (true)
+                {
+                    buf.clear();
+                    final int read = Upload.fill(in, buf);
+                    if (read <= 0)
+                    {
+                        break;
+                    }
+
+                    final byte[] chunk = Arrays.copyOf(buf.array(), read);
+                    digest.update(chunk);
+                    length += read;
+                    final String chunkPath = getChunkPath(znode, generation, chunks++);
+                    final byte[] data = encode(chunk);
+                    batch.add(client.transactionOp().create().forPath(chunkPath, data), chunkPath, data);
+                }
+            }
+
+            final Manifest manifest = new Manifest(generation, this.chunkSize, chunks, length, digest.digest());
+            this.log.debug("Storing {} for [{}]", manifest, znode);
+            final byte[] data = manifest.encode();
+            batch.add(client.transactionOp().setData().withVersion(stat.getVersion()).forPath(znode, data), znode, data);
+            if (previous != null)
+            {
+                for (int i = 0; i < previous.getChunkCount(); i++)
+                {
+                    final String chunkPath = getChunkPath(znode, previous.getGeneration(), i);
+                    batch.add(client.transactionOp().delete().forPath(chunkPath), chunkPath, Upload.NO_BYTES);
+                }
+            }
+            batch.commit();
+            PhaseMetrics.transferred(Phase.upload, length);
+        }
+        catch (Exception e)
+        {
+            if (batch.committed > chunks)
+            {
+                // The manifest's been replaced, so the upload went through, and only some stale chunks remain
+                this.log.warn("Failed to remove the previous generation's chunks for [{}]", znode, e);
+                PhaseMetrics.transferred(Phase.upload, length);
+                return;
+            }
+
+            // Remove any orphaned chunks we may have created
+            for (int i = 0; i < chunks; i++)
+            {
+                try
+                {
+                    client.delete().idempotent().forPath(getChunkPath(znode, generation, i));
+                }
+                catch (Exception e2)
+                {
+                    this.log.trace("Failed to remove the orphaned chunk # {} for [{}]", i, znode, e2);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void ensureDirectory(CuratorFramework client, String znode) throws Exception
+    {
+        try
+        {
+            client.create().creatingParentContainersIfNeeded().forPath(znode, FileTransfer.DIRECTORY_MARKER);
+        }
+        catch (NodeExistsException e)
+        {
+            if (!FileTransfer.isDirectory(client.getData().forPath(znode)))
+            {
+                // This used to be a file ... its chunks will be pruned later
+                client.setData().forPath(znode, FileTransfer.DIRECTORY_MARKER);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Mirror the directory tree rooted at the given directory into the given node. Directories are represented by
+     * nodes holding {@link FileTransfer#DIRECTORY_MARKER}, and files are uploaded (in parallel) as with
+     * {@link #uploadFile(Path, String)}. Remote nodes with no local counterpart are removed once all uploads succeed.
+     * </p>
+     */
+    protected int uploadTree(Path root, String znode) throws Exception
+    {
+        final CuratorFramework client = getClient();
+
+        // Map each local directory to its node, in walking order so parents come first
+        final Map<Path, String> directories = new LinkedHashMap<>();
+        final Map<Path, String> files = new LinkedHashMap<>();
+        try (Stream<Path> walk = Files.walk(root))
+        {
+            for (Path p : walk.collect(Collectors.toList()))
+            {
+                String node = znode;
+                for (Path element : root.relativize(p))
+                {
+                    if (!element.toString().isEmpty())
+                    {
+                        node = getChildPath(node, element.toString());
+                    }
+                }
+
+                if (Files.isDirectory(p))
+                {
+                    directories.put(p, node);
+                }
+                else if (Files.isRegularFile(p))
+                {
+                    files.put(p, node);
+                }
+            }
+        }
+
+        this.log.info("Uploading {} files in {} directories from [{}] into [{}]", files.size(), directories.size(), root, znode);
+        for (String node : directories.values())
+        {
+            ensureDirectory(client, node);
+        }
+
+        final int failures = runParallel(files.entrySet(), (e) -> uploadFile(e.getKey(), e.getValue()));
+        if (failures > 0)
+        {
+            this.log.error("Failed to upload {} of the {} files from [{}]", failures, files.size(), root);
+            return failures;
+        }
+
+        // Finally, prune anything that isn't present locally anymore
+        final Set<String> expected = new HashSet<>(directories.values());
+        expected.addAll(files.values());
+        for (String node : directories.values())
+        {
+            for (String child : client.getChildren().forPath(node))
+            {
+                final String childPath = String.format("%s/%s", node, child);
+                if (!expected.contains(childPath))
+                {
+                    this.log.debug("Removing the stale node [{}]", childPath);
+                    client.delete().guaranteed().deletingChildrenIfNeeded().forPath(childPath);
+                }
+            }
+        }
+        return 0;
+    }
+
     @Override
     public int execute(String source, boolean recursive)
     {
@@ -54,9 +362,15 @@ public class Upload extends FileTransfer
             return 1;
         }
 
-        try (InputStream in = Files.newInputStream(Path.of(source), StandardOpenOption.READ))
+        final long start = PhaseMetrics.start();
+        try
         {
-            getSession().getClient().setData().idempotent().forPath(this.path, in.readAllBytes());
+            final Path path = Path.of(source);
+            if (recursive && Files.isDirectory(path))
+            {
+                return (uploadTree(path, this.path) == 0 ? 0 : 1);
+            }
+            uploadFile(path, this.path);
             return 0;
         }
         catch (Exception e)
@@ -64,5 +378,9 @@ public class Upload extends FileTransfer
             this.log.error("Failed to upload the contents of [{}] into [{}]", source, this.name, e);
             return 1;
         }
+        finally
+        {
+            PhaseMetrics.record(Phase.upload, start);
+        }
     }
 }
@@ -0,0 +1,497 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.tools;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * <p>
+ * A compact, reflection-free binary encoding for the most common value types: {@link String}, the boxed primitives,
+ * {@link BigInteger}, {@link BigDecimal}, <code>byte[]</code>, {@link UUID}, {@link Instant}, {@link Duration}, and
+ * {@link Map Maps} whose keys and values are all {@link String Strings} (decoded as a {@link LinkedHashMap}). Any other
+ * value is encoded using the fallback codec. Encoding is done into a per-thread, reusable buffer, so the only
+ * allocation for each value is the resulting array.
+ * </p>
+ * <p>
+ * Decoding supports both this format and the fallback codec's format, as long as the latter is Java serialization.
+ * Encoding in this format can also be turned off altogether, so everything is written using the fallback codec (and
+ * can be read by readers that don't know this format) while both formats can still be read.
+ * </p>
+ */
+public class BinaryValueCodec implements ValueCodec
+{
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_BOOLEAN = 2;
+    private static final byte T_BYTE = 3;
+    private static final byte T_SHORT = 4;
+    private static final byte T_CHARACTER = 5;
+    private static final byte T_INTEGER = 6;
+    private static final byte T_LONG = 7;
+    private static final byte T_FLOAT = 8;
+    private static final byte T_DOUBLE = 9;
+    private static final byte T_BIG_INTEGER = 10;
+    private static final byte T_BIG_DECIMAL = 11;
+    private static final byte T_BYTES = 12;
+    private static final byte T_UUID = 13;
+    private static final byte T_INSTANT = 14;
+    private static final byte T_DURATION = 15;
+    private static final byte T_STRING_MAP = 16;
+
+    // Don't hang on to buffers that grew too large for an outlier value
+    private static final int INITIAL_BUFFER = 256;
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final class Output
+    {
+        private byte[] buf = new byte[BinaryValueCodec.INITIAL_BUFFER];
+        private int pos = 0;
+
+        private void ensure(int n)
+        {
+            if ((this.pos + n) > this.buf.length)
+            {
+                this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.pos + n));
+            }
+        }
+
+        private void writeByte(int b)
+        {
+            ensure(1);
+            this.buf[this.pos++] = (byte) b;
+        }
+
+        private void writeVarInt(int v)
+        {
+            ensure(5);
+            while ((v & ~0x7F) != 0)
+            {
+                this.buf[this.pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            this.buf[this.pos++] = (byte) v;
+        }
+
+        private void writeInt(int v)
+        {
+            ensure(4);
+            this.buf[this.pos++] = (byte) (v >>> 24);
+            this.buf[this.pos++] = (byte) (v >>> 16);
+            this.buf[this.pos++] = (byte) (v >>> 8);
+            this.buf[this.pos++] = (byte) v;
+        }
+
+        private void writeLong(long v)
+        {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        private void writeBytes(byte[] b)
+        {
+            writeVarInt(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, this.buf, this.pos, b.length);
+            this.pos += b.length;
+        }
+
+        private void writeString(String s)
+        {
+            final int length = s.length();
+            // Fast path for plain ASCII, which is what we'll mostly see
+            for (int i = 0; i < length; i++)
+            {
+                if (s.charAt(i) >= 0x80)
+                {
+                    writeBytes(s.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            writeVarInt(length);
+            ensure(length);
+            for (int i = 0; i < length; i++)
+            {
+                this.buf[this.pos++] = (byte) s.charAt(i);
+            }
+        }
+
+        private byte[] toByteArray()
+        {
+            return Arrays.copyOf(this.buf, this.pos);
+        }
+
+        private void reset()
+        {
+            if (this.buf.length > BinaryValueCodec.MAX_RETAINED_BUFFER)
+            {
+                this.buf = new byte[BinaryValueCodec.INITIAL_BUFFER];
+            }
+            this.pos = 0;
+        }
+    }
+
+    private static final class Input
+    {
+        private final byte[] buf;
+        private int pos;
+
+        private Input(byte[] buf, int pos)
+        {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private void require(int n) throws IOException
+        {
+            if ((n < 0) || ((this.pos + n) > this.buf.length))
+            {
+                throw new IOException("The encoded value is truncated");
+            }
+        }
+
+        private byte readByte() throws IOException
+        {
+            require(1);
+            return this.buf[this.pos++];
+        }
+
+        private int readVarInt() throws IOException
+        {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7)
+            {
+                final byte b = readByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return v;
+                }
+            }
+            throw new IOException("Malformed variable-length integer");
+        }
+
+        private int readInt() throws IOException
+        {
+            require(4);
+            return ((this.buf[this.pos++] & 0xFF) << 24) | ((this.buf[this.pos++] & 0xFF) << 16) | ((this.buf[this.pos++] & 0xFF) << 8)
+                    | (this.buf[this.pos++] & 0xFF);
+        }
+
+        private long readLong() throws IOException
+        {
+            return (((long) readInt()) << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        private byte[] readBytes() throws IOException
+        {
+            final int length = readVarInt();
+            require(length);
+            final byte[] b = Arrays.copyOfRange(this.buf, this.pos, this.pos + length);
+            this.pos += length;
+            return b;
+        }
+
+        private String readString() throws IOException
+        {
+            final int length = readVarInt();
+            require(length);
+            final String s = new String(this.buf, this.pos, length, StandardCharsets.UTF_8);
+            this.pos += length;
+            return s;
+        }
+    }
+
+    private static final ThreadLocal<Output> BUFFER = ThreadLocal.withInitial(Output::new);
+
+    private static boolean isStringMap(Map<?, ?> map)
+    {
+        for (Map.Entry<?, ?> e : map.entrySet())
+        {
+            if (!(e.getKey() instanceof String) || ((e.getValue() != null) && !(e.getValue() instanceof String)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final ValueCodec fallback;
+    private final boolean binaryWrites;
+
+    public BinaryValueCodec(ValueCodec fallback)
+    {
+        this(fallback, true);
+    }
+
+    /**
+     * @param binaryWrites
+     *            whether to encode values in this format, or always use the fallback codec
+     */
+    public BinaryValueCodec(ValueCodec fallback, boolean binaryWrites)
+    {
+        this.fallback = Objects.requireNonNull(fallback, "Must provide a non-null fallback codec");
+        this.binaryWrites = binaryWrites;
+    }
+
+    public boolean isBinaryWrites()
+    {
+        return this.binaryWrites;
+    }
+
+    /**
+     * Write the value into the buffer, returning <code>false</code> if its type isn't supported.
+     */
+    private boolean write(Output out, Serializable value)
+    {
+        if (value == null)
+        {
+            out.writeByte(BinaryValueCodec.T_NULL);
+        }
+        else if (value instanceof String)
+        {
+            out.writeByte(BinaryValueCodec.T_STRING);
+            out.writeString((String) value);
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte(BinaryValueCodec.T_INTEGER);
+            out.writeInt((Integer) value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(BinaryValueCodec.T_LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte(BinaryValueCodec.T_BOOLEAN);
+            out.writeByte(((Boolean) value) ? 1 : 0);
+        }
+        else if (value instanceof byte[])
+        {
+            out.writeByte(BinaryValueCodec.T_BYTES);
+            out.writeBytes((byte[]) value);
+        }
+        else if (value instanceof Map)
+        {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            if (!BinaryValueCodec.isStringMap(map))
+            {
+                return false;
+            }
+            out.writeByte(BinaryValueCodec.T_STRING_MAP);
+            out.writeVarInt(map.size());
+            for (Map.Entry<?, ?> e : map.entrySet())
+            {
+                out.writeString((String) e.getKey());
+                if (e.getValue() == null)
+                {
+                    out.writeByte(0);
+                }
+                else
+                {
+                    out.writeByte(1);
+                    out.writeString((String) e.getValue());
+                }
+            }
+        }
+        else if (value instanceof Instant)
+        {
+            final Instant i = (Instant) value;
+            out.writeByte(BinaryValueCodec.T_INSTANT);
+            out.writeLong(i.getEpochSecond());
+            out.writeInt(i.getNano());
+        }
+        else if (value instanceof Duration)
+        {
+            final Duration d = (Duration) value;
+            out.writeByte(BinaryValueCodec.T_DURATION);
+            out.writeLong(d.getSeconds());
+            out.writeInt(d.getNano());
+        }
+        else if (value instanceof UUID)
+        {
+            final UUID u = (UUID) value;
+            out.writeByte(BinaryValueCodec.T_UUID);
+            out.writeLong(u.getMostSignificantBits());
+            out.writeLong(u.getLeastSignificantBits());
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(BinaryValueCodec.T_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte(BinaryValueCodec.T_FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte(BinaryValueCodec.T_SHORT);
+            out.writeInt((Short) value);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte(BinaryValueCodec.T_BYTE);
+            out.writeByte((Byte) value);
+        }
+        else if (value instanceof Character)
+        {
+            out.writeByte(BinaryValueCodec.T_CHARACTER);
+            out.writeInt((Character) value);
+        }
+        else if (value.getClass() == BigInteger.class)
+        {
+            out.writeByte(BinaryValueCodec.T_BIG_INTEGER);
+            out.writeBytes(((BigInteger) value).toByteArray());
+        }
+        else if (value.getClass() == BigDecimal.class)
+        {
+            final BigDecimal d = (BigDecimal) value;
+            out.writeByte(BinaryValueCodec.T_BIG_DECIMAL);
+            out.writeInt(d.scale());
+            out.writeBytes(d.unscaledValue().toByteArray());
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private Serializable read(Input in) throws IOException
+    {
+        final byte type = in.readByte();
+        switch (type)
+        {
+        case T_NULL:
+            return null;
+        case T_STRING:
+            return in.readString();
+        case T_INTEGER:
+            return in.readInt();
+        case T_LONG:
+            return in.readLong();
+        case T_BOOLEAN:
+            return (in.readByte() != 0);
+        case T_BYTES:
+            return in.readBytes();
+        case T_STRING_MAP:
+            final int size = in.readVarInt();
+            final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++)
+            {
+                final String key = in.readString();
+                map.put(key, (in.readByte() != 0) ? in.readString() : null);
+            }
+            return map;
+        case T_INSTANT:
+            return Instant.ofEpochSecond(in.readLong(), in.readInt());
+        case T_DURATION:
+            return Duration.ofSeconds(in.readLong(), in.readInt());
+        case T_UUID:
+            return new UUID(in.readLong(), in.readLong());
+        case T_DOUBLE:
+            return Double.longBitsToDouble(in.readLong());
+        case T_FLOAT:
+            return Float.intBitsToFloat(in.readInt());
+        case T_SHORT:
+            return (short) in.readInt();
+        case T_BYTE:
+            return in.readByte();
+        case T_CHARACTER:
+            return (char) in.readInt();
+        case T_BIG_INTEGER:
+            return new BigInteger(in.readBytes());
+        case T_BIG_DECIMAL:
+            final int scale = in.readInt();
+            return new BigDecimal(new BigInteger(in.readBytes()), scale);
+        default:
+            throw new IOException(String.format("Unknown value type %d", type));
+        }
+    }
+
+    @Override
+    public byte[] encode(Serializable value) throws IOException
+    {
+        if (!this.binaryWrites)
+        {
+            return this.fallback.encode(value);
+        }
+
+        final Output out = BinaryValueCodec.BUFFER.get();
+        try
+        {
+            out.writeByte(BinaryValueCodec.MAGIC);
+            out.writeByte(BinaryValueCodec.FORMAT_VERSION);
+            if (write(out, value))
+            {
+                return out.toByteArray();
+            }
+        }
+        finally
+        {
+            out.reset();
+        }
+        return this.fallback.encode(value);
+    }
+
+    @Override
+    public Serializable decode(byte[] data) throws IOException, ClassNotFoundException
+    {
+        if ((data == null) || (data.length < 2) || (data[0] != BinaryValueCodec.MAGIC))
+        {
+            return this.fallback.decode(data);
+        }
+        if (data[1] != BinaryValueCodec.FORMAT_VERSION)
+        {
+            throw new IOException(String.format("Unsupported binary value format version %d", data[1]));
+        }
+        final Input in = new Input(data, 2);
+        final Serializable value = read(in);
+        if (in.pos != data.length)
+        {
+            throw new IOException(String.format("Found %d trailing bytes after the encoded value", data.length - in.pos));
+        }
+        return value;
+    }
+}
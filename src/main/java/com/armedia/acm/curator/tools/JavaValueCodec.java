@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+public class JavaValueCodec implements ValueCodec
+{
+    /**
+     * The first two bytes of every Java serialization stream ({@link java.io.ObjectStreamConstants#STREAM_MAGIC})
+     */
+    protected static final byte MAGIC_0 = (byte) 0xAC;
+    protected static final byte MAGIC_1 = (byte) 0xED;
+
+    public static boolean isSerialized(byte[] data)
+    {
+        return (data != null) && (data.length >= 2) && (data[0] == JavaValueCodec.MAGIC_0) && (data[1] == JavaValueCodec.MAGIC_1);
+    }
+
+    @Override
+    public byte[] encode(Serializable value) throws IOException
+    {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream())
+        {
+            try (ObjectOutputStream oos = new ObjectOutputStream(out))
+            {
+                oos.writeObject(value);
+                oos.flush();
+            }
+            out.flush();
+            return out.toByteArray();
+        }
+    }
+
+    @Override
+    public Serializable decode(byte[] data) throws IOException, ClassNotFoundException
+    {
+        try (InputStream in = new ByteArrayInputStream(data))
+        {
+            try (ObjectInputStream ois = new ObjectInputStream(in))
+            {
+                return Serializable.class.cast(ois.readObject());
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Compresses and decompresses the data stored in ZooKeeper nodes. Encoded data carries a small header identifying the
+ * codec used, so readers can always decode it regardless of which codec the writer was configured with. Data shorter
+ * than the configured threshold (or that doesn't compress well) is stored raw, and data without a header is returned
+ * as-is when decoding, so legacy (raw) data remains readable.
+ * </p>
+ * <p>
+ * Additional codecs may be made available via {@link #register(PayloadCodec)}.
+ * </p>
+ */
+public abstract class PayloadCodec
+{
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * How many times larger than the largest node ZooKeeper will store (see <code>jute.maxbuffer</code>) the decoded
+     * data may be. Headers claiming more than that are taken to be corrupt, rather than allocating whatever they ask for.
+     */
+    public static final int MAX_RATIO = 16;
+
+    public static final int MAX_DECODED_LENGTH = (int) Math.min(Integer.MAX_VALUE - 8,
+            (long) Integer.getInteger("jute.maxbuffer", 0xFFFFF) * PayloadCodec.MAX_RATIO);
+
+    private static final byte[] MAGIC = {
+        (byte) 0xC7, 'W', 'Z'
+    };
+    // MAGIC + codec ID + the original length
+    private static final int HEADER_LENGTH = PayloadCodec.MAGIC.length + 1 + 4;
+
+    private static final Map<Byte, PayloadCodec> BY_ID = new ConcurrentHashMap<>();
+    private static final Map<String, PayloadCodec> BY_NAME = Collections.synchronizedMap(new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+
+    private static class DeflateCodec extends PayloadCodec
+    {
+        private final int level;
+
+        private DeflateCodec(int id, String name, int level)
+        {
+            super(id, name);
+            this.level = level;
+        }
+
+        @Override
+        protected byte[] compress(byte[] data)
+        {
+            final Deflater deflater = new Deflater(this.level);
+            try
+            {
+                deflater.setInput(data);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+                final byte[] buf = new byte[Math.min(data.length, 8192) + 64];
+                while (!deflater.finished())
+                {
+                    out.write(buf, 0, deflater.deflate(buf));
+                    if (out.size() >= data.length)
+                    {
+                        // Not worth it
+                        return null;
+                    }
+                }
+                return out.toByteArray();
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset, int length, int originalLength) throws DataFormatException
+        {
+            final Inflater inflater = new Inflater();
+            try
+            {
+                inflater.setInput(data, offset, length);
+                final byte[] result = new byte[originalLength];
+                int pos = 0;
+                while ((pos < originalLength) && !inflater.finished())
+                {
+                    final int n = inflater.inflate(result, pos, originalLength - pos);
+                    if ((n == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                    {
+                        break;
+                    }
+                    pos += n;
+                }
+                if (pos != originalLength)
+                {
+                    throw new DataFormatException(String.format("Expected %d decompressed bytes, but got %d", originalLength, pos));
+                }
+                return result;
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Stores the data uncompressed
+     */
+    public static final PayloadCodec NONE = PayloadCodec.register(new PayloadCodec(0, "none")
+    {
+        @Override
+        protected byte[] compress(byte[] data)
+        {
+            return null;
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset, int length, int originalLength)
+        {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+    });
+
+    /**
+     * Deflate, with the default compression level
+     */
+    public static final PayloadCodec DEFLATE = PayloadCodec.register(new DeflateCodec(1, "deflate", Deflater.DEFAULT_COMPRESSION));
+
+    /**
+     * Deflate, tuned for speed over compression ratio (i.e. in the spirit of LZ4)
+     */
+    public static final PayloadCodec FAST = PayloadCodec.register(new DeflateCodec(2, "fast", Deflater.BEST_SPEED));
+
+    public static final PayloadCodec DEFAULT = PayloadCodec.NONE;
+
+    public static PayloadCodec register(PayloadCodec codec)
+    {
+        Objects.requireNonNull(codec, "Must provide a non-null codec");
+        final PayloadCodec old = PayloadCodec.BY_ID.putIfAbsent(codec.id, codec);
+        if ((old != null) && (old != codec))
+        {
+            throw new IllegalStateException(String.format("The codec ID %d is already registered to [%s]", codec.id, old.name));
+        }
+        PayloadCodec.BY_NAME.put(codec.name, codec);
+        return codec;
+    }
+
+    /**
+     * Returns the codec with the given name (case-insensitive), the default codec if the name is blank, or throws an
+     * {@link IllegalArgumentException} if no such codec is registered.
+     */
+    public static PayloadCodec get(String name)
+    {
+        if (Tools.isEmpty(Tools.trim(name)))
+        {
+            return PayloadCodec.DEFAULT;
+        }
+        final PayloadCodec codec = PayloadCodec.BY_NAME.get(name.trim());
+        if (codec == null)
+        {
+            throw new IllegalArgumentException(String.format("Unknown codec [%s] - must be one of %s", name, PayloadCodec.BY_NAME.keySet()));
+        }
+        return codec;
+    }
+
+    private static boolean hasHeader(byte[] data)
+    {
+        if ((data == null) || (data.length < PayloadCodec.HEADER_LENGTH))
+        {
+            return false;
+        }
+        for (int i = 0; i < PayloadCodec.MAGIC.length; i++)
+        {
+            if (data[i] != PayloadCodec.MAGIC[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the given data, regardless of which codec was used to encode it. Data without a codec header is returned
+     * as-is.
+     */
+    public static byte[] decode(byte[] data)
+    {
+        if (!PayloadCodec.hasHeader(data))
+        {
+            return data;
+        }
+
+        int pos = PayloadCodec.MAGIC.length;
+        final byte id = data[pos++];
+        final int originalLength = ((data[pos++] & 0xFF) << 24) | ((data[pos++] & 0xFF) << 16) | ((data[pos++] & 0xFF) << 8)
+                | (data[pos++] & 0xFF);
+        final PayloadCodec codec = PayloadCodec.BY_ID.get(id);
+        if (codec == null)
+        {
+            throw new IllegalStateException(String.format("Unknown codec ID %d", id));
+        }
+        try
+        {
+            if ((originalLength < 0) || (originalLength > PayloadCodec.MAX_DECODED_LENGTH))
+            {
+                throw new DataFormatException(String.format("Invalid decoded length %d (must be between 0 and %d)", originalLength,
+                        PayloadCodec.MAX_DECODED_LENGTH));
+            }
+            return codec.decompress(data, pos, data.length - pos, originalLength);
+        }
+        catch (DataFormatException e)
+        {
+            throw new IllegalStateException(String.format("Failed to decode the %s-encoded data", codec.name), e);
+        }
+    }
+
+    private final byte id;
+    private final String name;
+
+    protected PayloadCodec(int id, String name)
+    {
+        if ((id < 0) || (id > Byte.MAX_VALUE))
+        {
+            throw new IllegalArgumentException(String.format("The codec ID must be between 0 and %d", Byte.MAX_VALUE));
+        }
+        this.id = (byte) id;
+        this.name = Objects.requireNonNull(Tools.trim(name), "Must provide a non-null name");
+    }
+
+    public final String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * Returns the compressed form of the data, or <code>null</code> if it can't be compressed to a smaller size.
+     */
+    protected abstract byte[] compress(byte[] data);
+
+    protected abstract byte[] decompress(byte[] data, int offset, int length, int originalLength) throws DataFormatException;
+
+    private byte[] encode(PayloadCodec codec, byte[] body, int originalLength)
+    {
+        final byte[] result = new byte[PayloadCodec.HEADER_LENGTH + body.length];
+        System.arraycopy(PayloadCodec.MAGIC, 0, result, 0, PayloadCodec.MAGIC.length);
+        int pos = PayloadCodec.MAGIC.length;
+        result[pos++] = codec.id;
+        result[pos++] = (byte) (originalLength >>> 24);
+        result[pos++] = (byte) (originalLength >>> 16);
+        result[pos++] = (byte) (originalLength >>> 8);
+        result[pos++] = (byte) originalLength;
+        System.arraycopy(body, 0, result, pos, body.length);
+        return result;
+    }
+
+    public final byte[] encode(byte[] data)
+    {
+        return encode(data, PayloadCodec.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Encode the given data. If it's shorter than the given threshold, or doesn't compress to a smaller size, it's
+     * stored raw (unless it could be mistaken for encoded data, in which case it gets a header). Data longer than
+     * {@link #MAX_DECODED_LENGTH} isn't compressed, since it couldn't be decoded.
+     */
+    public final byte[] encode(byte[] data, int threshold)
+    {
+        if (data == null)
+        {
+            return null;
+        }
+
+        if ((data.length >= threshold) && (data.length <= PayloadCodec.MAX_DECODED_LENGTH))
+        {
+            final byte[] compressed = compress(data);
+            if ((compressed != null) && ((compressed.length + PayloadCodec.HEADER_LENGTH) < data.length))
+            {
+                return encode(this, compressed, data.length);
+            }
+        }
+
+        return (PayloadCodec.hasHeader(data) ? encode(PayloadCodec.NONE, data, data.length) : data);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("PayloadCodec [%s]", this.name);
+    }
+}
@@ -26,13 +26,8 @@
  */
 package com.armedia.acm.curator.tools;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.function.Supplier;
 
@@ -161,27 +156,12 @@ public class Tools
 
     public static byte[] serialize(Serializable value) throws IOException
     {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream())
-        {
-            try (ObjectOutputStream oos = new ObjectOutputStream(out))
-            {
-                oos.writeObject(value);
-                oos.flush();
-            }
-            out.flush();
-            return out.toByteArray();
-        }
+        return ValueCodec.DEFAULT.encode(value);
     }
 
     public static Serializable deserialize(byte[] data) throws IOException, ClassNotFoundException
     {
-        try (InputStream in = new ByteArrayInputStream(data))
-        {
-            try (ObjectInputStream ois = new ObjectInputStream(in))
-            {
-                return Serializable.class.cast(ois.readObject());
-            }
-        }
+        return ValueCodec.DEFAULT.decode(data);
     }
 
     public static String getParameter(String name)
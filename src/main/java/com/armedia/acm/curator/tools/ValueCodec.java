@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.tools;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Converts values to and from the binary form in which they're stored in ZooKeeper nodes.
+ * </p>
+ */
+public interface ValueCodec
+{
+    /**
+     * Uses standard Java serialization. This supports any {@link Serializable} value, at the cost of size and speed.
+     */
+    public static final ValueCodec JAVA = new JavaValueCodec();
+
+    /**
+     * A compact binary encoding for common value types, which falls back to {@link #JAVA} for any other type. It can
+     * decode data produced by either codec.
+     */
+    public static final ValueCodec BINARY = new BinaryValueCodec(ValueCodec.JAVA);
+
+    /**
+     * Writes values using {@link #JAVA}, which every version can read, but reads the {@link #BINARY} format as well. This
+     * way values written by newer processes that opt into {@link #BINARY} can be read, while older ones can still read
+     * whatever this writes (i.e. during a rolling upgrade).
+     */
+    public static final ValueCodec DEFAULT = new BinaryValueCodec(ValueCodec.JAVA, false);
+
+    /**
+     * Returns the codec with the given name (case-insensitive): <code>java</code> for {@link #DEFAULT} (which writes
+     * Java serialization, but reads both formats), or <code>binary</code> for {@link #BINARY}. A blank name also means
+     * {@link #DEFAULT}, and any other name is an {@link IllegalArgumentException}.
+     */
+    public static ValueCodec get(String name)
+    {
+        name = Tools.trim(name);
+        if (Tools.isEmpty(name) || "java".equalsIgnoreCase(name))
+        {
+            return ValueCodec.DEFAULT;
+        }
+        if ("binary".equalsIgnoreCase(name))
+        {
+            return ValueCodec.BINARY;
+        }
+        throw new IllegalArgumentException(String.format("Unknown value codec [%s] - must be either java or binary", name));
+    }
+
+    public byte[] encode(Serializable value) throws IOException;
+
+    public Serializable decode(byte[] data) throws IOException, ClassNotFoundException;
+}
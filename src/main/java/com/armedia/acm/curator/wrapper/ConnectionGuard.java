@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.wrapper;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Reacts to connection state changes while a lock (or leadership) is held on behalf of a wrapped child process. When
+ * the connection is SUSPENDED the lock may be lost soon, so the child can be paused (with SIGSTOP), and resumed (with
+ * SIGCONT) if the connection is RECONNECTED in time. When the connection is LOST, the lock is gone and the child can
+ * be signalled so it doesn't keep running unprotected.
+ * </p>
+ */
+public class ConnectionGuard implements ConnectionStateListener
+{
+    public static enum Action
+    {
+        //
+        none, //
+        stop, //
+        term, //
+        kill, //
+        //
+        ;
+
+        public static Action parse(String value, Action def)
+        {
+            if (StringUtils.isBlank(value))
+            {
+                return def;
+            }
+            try
+            {
+                return Action.valueOf(value.trim().toLowerCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException(String.format("Unknown connection guard action [%s]", value), e);
+            }
+        }
+    }
+
+    public static final Action DEFAULT_ON_SUSPENDED = Action.none;
+    public static final Action DEFAULT_ON_LOST = Action.none;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Supplier<Process> process;
+    private final Action onSuspended;
+    private final Action onLost;
+    private boolean paused = false;
+
+    /**
+     * @param process
+     *            supplies the child process currently running, if any
+     * @param onSuspended
+     *            either {@link Action#none} or {@link Action#stop}
+     * @param onLost
+     *            the action to take when the connection is lost
+     */
+    public ConnectionGuard(Supplier<Process> process, Action onSuspended, Action onLost)
+    {
+        this.process = Objects.requireNonNull(process, "Must provide a non-null process supplier");
+        this.onSuspended = (onSuspended != null ? onSuspended : ConnectionGuard.DEFAULT_ON_SUSPENDED);
+        if ((this.onSuspended != Action.none) && (this.onSuspended != Action.stop))
+        {
+            throw new IllegalArgumentException(
+                    String.format("The only supported actions on suspension are none and stop: %s", this.onSuspended));
+        }
+        this.onLost = (onLost != null ? onLost : ConnectionGuard.DEFAULT_ON_LOST);
+    }
+
+    public Action getOnSuspended()
+    {
+        return this.onSuspended;
+    }
+
+    public Action getOnLost()
+    {
+        return this.onLost;
+    }
+
+    public synchronized boolean isPaused()
+    {
+        return this.paused;
+    }
+
+    private boolean signal(Process p, String signal)
+    {
+        // Java can only send SIGTERM and SIGKILL, so we need kill(1) for everything else
+        try
+        {
+            final Process kill = new ProcessBuilder("kill", String.format("-%s", signal), String.valueOf(p.pid())) //
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD) //
+                    .redirectError(ProcessBuilder.Redirect.DISCARD) //
+                    .start();
+            return (kill.waitFor() == 0);
+        }
+        catch (Exception e)
+        {
+            this.log.warn("Failed to send SIG{} to process {}", signal, p.pid(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void stateChanged(CuratorFramework client, ConnectionState newState)
+    {
+        final Process p = this.process.get();
+        if ((p == null) || !p.isAlive())
+        {
+            return;
+        }
+
+        switch (newState)
+        {
+        case SUSPENDED:
+            if ((this.onSuspended == Action.stop) && !this.paused)
+            {
+                this.log.warn("The connection was suspended, pausing process {} until it's restored", p.pid());
+                this.paused = signal(p, "STOP");
+            }
+            break;
+
+        case RECONNECTED:
+            if (this.paused)
+            {
+                this.log.info("The connection was restored, resuming process {}", p.pid());
+                this.paused = !signal(p, "CONT");
+            }
+            break;
+
+        case LOST:
+            this.log.error("The connection was lost, so the lock is no longer held: applying {} to process {}", this.onLost, p.pid());
+            switch (this.onLost)
+            {
+            case stop:
+                // Leave it paused, for someone else to deal with
+                this.paused |= signal(p, "STOP");
+                return;
+            case term:
+                p.destroy();
+                break;
+            case kill:
+                p.destroyForcibly();
+                break;
+            case none:
+            default:
+                break;
+            }
+            if (this.paused)
+            {
+                // It must be running in order to act on the signal (or just keep going)
+                this.paused = !signal(p, "CONT");
+            }
+            break;
+
+        default:
+            break;
+        }
+    }
+}
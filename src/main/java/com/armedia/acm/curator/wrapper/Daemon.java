@@ -0,0 +1,555 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.LockMetrics;
+import com.armedia.acm.curator.tools.Tools;
+import com.armedia.acm.curator.wrapper.conf.ExecCfg;
+import com.armedia.acm.curator.wrapper.conf.OperationMode;
+import com.armedia.acm.curator.wrapper.conf.RedirectCfg;
+import com.armedia.acm.curator.wrapper.conf.WrapperCfg;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+/**
+ * <p>
+ * Keeps a single, warm {@link Session} and executes {@link DaemonRequest requests} sent over a local Unix domain
+ * socket, so each invocation of the wrapper needn't pay for JVM startup, configuration parsing, and connecting to
+ * ZooKeeper. Requests are executed concurrently, each using a {@link Wrapper} bound to the client's working directory,
+ * environment, and parameters, and the client receives the operation's exit status.
+ * </p>
+ * <p>
+ * Since the daemon can't share the client's standard I/O streams, only operations that don't need them may be
+ * forwarded (see {@link #canForward(WrapperCfg)}). Unix domain sockets are only available through the native epoll
+ * transport, and the daemon refuses requests from clients whose session configuration doesn't match its own, so clients
+ * should fall back to in-process execution whenever {@link #submit(Path, DaemonRequest)} returns <code>null</code>.
+ * </p>
+ */
+public class Daemon implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Daemon.class);
+
+    public static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The query that returns the daemon's lock metrics as text (see {@link LockMetrics#render(Appendable)}).
+     */
+    public static final String QUERY_METRICS = "metrics";
+
+    /**
+     * The query that does nothing at all, used to tell whether a daemon is listening on a socket.
+     */
+    public static final String QUERY_PING = "ping";
+
+    // The status of a request the daemon won't run for this client, which no process can exit with
+    private static final int STATUS_REFUSED = -1;
+
+    // A daemon that can't answer a ping by then isn't one that works
+    private static final Duration PING_TIMEOUT = Duration.ofSeconds(5);
+
+    // These modes only talk to ZooKeeper and the filesystem, and never run a command
+    private static final Set<OperationMode> SIMPLE_MODES = EnumSet.of( //
+            OperationMode.delete, //
+            OperationMode.download, //
+            OperationMode.exists, //
+            OperationMode.mkroot, //
+            OperationMode.upload //
+    );
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Session session;
+    private final Path socket;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    private EventLoopGroup group = null;
+    private ExecutorService executor = null;
+    private Channel channel = null;
+
+    public Daemon(Session session, Path socket)
+    {
+        this.session = Objects.requireNonNull(session, "Must provide a non-null Session");
+        this.socket = Objects.requireNonNull(socket, "Must provide a non-null socket path").toAbsolutePath();
+    }
+
+    public static boolean isAvailable()
+    {
+        return Epoll.isAvailable();
+    }
+
+    private static boolean isRedirected(ExecCfg exec)
+    {
+        final RedirectCfg redirect = exec.getRedirect();
+        return (redirect != null) //
+                && (redirect.getStdin() != null) //
+                && (redirect.getStdout() != null) //
+                && (redirect.getStderr() != null) //
+        ;
+    }
+
+    /**
+     * Returns <code>true</code> if the given operation can be executed by a daemon, which is when it doesn't need the
+     * client's standard I/O streams. This means that every command it runs must have all of its streams redirected.
+     */
+    public static boolean canForward(WrapperCfg cfg)
+    {
+        final OperationMode mode = cfg.getMode();
+        if (Daemon.SIMPLE_MODES.contains(mode))
+        {
+            return true;
+        }
+
+        switch (mode)
+        {
+        case init:
+            // The marker is printed on the caller's own stdout/stderr
+            final Object marker = cfg.getParam().get("marker");
+            return ((marker == null) || StringUtils.isBlank(marker.toString())) && Daemon.isRedirected(cfg.getExec());
+
+        case leader:
+        case mutex:
+            return Daemon.isRedirected(cfg.getExec());
+
+        case dcldata:
+            return Daemon.isRedirected(cfg.getExec()) && Daemon.isRedirected(cfg.getCheck());
+
+        default:
+            return false;
+        }
+    }
+
+    private static void initChannel(Channel channel, SimpleChannelInboundHandler<ByteBuf> handler)
+    {
+        channel.pipeline() //
+                .addLast(new LengthFieldBasedFrameDecoder(Daemon.MAX_REQUEST_SIZE, 0, 4, 0, 4)) //
+                .addLast(new LengthFieldPrepender(4)) //
+                .addLast(handler) //
+        ;
+    }
+
+    // The daemon's reply: the exit status, optionally followed by some (UTF-8) text
+    private static final class Response
+    {
+        private final int status;
+        private final String text;
+
+        private Response(int status, String text)
+        {
+            this.status = status;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Send the request to the daemon listening on the given socket, and wait for the operation's exit status. Returns
+     * <code>null</code> if there's no daemon to submit it to, or the daemon's session doesn't match the client's, in
+     * which case it hasn't been executed.
+     */
+    public static Integer submit(Path socket, DaemonRequest request) throws IOException, InterruptedException
+    {
+        final Response response = Daemon.exchange(socket, request, null);
+        if (response == null)
+        {
+            return null;
+        }
+        if (response.status == Daemon.STATUS_REFUSED)
+        {
+            Daemon.LOG.info("The daemon at [{}] refused the request: {}", socket, response.text);
+            return null;
+        }
+        return response.status;
+    }
+
+    /**
+     * Ask the daemon listening on the given socket for the given information (i.e. {@link #QUERY_METRICS}), returning
+     * <code>null</code> if there's no daemon to ask.
+     */
+    public static String query(Path socket, String query) throws IOException, InterruptedException
+    {
+        final DaemonRequest request = new DaemonRequest();
+        request.setQuery(query);
+        final Response response = Daemon.exchange(socket, request, null);
+        if (response == null)
+        {
+            return null;
+        }
+        if (response.status != 0)
+        {
+            throw new IOException(String.format("The daemon at [%s] failed to answer the query [%s] (status %d)", socket, query, response.status));
+        }
+        return StringUtils.defaultString(response.text);
+    }
+
+    private static Response exchange(Path socket, DaemonRequest request, Duration timeout) throws IOException, InterruptedException
+    {
+        if (!Daemon.isAvailable() || !Files.exists(socket))
+        {
+            Daemon.LOG.debug("No daemon socket at [{}] (or no native transport)", socket);
+            return null;
+        }
+
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final EventLoopGroup group = new EpollEventLoopGroup(1);
+        try
+        {
+            final SimpleChannelInboundHandler<ByteBuf> handler = new SimpleChannelInboundHandler<>()
+            {
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg)
+                {
+                    final int status = msg.readInt();
+                    result.complete(new Response(status, msg.isReadable() ? msg.toString(StandardCharsets.UTF_8) : null));
+                    ctx.close();
+                }
+
+                @Override
+                public void channelInactive(ChannelHandlerContext ctx)
+                {
+                    result.completeExceptionally(new IOException("The daemon closed the connection without a response"));
+                }
+
+                @Override
+                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+                {
+                    result.completeExceptionally(cause);
+                    ctx.close();
+                }
+            };
+
+            final ChannelFuture connect = new Bootstrap() //
+                    .group(group) //
+                    .channel(EpollDomainSocketChannel.class) //
+                    .handler(new ChannelInitializer<>()
+                    {
+                        @Override
+                        protected void initChannel(Channel ch)
+                        {
+                            Daemon.initChannel(ch, handler);
+                        }
+                    }) //
+                    .connect(new DomainSocketAddress(socket.toFile())) //
+                    .await() //
+            ;
+            if (!connect.isSuccess())
+            {
+                Daemon.LOG.debug("Failed to connect to the daemon at [{}]", socket, connect.cause());
+                return null;
+            }
+
+            Daemon.LOG.debug("Submitting the {} request to the daemon at [{}]",
+                    Tools.ifNull(request.getQuery(), () -> request.getWrapper().getMode().name()), socket);
+            connect.channel().writeAndFlush(Unpooled.wrappedBuffer(request.encode()));
+            try
+            {
+                return (timeout != null ? result.get(timeout.toMillis(), TimeUnit.MILLISECONDS) : result.get());
+            }
+            catch (ExecutionException e)
+            {
+                throw new IOException(String.format("Failed to obtain the daemon's response from [%s]", socket), e.getCause());
+            }
+            catch (TimeoutException e)
+            {
+                throw new IOException(String.format("Timed out waiting for the daemon's response from [%s] (timeout = %s)", socket, timeout), e);
+            }
+        }
+        finally
+        {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if there's a working daemon listening on the given socket. This has no side effects,
+     * and doesn't depend on ZooKeeper being available.
+     */
+    public static boolean isListening(Path socket) throws InterruptedException
+    {
+        final DaemonRequest ping = new DaemonRequest();
+        ping.setQuery(Daemon.QUERY_PING);
+        try
+        {
+            // Any answer will do, even from a daemon that doesn't know the query
+            return (Daemon.exchange(socket, ping, Daemon.PING_TIMEOUT) != null);
+        }
+        catch (IOException e)
+        {
+            Daemon.LOG.debug("No working daemon at [{}]", socket, e);
+            return false;
+        }
+    }
+
+    private Response answer(int id, String query)
+    {
+        if (Daemon.QUERY_PING.equals(query))
+        {
+            return new Response(0, null);
+        }
+        if (Daemon.QUERY_METRICS.equals(query))
+        {
+            return new Response(0, LockMetrics.render());
+        }
+        this.log.error("Request # {} is an unknown query: [{}]", id, query);
+        return new Response(1, null);
+    }
+
+    private Response execute(int id, byte[] data)
+    {
+        try
+        {
+            final DaemonRequest request = DaemonRequest.decode(data);
+            if (request.getQuery() != null)
+            {
+                return answer(id, request.getQuery());
+            }
+            // Running it against some other ensemble, namespace, or encoding would be worse than not running it at all
+            final String fingerprint = this.session.getFingerprint();
+            if (!Objects.equals(fingerprint, request.getSession()))
+            {
+                this.log.warn("Request # {} was refused: its session [{}] doesn't match the daemon's [{}]", id, request.getSession(), fingerprint);
+                return new Response(Daemon.STATUS_REFUSED,
+                        String.format("the client's session [%s] doesn't match the daemon's [%s]", request.getSession(), fingerprint));
+            }
+            final WrapperCfg cfg = request.getWrapper();
+            if (!Daemon.canForward(cfg))
+            {
+                this.log.error("Request # {} can't be executed by the daemon (mode = {})", id, cfg.getMode());
+                return new Response(1, null);
+            }
+            this.log.info("Executing request # {}: {} [{}]", id, cfg.getMode(), cfg.getName());
+            return new Response(new Wrapper(() -> CompletableFuture.completedFuture(this.session), false, cfg,
+                    new File(request.getWorkdir()), request.getEnv(), request.getProperties()).run(), null);
+        }
+        catch (Exception e)
+        {
+            this.log.error("Failed to execute request # {}", id, e);
+            return new Response(1, null);
+        }
+    }
+
+    private final class RequestHandler extends SimpleChannelInboundHandler<ByteBuf>
+    {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg)
+        {
+            final int id = Daemon.this.counter.incrementAndGet();
+            final byte[] data = ByteBufUtil.getBytes(msg);
+            // Operations may block for a long time, so they mustn't run on the event loop
+            Daemon.this.executor.submit(() -> {
+                final Response response = execute(id, data);
+                Daemon.this.log.info("Request # {} completed with status {}", id, response.status);
+                final ByteBuf reply = ctx.alloc().buffer().writeInt(response.status);
+                if (response.text != null)
+                {
+                    reply.writeCharSequence(response.text, StandardCharsets.UTF_8);
+                }
+                ctx.writeAndFlush(reply).addListener(ChannelFutureListener.CLOSE);
+            });
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            Daemon.this.log.error("Error processing a daemon connection", cause);
+            ctx.close();
+        }
+    }
+
+    public Path getSocket()
+    {
+        return this.socket;
+    }
+
+    public synchronized Daemon start() throws IOException, InterruptedException
+    {
+        if (this.channel != null)
+        {
+            return this;
+        }
+        if (!Daemon.isAvailable())
+        {
+            throw new IOException("Unix domain sockets are not available on this platform", Epoll.unavailabilityCause());
+        }
+
+        // Anyone who can replace the socket can run commands as us, so only we may write to its directory
+        final Path parent = this.socket.getParent();
+        final Set<PosixFilePermission> parentPermissions = Files.getPosixFilePermissions(parent);
+        if (parentPermissions.contains(PosixFilePermission.GROUP_WRITE) || parentPermissions.contains(PosixFilePermission.OTHERS_WRITE))
+        {
+            throw new IOException(String.format("The socket's directory [%s] must not be writable by its group or others (%s)", parent,
+                    PosixFilePermissions.toString(parentPermissions)));
+        }
+
+        if (Files.exists(this.socket))
+        {
+            if (Daemon.isListening(this.socket))
+            {
+                throw new IOException(String.format("There's already a daemon listening at [%s]", this.socket));
+            }
+            this.log.info("Removing the stale socket at [{}]", this.socket);
+            Files.delete(this.socket);
+        }
+
+        // The socket is created with the umask's permissions, which we can't change, so we create it inside a private
+        // directory where no one else can reach it, and only move it into place once it's been locked down
+        final Path privateDir = Files.createTempDirectory(parent, ".daemon-",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        try
+        {
+            bind(privateDir.resolve(this.socket.getFileName()));
+        }
+        finally
+        {
+            Files.deleteIfExists(privateDir);
+        }
+        this.log.info("Listening for requests at [{}]", this.socket);
+        return this;
+    }
+
+    private void bind(Path privateSocket) throws IOException, InterruptedException
+    {
+        this.group = new EpollEventLoopGroup(1);
+        this.executor = Executors.newCachedThreadPool();
+        final ChannelFuture bind = new ServerBootstrap() //
+                .group(this.group) //
+                .channel(EpollServerDomainSocketChannel.class) //
+                .childHandler(new ChannelInitializer<>()
+                {
+                    @Override
+                    protected void initChannel(Channel ch)
+                    {
+                        Daemon.initChannel(ch, new RequestHandler());
+                    }
+                }) //
+                .bind(new DomainSocketAddress(privateSocket.toFile())) //
+                .await() //
+        ;
+        if (!bind.isSuccess())
+        {
+            close();
+            throw new IOException(String.format("Failed to listen on the socket at [%s]", this.socket), bind.cause());
+        }
+        this.channel = bind.channel();
+        try
+        {
+            Files.setPosixFilePermissions(privateSocket, PosixFilePermissions.fromString("rw-------"));
+            Files.move(privateSocket, this.socket, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            close();
+            Files.deleteIfExists(privateSocket);
+            throw new IOException(String.format("Failed to move the socket at [%s] into place", this.socket), e);
+        }
+    }
+
+    /**
+     * Blocks until the daemon is closed.
+     */
+    public void awaitTermination() throws InterruptedException
+    {
+        final Channel channel;
+        synchronized (this)
+        {
+            channel = this.channel;
+        }
+        if (channel != null)
+        {
+            channel.closeFuture().await();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws InterruptedException
+    {
+        if (this.channel != null)
+        {
+            this.log.info("Closing the daemon socket at [{}]", this.socket);
+            this.channel.close().await();
+            this.channel = null;
+        }
+        if (this.group != null)
+        {
+            this.group.shutdownGracefully(0, 5, TimeUnit.SECONDS).await();
+            this.group = null;
+        }
+        if (this.executor != null)
+        {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+        try
+        {
+            Files.deleteIfExists(this.socket);
+        }
+        catch (IOException e)
+        {
+            this.log.warn("Failed to remove the socket at [{}]", this.socket, e);
+        }
+    }
+}
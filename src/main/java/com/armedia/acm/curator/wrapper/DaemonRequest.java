@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.wrapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.representer.Representer;
+
+import com.armedia.acm.curator.tools.Tools;
+import com.armedia.acm.curator.wrapper.conf.SessionCfg;
+import com.armedia.acm.curator.wrapper.conf.WrapperCfg;
+
+/**
+ * <p>
+ * An operation to be executed by a {@link Daemon} on behalf of a client process, along with the client's working
+ * directory, environment, and <code>wrapper.param.*</code> system properties, so the operation behaves as if it had
+ * been run by the client itself. It also carries the fingerprint of the client's session configuration (see
+ * {@link com.armedia.acm.curator.Session.Builder#fingerprint()}), since the daemon may only run it if its own session
+ * matches. It's sent over the wire as YAML.
+ * </p>
+ */
+public class DaemonRequest
+{
+    private static final String PARAM_PREFIX = "wrapper.param.";
+
+    private String workdir = Tools.CWD.getPath();
+    private Map<String, String> env = new LinkedHashMap<>();
+    private Map<String, String> properties = new LinkedHashMap<>();
+    private WrapperCfg wrapper = new WrapperCfg();
+    private String query = null;
+    private String session = null;
+
+    public static DaemonRequest forCurrentProcess(SessionCfg session, WrapperCfg wrapper)
+    {
+        final DaemonRequest request = new DaemonRequest();
+        request.setSession(session.fingerprint());
+        request.setWrapper(wrapper);
+        request.setEnv(new LinkedHashMap<>(System.getenv()));
+        System.getProperties().forEach((k, v) -> {
+            final String key = String.valueOf(k);
+            if (key.startsWith(DaemonRequest.PARAM_PREFIX))
+            {
+                request.properties.put(key, String.valueOf(v));
+            }
+        });
+        return request;
+    }
+
+    private static Yaml getYaml()
+    {
+        final DumperOptions dumperOptions = new DumperOptions();
+        dumperOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        final Representer representer = new Representer(dumperOptions);
+        representer.getPropertyUtils().setSkipMissingProperties(true);
+        representer.addClassTag(DaemonRequest.class, Tag.MAP);
+        return new Yaml(new Constructor(DaemonRequest.class, new LoaderOptions()), representer, dumperOptions);
+    }
+
+    public static DaemonRequest decode(byte[] data)
+    {
+        return DaemonRequest.getYaml().loadAs(new String(data, StandardCharsets.UTF_8), DaemonRequest.class);
+    }
+
+    public byte[] encode()
+    {
+        return DaemonRequest.getYaml().dump(this).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getWorkdir()
+    {
+        return this.workdir;
+    }
+
+    public void setWorkdir(String workdir)
+    {
+        this.workdir = StringUtils.defaultIfEmpty(workdir, Tools.CWD.getPath());
+    }
+
+    public Map<String, String> getEnv()
+    {
+        return this.env;
+    }
+
+    public void setEnv(Map<String, String> env)
+    {
+        this.env = Tools.ifNull(env, LinkedHashMap::new);
+    }
+
+    public Map<String, String> getProperties()
+    {
+        return this.properties;
+    }
+
+    public void setProperties(Map<String, String> properties)
+    {
+        this.properties = Tools.ifNull(properties, LinkedHashMap::new);
+    }
+
+    /**
+     * If set, this request asks the daemon for information (see {@link Daemon#query(java.nio.file.Path, String)}) instead of running
+     * the wrapper operation.
+     */
+    public String getQuery()
+    {
+        return this.query;
+    }
+
+    public void setQuery(String query)
+    {
+        this.query = StringUtils.trimToNull(query);
+    }
+
+    /**
+     * The fingerprint of the client's session configuration, which must match the daemon's.
+     */
+    public String getSession()
+    {
+        return this.session;
+    }
+
+    public void setSession(String session)
+    {
+        this.session = StringUtils.trimToNull(session);
+    }
+
+    public WrapperCfg getWrapper()
+    {
+        return this.wrapper;
+    }
+
+    public void setWrapper(WrapperCfg wrapper)
+    {
+        this.wrapper = Tools.ifNull(wrapper, WrapperCfg::new);
+    }
+}
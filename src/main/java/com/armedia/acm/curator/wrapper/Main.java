@@ -33,6 +33,8 @@ import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
@@ -57,10 +59,16 @@ import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.env.EnvScalarConstructor;
 import org.yaml.snakeyaml.representer.Representer;
 
+import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.PhaseMetrics;
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
+import com.armedia.acm.curator.metrics.PhaseTrace;
+import com.armedia.acm.curator.metrics.PrometheusExporter;
 import com.armedia.acm.curator.tools.SysPropEnvScalarConstructor;
 import com.armedia.acm.curator.tools.Tools;
 import com.armedia.acm.curator.wrapper.conf.ExecCfg;
 import com.armedia.acm.curator.wrapper.conf.MainCfg;
+import com.armedia.acm.curator.wrapper.conf.MetricsCfg;
 import com.armedia.acm.curator.wrapper.conf.OperationMode;
 import com.armedia.acm.curator.wrapper.conf.SessionCfg;
 import com.armedia.acm.curator.wrapper.conf.WrapperCfg;
@@ -70,6 +78,8 @@ public class Main
     private static final Logger LOG = LoggerFactory.getLogger(Main.class);
     private static final String CONF_SYSPROP = "arkcase.curator.wrapper.conf";
     private static final String CONF_ENVVAR = Main.CONF_SYSPROP.replace('.', '_').toUpperCase();
+    private static final String SOCKET_SYSPROP = "arkcase.curator.wrapper.socket";
+    private static final String SOCKET_ENVVAR = Main.SOCKET_SYSPROP.replace('.', '_').toUpperCase();
     private static final Set<String> OPERATION_NAMES = Collections.unmodifiableSet(EnumSet
             .allOf(OperationMode.class)
             .stream()
@@ -90,6 +100,11 @@ public class Main
                     .hasArg()
                     .desc("The configuration file to use")
                     .get()) //
+            .addOption(Option.builder()
+                    .option("d")
+                    .longOpt("daemon")
+                    .desc("Run as a long-lived daemon which executes the operations submitted over the Unix domain socket given with --socket")
+                    .get()) //
             .addOption(Option.builder()
                     .option("e")
                     .longOpt("encoding")
@@ -109,6 +124,11 @@ public class Main
                     .hasArg()
                     .desc(String.format("The operational mode (must be one of %s", Main.OPERATION_NAMES))
                     .get()) //
+            .addOption(Option.builder()
+                    .option("M")
+                    .longOpt("metrics")
+                    .desc("Print the lock metrics (wait and hold times, timeouts, etc.) of the daemon listening on the socket given with --socket, and exit")
+                    .get()) //
             .addOption(Option.builder()
                     .option("n")
                     .longOpt("name")
@@ -116,6 +136,15 @@ public class Main
                     .hasArg()
                     .desc("The name of the resource to operate with")
                     .get()) //
+            .addOption(Option.builder()
+                    .option("s")
+                    .longOpt("socket")
+                    .argName("socket-path")
+                    .hasArg()
+                    .desc(String.format(
+                            "The Unix domain socket of the daemon to submit the operation to, if it's running (can also be set with the %s sysprop or the %s envvar)",
+                            Main.SOCKET_SYSPROP, Main.SOCKET_ENVVAR))
+                    .get()) //
             .addOption(Option.builder()
                     .option("t")
                     .longOpt("timeout")
@@ -165,8 +194,64 @@ public class Main
         return Main.DEFAULT_CONFIG.getPath();
     }
 
+    private static Path getSocket(CommandLine cmdLine)
+    {
+        String socket = cmdLine.getOptionValue('s');
+        if (Tools.isEmpty(socket))
+        {
+            socket = System.getProperty(Main.SOCKET_SYSPROP);
+        }
+        if (Tools.isEmpty(socket))
+        {
+            socket = System.getenv(Main.SOCKET_ENVVAR);
+        }
+        return (StringUtils.isBlank(socket) ? null : Paths.get(socket));
+    }
+
+    private static int runDaemon(SessionCfg cfg, Path socket) throws Exception
+    {
+        try (Session session = cfg.build(); Daemon daemon = new Daemon(session, socket))
+        {
+            daemon.start();
+            // Only the daemon needs closing here: the session's own shutdown hook releases its locks
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try
+                {
+                    daemon.close();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }, "daemon-shutdown"));
+            daemon.awaitTermination();
+            Main.LOG.info("The daemon at [{}] has been shut down", socket);
+        }
+        return 0;
+    }
+
+    private static int printMetrics(Path socket) throws IOException, InterruptedException
+    {
+        if (socket == null)
+        {
+            Main.LOG.error("Must provide the socket of the daemon whose metrics to print");
+            return 1;
+        }
+        final String metrics = Daemon.query(socket, Daemon.QUERY_METRICS);
+        if (metrics == null)
+        {
+            Main.LOG.error("No daemon is available at [{}]", socket);
+            return 1;
+        }
+        System.out.print(metrics);
+        System.out.flush();
+        return 0;
+    }
+
     private static int run(String... args) throws Exception
     {
+        final PhaseTrace trace = PhaseTrace.begin();
+        PhaseMetrics.record(Phase.jvm, trace.getOrigin());
         Main.LOG.trace("Parsing the command line: {}", Arrays.toString(args));
         try
         {
@@ -178,6 +263,12 @@ public class Main
                 return 1;
             }
 
+            if (cmdLine.hasOption('M'))
+            {
+                return Main.printMetrics(Main.getSocket(cmdLine));
+            }
+
+            final long configStart = PhaseMetrics.start();
             Charset charset = StandardCharsets.UTF_8;
             if (cmdLine.hasOption('e'))
             {
@@ -333,13 +424,20 @@ public class Main
                 }
                 wrapper.setTimeout(millis);
             }
+            PhaseMetrics.record(Phase.config, configStart);
+            trace.set("mode", wrapper.getMode()).set("name", wrapper.getName());
 
-            Main.LOG.debug("Launching the main loop");
-            final SessionCfg session = cfg.getSession();
-            final Instant start = Instant.now();
-            int ret = new Wrapper(session::build, cfg.getWrapper()).run();
-            Main.LOG.info("Command exited with status {} after {}", ret, Duration.between(start, Instant.now()));
-            return ret;
+            final MetricsCfg metrics = cfg.getMetrics();
+            try (PrometheusExporter exporter = metrics.start())
+            {
+                final int ret = Main.execute(cmdLine, cfg);
+                trace.set("status", ret);
+                return ret;
+            }
+            finally
+            {
+                Main.writeMetrics(metrics);
+            }
         }
         catch (Exception e)
         {
@@ -347,6 +445,71 @@ public class Main
         }
     }
 
+    private static void writeMetrics(MetricsCfg metrics)
+    {
+        try
+        {
+            metrics.write();
+        }
+        catch (Exception e)
+        {
+            Main.LOG.warn("Failed to write the metrics into [{}]", metrics.getTextFile(), e);
+        }
+
+        try
+        {
+            metrics.write(PhaseTrace.end());
+        }
+        catch (Exception e)
+        {
+            Main.LOG.warn("Failed to write the phase trace into [{}]", metrics.getTrace(), e);
+        }
+    }
+
+    private static int execute(CommandLine cmdLine, MainCfg cfg) throws Exception
+    {
+        final WrapperCfg wrapper = cfg.getWrapper();
+        final Path socket = Main.getSocket(cmdLine);
+        if (cmdLine.hasOption('d'))
+        {
+            if (socket == null)
+            {
+                Main.LOG.error("Must provide the socket to listen on in order to run as a daemon");
+                return 1;
+            }
+            Main.LOG.info("Starting the daemon at [{}]", socket);
+            // The daemon runs indefinitely, so there's no single run to trace
+            PhaseTrace.end();
+            return Main.runDaemon(cfg.getSession(), socket);
+        }
+
+        final Instant start = Instant.now();
+        final SessionCfg session = cfg.getSession();
+        if ((socket != null) && Daemon.canForward(wrapper))
+        {
+            try
+            {
+                final Integer ret = Daemon.submit(socket, DaemonRequest.forCurrentProcess(session, wrapper));
+                if (ret != null)
+                {
+                    Main.LOG.info("Daemon operation exited with status {} after {}", ret, Duration.between(start, Instant.now()));
+                    return ret;
+                }
+                Main.LOG.info("No suitable daemon is available at [{}], executing the operation directly", socket);
+            }
+            catch (IOException e)
+            {
+                Main.LOG.error("Failed to execute the operation through the daemon at [{}]", socket, e);
+                return 1;
+            }
+        }
+
+        Main.LOG.debug("Launching the main loop");
+        int ret = Wrapper.withAsyncSession(session::connectAsync, cfg.getWrapper()).run();
+        Main.LOG.info("Command exited with status {} after {}", ret, Duration.between(start, Instant.now()));
+        return ret;
+    }
+
     private static void usage() throws IOException
     {
         HelpFormatter.builder().get().printHelp("wrapper", "A simple Curator API Wrapper", Main.OPTIONS, "", false);
@@ -33,10 +33,16 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import org.apache.commons.io.FileUtils;
@@ -46,6 +52,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.PhaseMetrics;
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
+import com.armedia.acm.curator.metrics.PhaseTrace;
 import com.armedia.acm.curator.recipe.Delete;
 import com.armedia.acm.curator.recipe.Download;
 import com.armedia.acm.curator.recipe.Exists;
@@ -65,15 +74,69 @@ public class Wrapper
 {
     private static final String NULL = "null";
     private static final String ENV_DCL_DATA_FILE = "DCL_DATA_FILE";
+    private static final Set<OperationMode> COMMAND_MODES = Collections.unmodifiableSet(EnumSet.of( //
+            OperationMode.dcldata, //
+            OperationMode.init, //
+            OperationMode.leader, //
+            OperationMode.mutex //
+    ));
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final WrapperCfg cfg;
-    private final FailableSupplier<Session, Exception> session;
+    private final FailableSupplier<CompletableFuture<Session>, Exception> session;
+    private final boolean closeSession;
+    private final File cwd;
+    private final Map<String, String> env;
+    private final Map<String, String> properties;
+    private final AtomicReference<Process> child = new AtomicReference<>();
 
     public Wrapper(FailableSupplier<Session, Exception> session, WrapperCfg cfg)
+    {
+        this(Wrapper.completed(session), true, cfg, null, null, null);
+    }
+
+    /**
+     * Creates a wrapper whose session is connected asynchronously (e.g. via {@link Session.Builder#connectAsync()}), so
+     * it can prepare the operation while the connection is being established.
+     */
+    public static Wrapper withAsyncSession(FailableSupplier<CompletableFuture<Session>, Exception> session, WrapperCfg cfg)
+    {
+        return new Wrapper(session, true, cfg, null, null, null);
+    }
+
+    private static FailableSupplier<CompletableFuture<Session>, Exception> completed(FailableSupplier<Session, Exception> session)
+    {
+        Objects.requireNonNull(session, "Must provide a non-null Session supplier");
+        return () -> CompletableFuture.completedFuture(session.get());
+    }
+
+    /**
+     * Creates a wrapper that runs on behalf of another process (see {@link Daemon}), so it resolves relative paths,
+     * parameters, and the commands' environment from that process' working directory, environment variables, and
+     * system properties instead of its own. A <code>null</code> value for any of them means the current process'
+     * values are used. The session is only closed after the operation if <code>closeSession</code> is
+     * <code>true</code>.
+     */
+    Wrapper(FailableSupplier<CompletableFuture<Session>, Exception> session, boolean closeSession, WrapperCfg cfg, File cwd, Map<String, String> env,
+            Map<String, String> properties)
     {
         this.session = Objects.requireNonNull(session, "Must provide a non-null Session supplier");
+        this.closeSession = closeSession;
         this.cfg = Tools.ifNull(cfg, WrapperCfg::new);
+        this.cwd = Tools.ifNull(cwd, () -> Tools.CWD);
+        this.env = env;
+        this.properties = properties;
+    }
+
+    private File resolve(String path)
+    {
+        final File f = new File(path);
+        return (f.isAbsolute() ? f : new File(this.cwd, path));
+    }
+
+    private String resolvePath(String path)
+    {
+        return (StringUtils.isBlank(path) ? path : resolve(path).getPath());
     }
 
     private String getParameter(String name)
@@ -82,7 +145,7 @@ public class Wrapper
 
         final String sysProp = String.format("wrapper.param.%s", name);
 
-        value = System.getProperty(sysProp);
+        value = (this.properties != null ? this.properties.get(sysProp) : System.getProperty(sysProp));
         if (!Tools.isEmpty(value))
         {
             this.log.trace("Found the system property {} with value [{}]", sysProp, value);
@@ -90,7 +153,7 @@ public class Wrapper
         }
 
         String envVar = sysProp.replace('.', '_').toUpperCase();
-        value = System.getenv(envVar);
+        value = (this.env != null ? this.env.get(envVar) : System.getenv(envVar));
         if (!Tools.isEmpty(value))
         {
             this.log.trace("Found the environment variable {} with value [{}]", envVar, value);
@@ -118,7 +181,7 @@ public class Wrapper
         }
         else if (path != null)
         {
-            final File f = new File(path);
+            final File f = resolve(path);
             redirect = (from ? Redirect.from(f) : Redirect.to(f));
         }
         tgt.accept(redirect);
@@ -136,22 +199,30 @@ public class Wrapper
     }
 
     private int run(ExecCfg cfg)
+    {
+        return run(prepare(cfg));
+    }
+
+    /**
+     * Build the process for the given command, or return <code>null</code> if it can't be run.
+     */
+    private ProcessBuilder prepare(ExecCfg cfg)
     {
         final Object command = cfg.getCommand();
         if (command == null)
         {
             this.log.warn("No command was given to wrap, returning an exit status of 1");
-            return 1;
+            return null;
         }
 
-        File workdir = Tools.CWD;
+        File workdir = this.cwd;
         if (cfg.getWorkdir() != null)
         {
-            workdir = Tools.canonicalize(new File(cfg.getWorkdir()));
+            workdir = Tools.canonicalize(resolve(cfg.getWorkdir()));
             if (!workdir.exists() || !workdir.isDirectory())
             {
                 this.log.error("The working directory [{}] doesn't exist or isn't a directory", workdir);
-                return 1;
+                return null;
             }
         }
 
@@ -186,7 +257,7 @@ public class Wrapper
         if (cmd.isEmpty())
         {
             this.log.error("The command is empty, cannot continue");
-            return 1;
+            return null;
         }
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(workdir);
@@ -197,6 +268,11 @@ public class Wrapper
         {
             env.clear();
         }
+        else if (this.env != null)
+        {
+            env.clear();
+            env.putAll(this.env);
+        }
 
         if (cfg.getEnv() != null)
         {
@@ -205,13 +281,32 @@ public class Wrapper
 
         // Indicate to the child process that it's inside the curator wrapper
         env.put("CURATOR_WRAPPED", "true");
+        return pb;
+    }
+
+    private int run(ProcessBuilder pb)
+    {
+        return run(pb, Phase.command);
+    }
+
+    private int run(ProcessBuilder pb, Phase phase)
+    {
+        if (pb == null)
+        {
+            return 1;
+        }
 
         this.log.info("Launching the wrapped command {}", pb.command());
         this.log.trace("Using the environment:\n{}", pb.environment());
 
+        long start = PhaseMetrics.start();
+        Process process = null;
         try
         {
-            int result = pb.start().waitFor();
+            process = pb.start();
+            start = PhaseMetrics.record(Phase.spawn, start);
+            this.child.set(process);
+            int result = process.waitFor();
             this.log.info("Command exit status: {}", result);
             return result;
         }
@@ -220,36 +315,111 @@ public class Wrapper
             this.log.error("Exception caught running the command", e);
             return 1;
         }
+        finally
+        {
+            if (process != null)
+            {
+                this.child.compareAndSet(process, null);
+                PhaseMetrics.record(phase, start);
+            }
+        }
+    }
+
+    private static Session await(CompletableFuture<Session> session) throws Exception
+    {
+        try
+        {
+            return session.get();
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            throw (cause instanceof Exception ? (Exception) cause : e);
+        }
     }
 
     private int runWrappedCommand(ExecCfg check, ExecCfg cmd) throws Exception
     {
-        try (Session session = this.session.get())
+        // Start connecting right away, and prepare everything we can while that happens
+        final CompletableFuture<Session> connecting = this.session.get();
+
+        final Duration maxWait = (this.cfg.getTimeout() > 0) //
+                ? Duration.ofMillis(this.cfg.getTimeout()) //
+                : null //
+        ;
+
+        Path dclFile = null;
+        final ProcessBuilder command;
+        final ProcessBuilder checkCommand;
+        final ConnectionGuard guard;
+        final Session session;
+        try
+        {
+            // Decide what to do with the child process if the connection falters while we hold a lock for it
+            guard = new ConnectionGuard(this.child::get, //
+                    ConnectionGuard.Action.parse(getParameter("onSuspended"), ConnectionGuard.DEFAULT_ON_SUSPENDED), //
+                    ConnectionGuard.Action.parse(getParameter("onLost"), ConnectionGuard.DEFAULT_ON_LOST) //
+            );
+
+            if (this.cfg.getMode() == OperationMode.dcldata)
+            {
+                // We need to download the file and feed it to the check via stdin. We'll use this
+                // temporary file to do so. We will then also redirect the generator's output
+                // to this file in order to upload the updated data, if necessary
+                dclFile = Files.createTempFile(null, null).toRealPath();
+
+                // Expose the file location via an environment variable
+                check.getEnv().put(Wrapper.ENV_DCL_DATA_FILE, dclFile.toString());
+                cmd.getEnv().put(Wrapper.ENV_DCL_DATA_FILE, dclFile.toString());
+            }
+
+            command = (Wrapper.COMMAND_MODES.contains(this.cfg.getMode()) ? prepare(cmd) : null);
+            checkCommand = (dclFile != null ? prepare(check) : null);
+
+            session = Wrapper.await(connecting);
+            if ((PhaseTrace.current() != null) && session.isEnabled() && StringUtils.isNotEmpty(session.getClient().getNamespace()))
+            {
+                // Curator only makes sure the chroot exists right before the first operation, so when tracing we do it
+                // up front in order to time it apart from whatever that operation is
+                final long start = PhaseMetrics.start();
+                session.getClient().checkExists().forPath("/");
+                PhaseMetrics.record(Phase.chroot, start);
+            }
+        }
+        catch (Exception e)
+        {
+            if (dclFile != null)
+            {
+                FileUtils.deleteQuietly(dclFile.toFile());
+            }
+            if (this.closeSession)
+            {
+                connecting.thenAccept(Session::close);
+            }
+            throw e;
+        }
+
+        try (AutoCloseable closer = (this.closeSession ? session : Tools::noop))
         {
             // This is the new, "clusterable" code path
             this.log.info("Running in clustered mode");
 
-            final Duration maxWait = (this.cfg.getTimeout() > 0) //
-                    ? Duration.ofMillis(this.cfg.getTimeout()) //
-                    : null //
-            ;
-
             switch (this.cfg.getMode())
             {
             case leader:
                 this.log.info("Creating a leadership selector");
                 Leader leader = new Leader(session, this.cfg.getName());
-                try (AutoCloseable l = leader.awaitLeadership(maxWait))
+                try (AutoCloseable l = leader.awaitLeadership(maxWait, guard))
                 {
-                    return run(cmd);
+                    return run(command);
                 }
 
             case mutex:
                 this.log.info("Creating a mutex lock");
                 Mutex mutex = new Mutex(session, this.cfg.getName());
-                try (AutoCloseable m = mutex.acquire(maxWait))
+                try (AutoCloseable m = mutex.acquire(maxWait, guard))
                 {
-                    return run(cmd);
+                    return run(command);
                 }
 
             case init:
@@ -275,7 +445,7 @@ public class Wrapper
                         (stdErr ? System.err : System.out).printf("Initializer lock acquired:%n%s%n", marker);
                     }
 
-                    int rc = run(cmd);
+                    int rc = run(command);
                     if (rc == 0)
                     {
                         return null;
@@ -302,7 +472,8 @@ public class Wrapper
                 {
                     target = getParameter("target");
                 }
-                return new Download(session, this.cfg.getName()).execute(target);
+                final boolean sync = Boolean.parseBoolean(getParameter("sync"));
+                return new Download(session, this.cfg.getName(), sync).execute(resolvePath(target), getParameter("recursive"));
 
             case upload:
                 String source = getParameter("src");
@@ -310,21 +481,13 @@ public class Wrapper
                 {
                     source = getParameter("source");
                 }
-                return new Upload(session, this.cfg.getName()).execute(source);
+                return new Upload(session, this.cfg.getName()).execute(resolvePath(source), getParameter("recursive"));
 
             case exists:
                 return new Exists(session, this.cfg.getName()).execute();
 
             case dcldata:
-                // We need to download the file and feed it to the check via stdin. We'll use this
-                // temporary file to do so. We will then also redirect the generator's output
-                // to this file in order to upload the updated data, if necessary
-                final Path tempFile = Files.createTempFile(null, null).toRealPath();
-
-                // Expose the file location via an environment variable
-                check.getEnv().put(Wrapper.ENV_DCL_DATA_FILE, tempFile.toString());
-                cmd.getEnv().put(Wrapper.ENV_DCL_DATA_FILE, tempFile.toString());
-
+                final Path tempFile = dclFile;
                 try
                 {
                     final Download download = new Download(session, this.cfg.getName());
@@ -337,7 +500,7 @@ public class Wrapper
                         return 1;
                     }
 
-                    if (run(check) == 0)
+                    if (run(checkCommand, Phase.check) == 0)
                     {
                         // If the check was successful, we need not touch
                         // the protected data, and we just return a happy 0
@@ -348,7 +511,7 @@ public class Wrapper
                     // Uh-oh ... the check failed ... means the data apparently
                     // requires an update ... so let's do it!
                     this.log.info("The protected data at [{}] requires an update ... creating a mutex lock...", download.getPath());
-                    try (AutoCloseable m = new Mutex(session, String.format("%s.lock", download.getName())).acquire(maxWait))
+                    try (AutoCloseable m = new Mutex(session, String.format("%s.lock", download.getName())).acquire(maxWait, guard))
                     {
                         // Make sure the download succeeded
                         if (download.execute(tempFile.toString()) != 0)
@@ -357,7 +520,7 @@ public class Wrapper
                             return 1;
                         }
 
-                        if (run(check) == 0)
+                        if (run(checkCommand, Phase.check) == 0)
                         {
                             // If the check was successful, we need not touch
                             // the protected data, and we just return a happy 0
@@ -370,7 +533,7 @@ public class Wrapper
                         // We need to capture STDOUT from this command in order to
                         // read the newly-generated data, which will then be uploaded
                         this.log.info("Generating the new data for [{}] ...", download.getPath());
-                        int result = run(cmd);
+                        int result = run(command);
                         if (result != 0)
                         {
                             // If the data generation command somehow failed, we
@@ -395,11 +558,16 @@ public class Wrapper
                 {
                     // Good citizens clean up after themselves!
                     FileUtils.deleteQuietly(tempFile.toFile());
+                    FileUtils.deleteQuietly(Download.getStatFile(tempFile).toFile());
                 }
 
             case mkroot:
-                // If the session is already established, we need not do
-                // anything b/c the chroot znode has already been created
+                // The chroot znode is created right before the session's
+                // first operation, so make sure there is one
+                if (session.isEnabled())
+                {
+                    session.getClient().checkExists().forPath("/");
+                }
                 return 0;
 
             default:
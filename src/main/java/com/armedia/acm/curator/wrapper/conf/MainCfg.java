@@ -33,6 +33,7 @@ public class MainCfg
 {
     private SessionCfg session = new SessionCfg();
     private WrapperCfg wrapper = new WrapperCfg();
+    private MetricsCfg metrics = new MetricsCfg();
 
     public SessionCfg getSession()
     {
@@ -61,4 +62,18 @@ public class MainCfg
     {
         this.wrapper = Tools.ifNull(wrapper, WrapperCfg::new);
     }
+
+    public MetricsCfg getMetrics()
+    {
+        if (this.metrics == null)
+        {
+            this.metrics = new MetricsCfg();
+        }
+        return this.metrics;
+    }
+
+    public void setMetrics(MetricsCfg metrics)
+    {
+        this.metrics = Tools.ifNull(metrics, MetricsCfg::new);
+    }
 }
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.wrapper.conf;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.armedia.acm.curator.metrics.PhaseTrace;
+import com.armedia.acm.curator.metrics.PrometheusExporter;
+
+public class MetricsCfg
+{
+    private String host = null;
+    private int port = 0;
+    private String textFile = null;
+    private String trace = null;
+
+    public String getHost()
+    {
+        return this.host;
+    }
+
+    public void setHost(String host)
+    {
+        this.host = host;
+    }
+
+    public int getPort()
+    {
+        return this.port;
+    }
+
+    public void setPort(int port)
+    {
+        this.port = Math.max(0, port);
+    }
+
+    public String getTextFile()
+    {
+        return this.textFile;
+    }
+
+    public void setTextFile(String textFile)
+    {
+        this.textFile = textFile;
+    }
+
+    public String getTrace()
+    {
+        return this.trace;
+    }
+
+    public void setTrace(String trace)
+    {
+        this.trace = trace;
+    }
+
+    /**
+     * Start the HTTP endpoint if a port was configured, or return <code>null</code> otherwise.
+     */
+    public PrometheusExporter start() throws Exception
+    {
+        if (this.port <= 0)
+        {
+            return null;
+        }
+        return PrometheusExporter.start(this.host, this.port);
+    }
+
+    /**
+     * Write the metrics into the configured text file, if any.
+     */
+    public void write() throws Exception
+    {
+        if (StringUtils.isBlank(this.textFile))
+        {
+            return;
+        }
+        final Path file = Paths.get(this.textFile);
+        PrometheusExporter.write(file);
+    }
+
+    /**
+     * Write the given trace to the configured target (a file, or {@link PhaseTrace#STDERR}), if any.
+     */
+    public void write(PhaseTrace trace) throws Exception
+    {
+        if ((trace == null) || StringUtils.isBlank(this.trace))
+        {
+            return;
+        }
+        trace.write(this.trace);
+    }
+}
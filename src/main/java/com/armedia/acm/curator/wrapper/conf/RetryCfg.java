@@ -26,6 +26,9 @@
  */
 package com.armedia.acm.curator.wrapper.conf;
 
+import com.armedia.acm.curator.RetryType;
+import com.armedia.acm.curator.Session;
+
 public class RetryCfg
 {
     protected static final int MIN_DELAY = 100;
@@ -34,6 +37,9 @@ public class RetryCfg
 
     private int count = RetryCfg.DEF_COUNT;
     private int delay = RetryCfg.DEF_DELAY;
+    private RetryType type = null;
+    private int maxDelay = Session.DEFAULT_RETRY_MAX_DELAY;
+    private int maxElapsed = Session.DEFAULT_RETRY_MAX_ELAPSED;
 
     public int getCount()
     {
@@ -58,4 +64,34 @@ public class RetryCfg
     {
         this.delay = Math.max(RetryCfg.MIN_DELAY, delay);
     }
-}
\ No newline at end of file
+
+    public RetryType getType()
+    {
+        return this.type;
+    }
+
+    public void setType(RetryType type)
+    {
+        this.type = type;
+    }
+
+    public int getMaxDelay()
+    {
+        return this.maxDelay;
+    }
+
+    public void setMaxDelay(int maxDelay)
+    {
+        this.maxDelay = (maxDelay > 0 ? Math.max(RetryCfg.MIN_DELAY, maxDelay) : Session.DEFAULT_RETRY_MAX_DELAY);
+    }
+
+    public int getMaxElapsed()
+    {
+        return this.maxElapsed;
+    }
+
+    public void setMaxElapsed(int maxElapsed)
+    {
+        this.maxElapsed = Math.max(0, maxElapsed);
+    }
+}
@@ -26,6 +26,8 @@
  */
 package com.armedia.acm.curator.wrapper.conf;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.armedia.acm.curator.Session;
@@ -39,6 +41,11 @@ public class SessionCfg
     private int sessionTimeout = Session.sanitizeSessionTimeout(0);
     private int connectionTimeout = Session.sanitizeConnectionTimeout(0);
     private RetryCfg retry = new RetryCfg();
+    private String codec = null;
+    private String valueCodec = null;
+    private int compressionThreshold = 0;
+    private int cleanupTimeout = Session.sanitizeCleanupTimeout(0);
+    private int logSampling = Session.sanitizeLogSampling(0);
 
     public String getConnect()
     {
@@ -90,18 +97,101 @@ public class SessionCfg
         this.retry = Tools.ifNull(retry, RetryCfg::new);
     }
 
+    public String getCodec()
+    {
+        return this.codec;
+    }
+
+    public void setCodec(String codec)
+    {
+        this.codec = StringUtils.trimToNull(codec);
+    }
+
+    public String getValueCodec()
+    {
+        return this.valueCodec;
+    }
+
+    public void setValueCodec(String valueCodec)
+    {
+        this.valueCodec = StringUtils.trimToNull(valueCodec);
+    }
+
+    /**
+     * The size (in bytes) from which payloads are compressed, or 0 if it's left to <code>zk.codec.threshold</code> (or
+     * the default).
+     */
+    public int getCompressionThreshold()
+    {
+        return this.compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold)
+    {
+        this.compressionThreshold = (compressionThreshold > 0 ? Session.sanitizeCompressionThreshold(compressionThreshold) : 0);
+    }
+
+    public int getCleanupTimeout()
+    {
+        return this.cleanupTimeout;
+    }
+
+    public void setCleanupTimeout(int cleanupTimeout)
+    {
+        this.cleanupTimeout = Session.sanitizeCleanupTimeout(cleanupTimeout);
+    }
+
+    public int getLogSampling()
+    {
+        return this.logSampling;
+    }
+
+    public void setLogSampling(int logSampling)
+    {
+        this.logSampling = Session.sanitizeLogSampling(logSampling);
+    }
+
     public Session build() throws InterruptedException
+    {
+        return newBuilder().build();
+    }
+
+    public CompletableFuture<Session> connectAsync()
+    {
+        return newBuilder().connectAsync();
+    }
+
+    /**
+     * See {@link Session.Builder#fingerprint()}.
+     */
+    public String fingerprint()
+    {
+        return newBuilder().configure().fingerprint();
+    }
+
+    private Session.Builder newBuilder()
     {
         // This helps ensure we have a value
         RetryCfg retry = getRetry();
-        return new Session.Builder() //
+        final Session.Builder builder = new Session.Builder() //
                 .connect(this.connect) //
                 .instanceId(this.instanceId) //
                 .sessionTimeout(this.sessionTimeout) //
                 .connectionTimeout(this.connectionTimeout) //
                 .retryCount(retry.getCount()) //
                 .retryDelay(retry.getDelay()) //
-                .build() //
+                .retryType(retry.getType()) //
+                .retryMaxDelay(retry.getMaxDelay()) //
+                .retryMaxElapsed(retry.getMaxElapsed()) //
+                .codec(this.codec) //
+                .valueCodec(this.valueCodec) //
+                .cleanupTimeout(this.cleanupTimeout) //
+                .logSampling(this.logSampling) //
         ;
+        if (this.compressionThreshold > 0)
+        {
+            builder.compressionThreshold(this.compressionThreshold);
+        }
+        return builder;
     }
 }
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
+import org.apache.curator.retry.BoundedExponentialBackoffRetry;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.retry.RetryForever;
+import org.apache.curator.retry.RetryUntilElapsed;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RetryTypeTest
+{
+    private static class Recorder implements RetrySleeper
+    {
+        private final List<Long> sleeps = new ArrayList<>();
+
+        @Override
+        public void sleepFor(long time, TimeUnit unit)
+        {
+            this.sleeps.add(unit.toMillis(time));
+        }
+    }
+
+    private static List<Long> retry(RetryPolicy policy, int times)
+    {
+        final Recorder recorder = new Recorder();
+        for (int i = 0; i < times; i++)
+        {
+            if (!policy.allowRetry(i, 0, recorder))
+            {
+                break;
+            }
+        }
+        return recorder.sleeps;
+    }
+
+    @Test
+    public void testParse()
+    {
+        Assertions.assertSame(RetryType.jitter, RetryType.parse(null, RetryType.jitter));
+        Assertions.assertSame(RetryType.jitter, RetryType.parse(" ", RetryType.jitter));
+        for (RetryType t : RetryType.values())
+        {
+            Assertions.assertSame(t, RetryType.parse(t.name(), null));
+            Assertions.assertSame(t, RetryType.parse(" " + t.name().toUpperCase() + " ", null));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RetryType.parse("bogus", null));
+
+        Assertions.assertSame(RetryType.forever, RetryType.getDefault(0));
+        Assertions.assertSame(RetryType.forever, RetryType.getDefault(-1));
+        Assertions.assertSame(RetryType.exponential, RetryType.getDefault(1));
+    }
+
+    @Test
+    public void testBuild()
+    {
+        Assertions.assertTrue(RetryType.forever.build(5, 100, 1000, 0) instanceof RetryForever);
+        Assertions.assertTrue(RetryType.exponential.build(5, 100, 1000, 0) instanceof ExponentialBackoffRetry);
+        Assertions.assertTrue(RetryType.bounded.build(5, 100, 1000, 0) instanceof BoundedExponentialBackoffRetry);
+        Assertions.assertTrue(RetryType.elapsed.build(5, 100, 1000, 0) instanceof RetryUntilElapsed);
+        Assertions.assertTrue(RetryType.elapsed.build(5, 100, 1000, 5000) instanceof RetryUntilElapsed);
+        for (RetryType t : RetryType.values())
+        {
+            if (t != RetryType.elapsed)
+            {
+                Assertions.assertTrue(t.build(5, 100, 1000, 5000) instanceof BackoffRetry.Elapsed, t.name());
+            }
+        }
+    }
+
+    @Test
+    public void testBackoff()
+    {
+        // Curator would stop after 29 retries, and the delay must be capped if they're unlimited
+        List<Long> sleeps = RetryTypeTest.retry(RetryType.exponential.build(0, 100, 1000, 0), 100);
+        Assertions.assertEquals(100, sleeps.size());
+        Assertions.assertEquals(100L, sleeps.get(0).longValue());
+        Assertions.assertEquals(200L, sleeps.get(1).longValue());
+        Assertions.assertEquals(1000L, sleeps.get(99).longValue());
+
+        sleeps = RetryTypeTest.retry(RetryType.bounded.build(0, 100, 1000, 0), 100);
+        Assertions.assertEquals(100, sleeps.size());
+        Assertions.assertEquals(100L, sleeps.get(0).longValue());
+        Assertions.assertEquals(800L, sleeps.get(3).longValue());
+        Assertions.assertEquals(1000L, sleeps.get(99).longValue());
+
+        sleeps = RetryTypeTest.retry(RetryType.jitter.build(10, 100, 1000, 0), 100);
+        Assertions.assertEquals(10, sleeps.size());
+        for (int i = 0; i < sleeps.size(); i++)
+        {
+            final long sleep = sleeps.get(i);
+            Assertions.assertTrue((sleep >= 0) && (sleep <= Math.min(1000, 100L << i)), String.format("%d: %d", i, sleep));
+        }
+
+        sleeps = RetryTypeTest.retry(RetryType.decorrelated.build(50, 100, 1000, 0), 100);
+        Assertions.assertEquals(50, sleeps.size());
+        long previous = 100;
+        for (long sleep : sleeps)
+        {
+            Assertions.assertTrue((sleep >= 100) && (sleep <= Math.min(1000, previous * 3)), String.valueOf(sleep));
+            previous = sleep;
+        }
+    }
+
+    @Test
+    public void testMaxElapsed()
+    {
+        final Recorder recorder = new Recorder();
+        for (RetryType t : RetryType.values())
+        {
+            final RetryPolicy policy = t.build(0, 100, 1000, 5000);
+            Assertions.assertTrue(policy.allowRetry(0, 0, recorder), t.name());
+            Assertions.assertTrue(policy.allowRetry(1, 4999, recorder), t.name());
+            Assertions.assertFalse(policy.allowRetry(2, 5000, recorder), t.name());
+        }
+    }
+}
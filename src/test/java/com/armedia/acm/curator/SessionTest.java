@@ -29,14 +29,27 @@ package com.armedia.acm.curator;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.LinkedList;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.test.InstanceSpec;
 import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import com.armedia.acm.curator.tools.Tools;
+import com.armedia.acm.curator.wrapper.conf.SessionCfg;
 
 public class SessionTest
 {
@@ -256,6 +269,154 @@ public class SessionTest
         }
     }
 
+    @Test
+    public void testConnectAsync() throws Exception
+    {
+        final CompletableFuture<Session> future = new Session.Builder().connectAsync();
+        Assertions.assertTrue(future.isDone());
+        try (Session session = future.get())
+        {
+            Assertions.assertFalse(session.isEnabled());
+            Assertions.assertSame(future, session.whenConnected());
+        }
+
+        try (TestingServer server = new TestingServer(InstanceSpec.getRandomPort(), false))
+        {
+            final CompletableFuture<Session> pending = new Session.Builder().connect(server.getConnectString()).connectAsync();
+            try
+            {
+                // Can't connect until the server is up
+                Assertions.assertThrows(TimeoutException.class, () -> pending.get(500, TimeUnit.MILLISECONDS));
+                server.start();
+                try (Session session = pending.get(15, TimeUnit.SECONDS))
+                {
+                    Assertions.assertTrue(session.isEnabled());
+                    Assertions.assertTrue(session.getClient().getZookeeperClient().isConnected());
+                    Assertions.assertNotNull(session.getClient().checkExists().forPath("/"));
+                }
+            }
+            finally
+            {
+                pending.cancel(false);
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionState() throws Exception
+    {
+        try (Session session = new Session.Builder().build())
+        {
+            Assertions.assertNull(session.getConnectionState());
+            try (AutoCloseable l = session.addConnectionStateListener((c, s) -> Assertions.fail("Should not be called")))
+            {
+                // Nothing to do
+            }
+        }
+
+        try (TestingServer server = new TestingServer())
+        {
+            final BlockingQueue<ConnectionState> states = new LinkedBlockingQueue<>();
+            try (Session session = new Session.Builder().connect(server.getConnectString()).build())
+            {
+                Assertions.assertTrue(session.getConnectionState().isConnected());
+                try (AutoCloseable l = session.addConnectionStateListener((c, s) -> states.add(s)))
+                {
+                    server.stop();
+                    Assertions.assertEquals(ConnectionState.SUSPENDED, states.poll(15, TimeUnit.SECONDS));
+                    Assertions.assertEquals(ConnectionState.SUSPENDED, session.getConnectionState());
+                    server.restart();
+                    Assertions.assertEquals(ConnectionState.RECONNECTED, states.poll(15, TimeUnit.SECONDS));
+                    Assertions.assertEquals(ConnectionState.RECONNECTED, session.getConnectionState());
+                }
+                server.stop();
+                Thread.sleep(500);
+                Assertions.assertTrue(states.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedConnection() throws Exception
+    {
+        Assertions.assertEquals("a:1,b:2181,c:2181", ClientPool.normalize(" C , b:2181,a:1,,c"));
+        Assertions.assertEquals("", ClientPool.normalize(null));
+
+        final String connect = SessionTest.SERVER.getConnectString();
+        final int pooled = ClientPool.get().size();
+        final String a = UUID.randomUUID().toString();
+        final String b = UUID.randomUUID().toString();
+        try (Session root = new Session.Builder().connect(connect).shareConnection(true).build())
+        {
+            Assertions.assertEquals(pooled + 1, ClientPool.get().size());
+            Assertions.assertTrue(root.getConnectionState().isConnected());
+            try (Session unshared = new Session.Builder().connect(connect).instanceId(a).build())
+            {
+                Assertions.assertNotSame(root.getClient().getZookeeperClient().getZooKeeper(),
+                        unshared.getClient().getZookeeperClient().getZooKeeper());
+            }
+
+            final Session sa = new Session.Builder().connect(connect).instanceId(a).shareConnection(true).build();
+            try (Session sb = new Session.Builder().connect(connect.toUpperCase()).instanceId(b).shareConnection(true).build())
+            {
+                Assertions.assertEquals(pooled + 1, ClientPool.get().size());
+                Assertions.assertSame(root.getClient().getZookeeperClient().getZooKeeper(),
+                        sa.getClient().getZookeeperClient().getZooKeeper());
+                Assertions.assertSame(root.getClient().getZookeeperClient().getZooKeeper(),
+                        sb.getClient().getZookeeperClient().getZooKeeper());
+                Assertions.assertTrue(sa.getConnectionState().isConnected());
+                Assertions.assertTrue(sb.getConnectionState().isConnected());
+
+                // Each sees only its own namespace
+                sa.getClient().create().forPath("/node");
+                Assertions.assertNull(sb.getClient().checkExists().forPath("/node"));
+                Assertions.assertNotNull(root.getClient().checkExists().forPath("/" + a + "/node"));
+
+                // Closing one doesn't affect the others
+                sa.close();
+                sa.close();
+                sb.getClient().create().forPath("/node");
+                Assertions.assertNotNull(root.getClient().checkExists().forPath("/" + b + "/node"));
+            }
+            Assertions.assertEquals(pooled + 1, ClientPool.get().size());
+
+            // A different configuration gets a different client
+            try (Session other = new Session.Builder().connect(connect).sessionTimeout(Session.DEFAULT_SESSION_TIMEOUT * 2)
+                    .shareConnection(true).build())
+            {
+                Assertions.assertEquals(pooled + 2, ClientPool.get().size());
+                Assertions.assertNotSame(root.getClient().getZookeeperClient().getZooKeeper(),
+                        other.getClient().getZookeeperClient().getZooKeeper());
+            }
+            Assertions.assertEquals(pooled + 1, ClientPool.get().size());
+        }
+        Assertions.assertEquals(pooled, ClientPool.get().size());
+    }
+
+    @Test
+    public void testChroot() throws Exception
+    {
+        final String instanceId = UUID.randomUUID().toString();
+        final String chroot = String.format("/%s/%s", UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        try (Session root = new Session.Builder().connect(SessionTest.SERVER.getConnectString()).build())
+        {
+            try (Session session = new Session.Builder().connect(SessionTest.SERVER.getConnectString()).instanceId(instanceId).build())
+            {
+                Assertions.assertEquals(instanceId, session.getClient().getNamespace());
+                Assertions.assertNull(root.getClient().checkExists().forPath("/" + instanceId));
+                session.getClient().create().forPath("/node");
+                Assertions.assertNotNull(root.getClient().checkExists().forPath("/" + instanceId + "/node"));
+            }
+
+            try (Session session = new Session.Builder().connect(SessionTest.SERVER.getConnectString() + chroot).build())
+            {
+                Assertions.assertEquals(chroot.substring(1), session.getClient().getNamespace());
+                Assertions.assertNotNull(session.getClient().checkExists().forPath("/"));
+                Assertions.assertNotNull(root.getClient().checkExists().forPath(chroot));
+            }
+        }
+    }
+
     @Test
     public void testAddCleanup() throws Exception
     {
@@ -303,7 +464,10 @@ public class SessionTest
                 Assertions.assertNotEquals(Session.NULL_CLEANUP_KEY, key);
                 Assertions.assertTrue((key instanceof Integer));
                 Assertions.assertSame(c, session.removeCleanup(key));
+                Assertions.assertNull(session.removeCleanup(key));
             }
+            Assertions.assertNull(session.removeCleanup(null));
+            Assertions.assertNull(session.removeCleanup(Session.NULL_CLEANUP_KEY));
         }
     }
 
@@ -355,4 +519,179 @@ public class SessionTest
             }
         }
     }
+
+    @Test
+    public void testLogSampling() throws Exception
+    {
+        try (Session session = new Session.Builder().build())
+        {
+            Assertions.assertEquals(Session.DEFAULT_LOG_SAMPLING, session.getLogSampling());
+            for (int i = 0; i < 100; i++)
+            {
+                Assertions.assertTrue(session.isLogSampled());
+            }
+        }
+
+        try (Session session = new Session.Builder().logSampling(10).build())
+        {
+            Assertions.assertEquals(10, session.getLogSampling());
+            int sampled = 0;
+            for (int i = 0; i < 10000; i++)
+            {
+                if (session.isLogSampled())
+                {
+                    sampled++;
+                }
+            }
+            // About 1,000 of them, give or take
+            Assertions.assertTrue((sampled > 500) && (sampled < 1500), String.valueOf(sampled));
+        }
+
+        Assertions.assertEquals(Session.DEFAULT_LOG_SAMPLING, new Session.Builder().logSampling(-5).logSampling());
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception
+    {
+        try (Session session = new Session.Builder().build())
+        {
+            Assertions.assertEquals(Session.DEFAULT_COMPRESSION_THRESHOLD, session.getCompressionThreshold());
+        }
+
+        final String old = System.setProperty("zk.codec.threshold", "4096");
+        try
+        {
+            try (Session session = new Session.Builder().build())
+            {
+                Assertions.assertEquals(4096, session.getCompressionThreshold());
+            }
+
+            // An explicit value wins
+            try (Session session = new Session.Builder().compressionThreshold(2048).build())
+            {
+                Assertions.assertEquals(2048, session.getCompressionThreshold());
+            }
+
+            // So does a configured one, but not the configuration's default
+            final SessionCfg cfg = new SessionCfg();
+            try (Session session = cfg.build())
+            {
+                Assertions.assertEquals(4096, session.getCompressionThreshold());
+            }
+            cfg.setCompressionThreshold(2048);
+            try (Session session = cfg.build())
+            {
+                Assertions.assertEquals(2048, session.getCompressionThreshold());
+            }
+        }
+        finally
+        {
+            if (old != null)
+            {
+                System.setProperty("zk.codec.threshold", old);
+            }
+            else
+            {
+                System.clearProperty("zk.codec.threshold");
+            }
+        }
+    }
+
+    @Test
+    public void testParallelCleanup() throws Exception
+    {
+        final CountDownLatch together = new CountDownLatch(2);
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final AtomicInteger closed = new AtomicInteger(0);
+        final Session session = new Session.Builder().connect(SessionTest.SERVER.getConnectString()).cleanupTimeout(1000).build();
+        try
+        {
+            Assertions.assertEquals(1000, session.getCleanupTimeout());
+
+            // These can only complete if they're closed concurrently
+            final Runnable register = () -> session.addCleanup(() -> {
+                together.countDown();
+                if (together.await(5, TimeUnit.SECONDS))
+                {
+                    closed.incrementAndGet();
+                }
+            });
+            for (int i = 0; i < 2; i++)
+            {
+                Thread t = new Thread(register);
+                t.start();
+                t.join();
+            }
+
+            // This one never completes, so we rely on the deadline
+            final Thread t = new Thread(() -> session.addCleanup(() -> stuck.await()));
+            t.start();
+            t.join();
+        }
+        finally
+        {
+            final long start = System.nanoTime();
+            session.close();
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            stuck.countDown();
+            Assertions.assertTrue(elapsed < 5000, String.format("Cleanup took %dms", elapsed));
+        }
+        Assertions.assertEquals(2, closed.get());
+        Assertions.assertEquals(CuratorFrameworkState.STOPPED, session.getClient().getState());
+    }
+
+    @Test
+    public void testSingleOwnerCleanupDeadline() throws Exception
+    {
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final Session session = new Session.Builder().connect(SessionTest.SERVER.getConnectString()).cleanupTimeout(500).build();
+        try
+        {
+            // Registered by this thread alone, and never completes
+            session.addCleanup(() -> stuck.await());
+        }
+        finally
+        {
+            final long start = System.nanoTime();
+            session.close();
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            stuck.countDown();
+            Assertions.assertTrue(elapsed < 5000, String.format("Cleanup took %dms", elapsed));
+        }
+        Assertions.assertEquals(CuratorFrameworkState.STOPPED, session.getClient().getState());
+    }
+
+    @Test
+    public void testSharedCleanupLeftovers() throws Exception
+    {
+        final String path = "/" + UUID.randomUUID().toString();
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final Session.Builder builder = new Session.Builder().connect(SessionTest.SERVER.getConnectString()).shareConnection(true)
+                .cleanupTimeout(500);
+        try (Session other = builder.build())
+        {
+            final Session session = builder.build();
+            try
+            {
+                session.getClient().create().withMode(CreateMode.EPHEMERAL).forPath(path);
+
+                // Neither of these completes, so we rely on the deadline
+                for (int i = 0; i < 2; i++)
+                {
+                    Thread t = new Thread(() -> session.addCleanup(() -> stuck.await(), path));
+                    t.start();
+                    t.join();
+                }
+            }
+            finally
+            {
+                session.close();
+                stuck.countDown();
+            }
+
+            // The connection is still up, so the node is still there
+            Assertions.assertEquals(CuratorFrameworkState.STARTED, other.getClient().getState());
+            Assertions.assertNotNull(other.getClient().checkExists().forPath(path));
+        }
+    }
 }
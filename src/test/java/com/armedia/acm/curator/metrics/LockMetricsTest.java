@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.recipe.Leader;
+import com.armedia.acm.curator.recipe.Mutex;
+import com.armedia.acm.curator.recipe.ReadWriteLock;
+
+public class LockMetricsTest
+{
+    private static TestingServer SERVER = null;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception
+    {
+        if (LockMetricsTest.SERVER == null)
+        {
+            LockMetricsTest.SERVER = new TestingServer();
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() throws Exception
+    {
+        if (LockMetricsTest.SERVER != null)
+        {
+            try
+            {
+                LockMetricsTest.SERVER.close();
+            }
+            finally
+            {
+                LockMetricsTest.SERVER = null;
+            }
+        }
+    }
+
+    @Test
+    public void testHistogram()
+    {
+        // Every bucket's reported value must map back to that same bucket
+        for (long v = 0; v < 100000; v++)
+        {
+            final int i = Histogram.getIndex(v);
+            Assertions.assertEquals(i, Histogram.getIndex(Histogram.getValue(i)), String.valueOf(v));
+        }
+        Assertions.assertEquals(Histogram.getIndex(Histogram.MAX_VALUE), Histogram.getIndex(Histogram.getValue(Histogram.getIndex(Histogram.MAX_VALUE))));
+
+        final Histogram h = new Histogram();
+        Assertions.assertEquals(0, h.getCount());
+        Assertions.assertEquals(0, h.getMin());
+        Assertions.assertEquals(0, h.getMax());
+        Assertions.assertEquals(0, h.getPercentile(50));
+        Assertions.assertEquals(0.0, h.getMean());
+
+        for (long v = 1; v <= 1000; v++)
+        {
+            h.record(v);
+        }
+        Assertions.assertEquals(1000, h.getCount());
+        Assertions.assertEquals(1, h.getMin());
+        Assertions.assertEquals(1000, h.getMax());
+        Assertions.assertEquals(500.5, h.getMean());
+        Assertions.assertEquals(500, h.getPercentile(50), 500 * 0.07);
+        Assertions.assertEquals(990, h.getPercentile(99), 990 * 0.07);
+        Assertions.assertEquals(1000, h.getPercentile(100));
+        Assertions.assertEquals(1, h.getPercentile(0));
+
+        // Values beyond the last bucket must still count in full
+        final long hours = TimeUnit.HOURS.toMicros(2);
+        h.record(2, TimeUnit.HOURS);
+        Assertions.assertEquals(hours, h.getMax());
+        Assertions.assertEquals(hours, h.getPercentile(100));
+        Assertions.assertEquals(500500 + hours, h.getTotal());
+        h.record(-5);
+        Assertions.assertEquals(0, h.getMin());
+
+        h.reset();
+        Assertions.assertEquals(0, h.getCount());
+        Assertions.assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void testRegistry() throws Exception
+    {
+        final String name = UUID.randomUUID().toString();
+        final LockMetrics m = LockMetrics.get("test", name);
+        Assertions.assertSame(m, LockMetrics.get("test", name));
+        Assertions.assertNotSame(m, LockMetrics.get("other", name));
+        Assertions.assertTrue(LockMetrics.getAll().contains(m));
+        Assertions.assertEquals(0, m.getQueueDepth());
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName(
+                String.format("%s:type=Lock,kind=%s,name=%s", LockMetrics.JMX_DOMAIN, ObjectName.quote("test"), ObjectName.quote(name)));
+        Assertions.assertTrue(server.isRegistered(objectName));
+
+        long start = m.waiting();
+        Assertions.assertEquals(1L, server.getAttribute(objectName, "Waiting"));
+        final long acquired = m.acquired(start);
+        Assertions.assertEquals(0L, server.getAttribute(objectName, "Waiting"));
+        Assertions.assertEquals(1L, server.getAttribute(objectName, "Held"));
+        final long other = m.waiting();
+        m.setQueueDepth(2);
+        Assertions.assertEquals(2, server.getAttribute(objectName, "QueueDepth"));
+        m.setQueueDepth(-1);
+        Assertions.assertEquals(0, m.getQueueDepth());
+        m.released(acquired);
+        m.released(m.acquired(other));
+        m.waiting();
+        m.timedOut();
+        m.waiting();
+        m.failed();
+        Assertions.assertEquals(2L, server.getAttribute(objectName, "Acquisitions"));
+        Assertions.assertEquals(1L, server.getAttribute(objectName, "Timeouts"));
+        Assertions.assertEquals(1L, server.getAttribute(objectName, "Failures"));
+        Assertions.assertEquals(0L, server.getAttribute(objectName, "Held"));
+        Assertions.assertEquals(0L, server.getAttribute(objectName, "Waiting"));
+
+        Assertions.assertTrue(LockMetrics.render().contains(String.format("test %s acquisitions=2 timeouts=1 failures=1 waiting=0 held=0 queue=0 ", name)));
+
+        server.invoke(objectName, "reset", null, null);
+        Assertions.assertEquals(0, m.getAcquisitions());
+        Assertions.assertEquals(0, m.getTimeouts());
+        Assertions.assertEquals(0, m.getWaitHistogram().getCount());
+    }
+
+    private void awaitQueueDepth(LockMetrics metrics, int expected) throws InterruptedException
+    {
+        // It's refreshed in the background
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((metrics.getQueueDepth() != expected) && (System.nanoTime() < deadline))
+        {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(expected, metrics.getQueueDepth());
+    }
+
+    @Test
+    public void testRecipes() throws Exception
+    {
+        final String name = UUID.randomUUID().toString();
+        final Duration wait = Duration.ofSeconds(5);
+        try (Session session = new Session.Builder().connect(LockMetricsTest.SERVER.getConnectString()).build())
+        {
+            final LockMetrics mutex = LockMetrics.get("mutex", name);
+            try (AutoCloseable c = new Mutex(session, name).acquire(wait))
+            {
+                Assertions.assertEquals(1, mutex.getHeld());
+                awaitQueueDepth(mutex, 1);
+
+                // Another session's attempt times out
+                try (Session other = new Session.Builder().connect(LockMetricsTest.SERVER.getConnectString()).build())
+                {
+                    Assertions.assertThrows(TimeoutException.class, () -> new Mutex(other, name).acquire(Duration.ofMillis(100)));
+                }
+            }
+            Assertions.assertEquals(1, mutex.getAcquisitions());
+            Assertions.assertEquals(1, mutex.getTimeouts());
+            Assertions.assertEquals(0, mutex.getHeld());
+            Assertions.assertEquals(0, mutex.getWaiting());
+            awaitQueueDepth(mutex, 0);
+            Assertions.assertEquals(1, mutex.getHoldHistogram().getCount());
+
+            final ReadWriteLock rw = new ReadWriteLock(session, name);
+            try (ReadWriteLock.Read r = rw.read(wait))
+            {
+                try (ReadWriteLock.Write w = r.upgrade(wait))
+                {
+                    Assertions.assertEquals(1, LockMetrics.get("write", name).getHeld());
+                    Assertions.assertEquals(0, LockMetrics.get("read", name).getHeld());
+                }
+                Assertions.assertEquals(1, LockMetrics.get("read", name).getHeld());
+            }
+            Assertions.assertEquals(2, LockMetrics.get("read", name).getAcquisitions());
+            Assertions.assertEquals(0, LockMetrics.get("read", name).getHeld());
+            Assertions.assertEquals(1, LockMetrics.get("write", name).getAcquisitions());
+            Assertions.assertEquals(0, LockMetrics.get("write", name).getHeld());
+
+            try (AutoCloseable l = new Leader(session, name).awaitLeadership(wait))
+            {
+                Assertions.assertEquals(1, LockMetrics.get("leader", name).getHeld());
+                awaitQueueDepth(LockMetrics.get("leader", name), 1);
+            }
+            Assertions.assertEquals(1, LockMetrics.get("leader", name).getAcquisitions());
+            Assertions.assertEquals(0, LockMetrics.get("leader", name).getHeld());
+        }
+    }
+}
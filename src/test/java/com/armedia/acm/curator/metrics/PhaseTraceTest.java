@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
+import com.armedia.acm.curator.recipe.Mutex;
+
+public class PhaseTraceTest
+{
+    private static TestingServer SERVER = null;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception
+    {
+        if (PhaseTraceTest.SERVER == null)
+        {
+            PhaseTraceTest.SERVER = new TestingServer();
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() throws Exception
+    {
+        if (PhaseTraceTest.SERVER != null)
+        {
+            try
+            {
+                PhaseTraceTest.SERVER.close();
+            }
+            finally
+            {
+                PhaseTraceTest.SERVER = null;
+            }
+        }
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        PhaseTrace.end();
+    }
+
+    @Test
+    public void testJson() throws Exception
+    {
+        Assertions.assertNull(PhaseTrace.current());
+        PhaseTrace.record("ignored", 0, 1);
+
+        final PhaseTrace trace = PhaseTrace.begin();
+        Assertions.assertSame(trace, PhaseTrace.current());
+        PhaseMetrics.record(Phase.jvm, trace.getOrigin());
+        final long start = System.nanoTime();
+        PhaseTrace.record("wait", start, start + TimeUnit.MILLISECONDS.toNanos(12));
+        trace.set("mode", "mutex").set("name", "quote\"d\n").set("status", 0).set("missing", null);
+
+        final String json = trace.toJson();
+        Assertions.assertFalse(json.contains("\n"), json);
+        Assertions.assertTrue(json.matches("^\\{\"start\":\"[^\"]+Z\",\"pid\":\\d+,.*\\}$"), json);
+        Assertions.assertTrue(json.contains(",\"mode\":\"mutex\",\"name\":\"quote\\\"d\\n\",\"status\":0,\"missing\":null,\"total\":"),
+                json);
+        Assertions.assertTrue(json.matches(".*\"phases\":\\[\\{\"phase\":\"jvm\",\"start\":0\\.000,\"duration\":[0-9.]+\\},.*"), json);
+        Assertions.assertTrue(json.matches(".*\\{\"phase\":\"wait\",\"start\":[0-9.]+,\"duration\":12\\.000\\}\\]\\}$"), json);
+        Assertions.assertEquals(Arrays.asList("jvm", "wait"), trace.getPhases());
+
+        Assertions.assertSame(trace, PhaseTrace.end());
+        Assertions.assertNull(PhaseTrace.current());
+        PhaseTrace.record("late", start, start);
+        Assertions.assertEquals(Arrays.asList("jvm", "wait"), trace.getPhases());
+
+        final Path file = Files.createTempFile("trace", ".json");
+        try
+        {
+            trace.write(file.toString());
+            trace.write(file.toString());
+            final List<String> lines = Files.readAllLines(file);
+            Assertions.assertEquals(2, lines.size());
+            Assertions.assertTrue(lines.get(0).startsWith("{\"start\":"), lines.get(0));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSession() throws Exception
+    {
+        final PhaseTrace trace = PhaseTrace.begin();
+        try (Session session = new Session.Builder().connect(PhaseTraceTest.SERVER.getConnectString()).build())
+        {
+            try (AutoCloseable c = new Mutex(session, UUID.randomUUID().toString()).acquire())
+            {
+                // Nothing to do
+            }
+        }
+        final List<String> phases = trace.getPhases();
+        Assertions.assertTrue(phases.containsAll(Arrays.asList("session", "connect", "mutex", "cleanup")), phases.toString());
+        Assertions.assertEquals("cleanup", phases.get(phases.size() - 1));
+    }
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.metrics;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.armedia.acm.curator.metrics.PhaseMetrics.Phase;
+
+public class PrometheusExporterTest
+{
+    @Test
+    public void testCumulativeCounts()
+    {
+        final Histogram h = new Histogram();
+        Assertions.assertArrayEquals(new long[] {
+                0, 0
+        }, h.getCumulativeCounts(10, 100));
+
+        h.record(5);
+        h.record(50);
+        h.record(500);
+        h.record(5000);
+        Assertions.assertArrayEquals(new long[] {
+                0, 1, 2, 3, 4, 4
+        }, h.getCumulativeCounts(1, 10, 100, 1000, 10000, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRender() throws Exception
+    {
+        PhaseMetrics.reset();
+        PhaseMetrics.record(Phase.connect, PhaseMetrics.start() - TimeUnit.MILLISECONDS.toNanos(20));
+        PhaseMetrics.transferred(Phase.upload, 1234);
+        PhaseMetrics.transferred(Phase.upload, 1000);
+
+        final String name = String.format("%s\"\\", UUID.randomUUID());
+        final LockMetrics lock = LockMetrics.get("mutex", name);
+        lock.released(lock.acquired(lock.waiting()));
+
+        final String text = PrometheusExporter.render();
+        Assertions.assertTrue(text.contains("# TYPE curator_wrapper_phase_seconds histogram\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_phase_seconds_bucket{phase=\"connect\",le=\"0.01\"} 0\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_phase_seconds_bucket{phase=\"connect\",le=\"0.05\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_phase_seconds_bucket{phase=\"connect\",le=\"+Inf\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_phase_seconds_count{phase=\"connect\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_phase_seconds_count{phase=\"config\"} 0\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_transfer_bytes_total{direction=\"upload\"} 2234\n"), text);
+        Assertions.assertTrue(text.contains("curator_wrapper_transfer_bytes_total{direction=\"download\"} 0\n"), text);
+
+        final String labels = String.format("kind=\"mutex\",name=\"%s\\\"\\\\\"", name.substring(0, name.length() - 2));
+        Assertions.assertTrue(text.contains(String.format("curator_wrapper_lock_wait_seconds_count{%s} 1\n", labels)), text);
+        Assertions.assertTrue(text.contains(String.format("curator_wrapper_lock_held{%s} 0\n", labels)), text);
+
+        // Every sample must be a name, optional labels, and a number
+        for (String line : text.split("\n"))
+        {
+            if (!line.startsWith("#"))
+            {
+                Assertions.assertTrue(line.matches("^curator_wrapper_[a-z_]+(\\{.*\\})? [0-9.E+-]+$"), line);
+            }
+        }
+    }
+
+    @Test
+    public void testWrite() throws Exception
+    {
+        final Path dir = Files.createTempDirectory("metrics");
+        try
+        {
+            final Path file = dir.resolve("sub").resolve("wrapper.prom");
+            PrometheusExporter.write(file);
+            PrometheusExporter.write(file);
+            final String text = Files.readString(file);
+            Assertions.assertTrue(text.startsWith("# HELP curator_wrapper_phase_seconds "), text);
+            try (Stream<Path> files = Files.list(file.getParent()))
+            {
+                // No leftover temporary files
+                Assertions.assertEquals(1, files.count());
+            }
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testEndpoint() throws Exception
+    {
+        try (PrometheusExporter exporter = PrometheusExporter.start("127.0.0.1", 0))
+        {
+            final URL url = new URL(String.format("http://127.0.0.1:%d%s", exporter.getAddress().getPort(), PrometheusExporter.PATH));
+            HttpURLConnection c = (HttpURLConnection) url.openConnection();
+            try
+            {
+                Assertions.assertEquals(200, c.getResponseCode());
+                Assertions.assertEquals(PrometheusExporter.CONTENT_TYPE, c.getContentType());
+                try (InputStream in = c.getInputStream())
+                {
+                    final String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                    Assertions.assertTrue(text.contains("# TYPE curator_wrapper_transfer_bytes_total counter\n"), text);
+                }
+            }
+            finally
+            {
+                c.disconnect();
+            }
+
+            c = (HttpURLConnection) url.openConnection();
+            try
+            {
+                c.setRequestMethod("DELETE");
+                Assertions.assertEquals(405, c.getResponseCode());
+            }
+            finally
+            {
+                c.disconnect();
+            }
+        }
+    }
+}
@@ -44,7 +44,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.tools.JavaValueCodec;
 import com.armedia.acm.curator.tools.Tools;
+import com.armedia.acm.curator.tools.ValueCodec;
 
 public class EphemeralValueTest
 {
@@ -161,6 +163,56 @@ public class EphemeralValueTest
         }
     }
 
+    @Test
+    public void testSessionCodec() throws Exception
+    {
+        try (Session session = new Session.Builder().build())
+        {
+            Assertions.assertSame(ValueCodec.DEFAULT, session.getValueCodec());
+            @SuppressWarnings("resource")
+            final EphemeralValue ev = new EphemeralValue(session);
+            Assertions.assertSame(ValueCodec.DEFAULT, ev.getCodec());
+        }
+
+        try (Session session = new Session.Builder().connect(EphemeralValueTest.SERVER.getConnectString()).valueCodec("binary").build())
+        {
+            Assertions.assertSame(ValueCodec.BINARY, session.getValueCodec());
+            final Serializable value = UUID.randomUUID();
+            @SuppressWarnings("resource")
+            final EphemeralValue ev = new EphemeralValue(session, value.toString());
+            Assertions.assertSame(ValueCodec.BINARY, ev.getCodec());
+            try (AutoCloseable c = ev.set(value))
+            {
+                final byte[] data = session.getClient().getData().forPath(ev.getPath());
+                Assertions.assertFalse(JavaValueCodec.isSerialized(data));
+                Assertions.assertEquals(value, ev.get());
+
+                // A codec given explicitly wins, and the default one reads it just the same
+                @SuppressWarnings("resource")
+                final EphemeralValue reader = new EphemeralValue(session, value.toString(), ValueCodec.DEFAULT);
+                Assertions.assertSame(ValueCodec.DEFAULT, reader.getCodec());
+                Assertions.assertEquals(value, reader.get());
+            }
+        }
+
+        final String old = System.setProperty("zk.value.codec", "binary");
+        try (Session session = new Session.Builder().build())
+        {
+            Assertions.assertSame(ValueCodec.BINARY, session.getValueCodec());
+        }
+        finally
+        {
+            if (old != null)
+            {
+                System.setProperty("zk.value.codec", old);
+            }
+            else
+            {
+                System.clearProperty("zk.value.codec");
+            }
+        }
+    }
+
     @Test
     public void testAwaitCreate() throws Exception
     {
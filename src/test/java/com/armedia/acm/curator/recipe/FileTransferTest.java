@@ -0,0 +1,373 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.recipe;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.armedia.acm.curator.Session;
+
+public class FileTransferTest
+{
+    private static TestingServer SERVER = null;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception
+    {
+        if (FileTransferTest.SERVER == null)
+        {
+            FileTransferTest.SERVER = new TestingServer();
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() throws Exception
+    {
+        if (FileTransferTest.SERVER != null)
+        {
+            try
+            {
+                FileTransferTest.SERVER.close();
+            }
+            finally
+            {
+                FileTransferTest.SERVER = null;
+            }
+        }
+    }
+
+    @TempDir
+    Path tempDir;
+
+    private byte[] randomBytes(Random r, int size)
+    {
+        byte[] data = new byte[size];
+        r.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testPaths() throws Exception
+    {
+        try (Session session = new Session.Builder().build())
+        {
+            final String name = UUID.randomUUID().toString();
+            Assertions.assertEquals(new Upload(session, name).getPath(), new Download(session, name).getPath());
+        }
+    }
+
+    @Test
+    public void testWithoutSession() throws Exception
+    {
+        try (Session session = new Session.Builder().build())
+        {
+            Path file = this.tempDir.resolve("file");
+            Assertions.assertEquals(1, new Upload(session).execute(file.toString()));
+            Assertions.assertEquals(1, new Download(session).execute(file.toString()));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final Upload upload = new Upload(session, name, FileTransfer.MIN_CHUNK_SIZE);
+            final Download download = new Download(session, name);
+            final Path source = this.tempDir.resolve("source");
+            final Path target = this.tempDir.resolve("sub/dir/target");
+
+            // Empty, single chunk, exact chunk multiples, and larger than jute.maxbuffer (in many transactions)
+            int[] sizes = {
+                0, 10, FileTransfer.MIN_CHUNK_SIZE, 3 * FileTransfer.MIN_CHUNK_SIZE, 1500 * 1024, 7
+            };
+            for (int size : sizes)
+            {
+                byte[] data = randomBytes(r, size);
+                Files.write(source, data);
+                Assertions.assertEquals(0, upload.execute(source.toString()), () -> "size = " + size);
+                Assertions.assertEquals(0, download.execute(target.toString()), () -> "size = " + size);
+                Assertions.assertArrayEquals(data, Files.readAllBytes(target), () -> "size = " + size);
+
+                // Only the current generation's chunks must remain
+                final int expected = (size + FileTransfer.MIN_CHUNK_SIZE - 1) / FileTransfer.MIN_CHUNK_SIZE;
+                List<String> children = session.getClient().getChildren().forPath(upload.getPath());
+                Assertions.assertEquals(expected, children.size(), () -> "size = " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testLargeChunks() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            // Two of these in one transaction would go over jute.maxbuffer
+            final int chunkSize = FileTransfer.MAX_CHUNK_SIZE - 1;
+            final String name = UUID.randomUUID().toString();
+            final Upload upload = new Upload(session, name, chunkSize);
+            final Download download = new Download(session, name);
+            final Path source = this.tempDir.resolve("source");
+            final Path target = this.tempDir.resolve("target");
+
+            // The second upload also has to remove the first one's chunks
+            for (int size : new int[] {
+                3 * chunkSize, 2 * chunkSize + 10
+            })
+            {
+                byte[] data = randomBytes(r, size);
+                Files.write(source, data);
+                Assertions.assertEquals(0, upload.execute(source.toString()), () -> "size = " + size);
+                Assertions.assertEquals(0, download.execute(target.toString()), () -> "size = " + size);
+                Assertions.assertArrayEquals(data, Files.readAllBytes(target), () -> "size = " + size);
+                Assertions.assertEquals(3, session.getClient().getChildren().forPath(upload.getPath()).size(), () -> "size = " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedUpload() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final Upload upload = new Upload(session, name, FileTransfer.MIN_CHUNK_SIZE);
+            final Path source = this.tempDir.resolve("source");
+
+            byte[] data = randomBytes(r, 10 * FileTransfer.MIN_CHUNK_SIZE);
+            Files.write(source, data);
+            Assertions.assertEquals(0, upload.execute(source.toString()));
+            final Stat before = session.getClient().checkExists().forPath(upload.getPath());
+
+            // The same contents must not cause a write
+            Assertions.assertEquals(0, upload.execute(source.toString()));
+            Assertions.assertEquals(before, session.getClient().checkExists().forPath(upload.getPath()));
+
+            // Same length, different contents, must cause a write
+            data[data.length / 2]++;
+            Files.write(source, data);
+            Assertions.assertEquals(0, upload.execute(source.toString()));
+            Assertions.assertNotEquals(before.getVersion(), session.getClient().checkExists().forPath(upload.getPath()).getVersion());
+        }
+    }
+
+    @Test
+    public void testConditionalDownload() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final Upload upload = new Upload(session, name);
+            final Download download = new Download(session, name);
+            final Path source = this.tempDir.resolve("source");
+            final Path target = this.tempDir.resolve("target");
+
+            byte[] data = randomBytes(r, 4096);
+            Files.write(source, data);
+            Assertions.assertEquals(0, upload.execute(source.toString()));
+            Assertions.assertEquals(0, download.execute(target.toString()));
+            Assertions.assertArrayEquals(data, Files.readAllBytes(target));
+            Assertions.assertTrue(Files.exists(Download.getStatFile(target)));
+
+            // An unchanged node must not cause the file to be rewritten
+            final FileTime modified = Files.getLastModifiedTime(target);
+            Thread.sleep(50);
+            Assertions.assertEquals(0, download.execute(target.toString()));
+            Assertions.assertEquals(modified, Files.getLastModifiedTime(target));
+
+            // A locally-modified file must be refreshed
+            Files.write(target, randomBytes(r, 4096));
+            Assertions.assertEquals(0, download.execute(target.toString()));
+            Assertions.assertArrayEquals(data, Files.readAllBytes(target));
+
+            // A changed node must be downloaded again
+            data = randomBytes(r, 8192);
+            Files.write(source, data);
+            Assertions.assertEquals(0, upload.execute(source.toString()));
+            Assertions.assertEquals(0, download.execute(target.toString()));
+            Assertions.assertArrayEquals(data, Files.readAllBytes(target));
+        }
+    }
+
+    @Test
+    public void testAtomicDownload() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final Path dir = this.tempDir.resolve("atomic");
+            final Path target = dir.resolve("target");
+            Files.createDirectories(dir);
+
+            // A failed download must leave the existing file untouched
+            final byte[] old = randomBytes(r, 1000);
+            Files.write(target, old);
+            Assertions.assertEquals(1, new Download(session, name).execute(target.toString()));
+            Assertions.assertArrayEquals(old, Files.readAllBytes(target));
+
+            final Path source = this.tempDir.resolve("source");
+            final byte[] data = randomBytes(r, 3 * FileTransfer.MIN_CHUNK_SIZE);
+            Files.write(source, data);
+            Assertions.assertEquals(0, new Upload(session, name, FileTransfer.MIN_CHUNK_SIZE).execute(source.toString()));
+            Assertions.assertEquals(0, new Download(session, name, true).execute(target.toString()));
+            Assertions.assertArrayEquals(data, Files.readAllBytes(target));
+
+            // No temporary files may be left behind
+            try (Stream<Path> s = Files.list(dir))
+            {
+                Assertions.assertEquals(Set.of(target, Download.getStatFile(target)), s.collect(Collectors.toSet()));
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyDownload() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final Download download = new Download(session, name);
+            final Path target = this.tempDir.resolve("target");
+
+            byte[] data = randomBytes(r, 1000);
+            session.getClient().create().creatingParentContainersIfNeeded().forPath(download.getPath(), data);
+            Assertions.assertEquals(0, download.execute(target.toString()));
+            Assertions.assertArrayEquals(data, Files.readAllBytes(target));
+
+            // Uploading on top of legacy contents must also work
+            final Path source = this.tempDir.resolve("source");
+            data = randomBytes(r, 5000);
+            Files.write(source, data);
+            Assertions.assertEquals(0, new Upload(session, name).execute(source.toString()));
+            Assertions.assertEquals(0, download.execute(target.toString()));
+            Assertions.assertArrayEquals(data, Files.readAllBytes(target));
+        }
+    }
+
+    private void writeTree(Random r, Path root, int depth) throws Exception
+    {
+        Files.createDirectories(root);
+        for (int i = 0; i < 5; i++)
+        {
+            Files.write(root.resolve(String.format("file-%02d.dat", i)), randomBytes(r, r.nextInt(4096)));
+        }
+        if (depth > 0)
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                writeTree(r, root.resolve(String.format("dir-%02d", i)), depth - 1);
+            }
+        }
+    }
+
+    private void assertSameTree(Path expected, Path actual) throws Exception
+    {
+        List<Path> a;
+        try (Stream<Path> s = Files.walk(expected))
+        {
+            a = s.map(expected::relativize).sorted().collect(Collectors.toList());
+        }
+        List<Path> b;
+        try (Stream<Path> s = Files.walk(actual))
+        {
+            b = s.map(actual::relativize).sorted().collect(Collectors.toList());
+        }
+        Assertions.assertEquals(a, b);
+        for (Path p : a)
+        {
+            if (Files.isRegularFile(expected.resolve(p)))
+            {
+                Assertions.assertArrayEquals(Files.readAllBytes(expected.resolve(p)), Files.readAllBytes(actual.resolve(p)), p::toString);
+            }
+        }
+    }
+
+    @Test
+    public void testRecursive() throws Exception
+    {
+        final Random r = new Random(System.nanoTime());
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final Upload upload = new Upload(session, name, FileTransfer.MIN_CHUNK_SIZE);
+            final Download download = new Download(session, name);
+            final Path source = this.tempDir.resolve("source");
+            writeTree(r, source, 2);
+
+            final Path target = this.tempDir.resolve("target");
+            Assertions.assertEquals(0, upload.execute(source.toString(), "true"));
+            Assertions.assertEquals(0, download.execute(target.toString(), true));
+            assertSameTree(source, target);
+
+            // A non-recursive download of a directory must fail
+            Assertions.assertEquals(1, download.execute(this.tempDir.resolve("file").toString()));
+
+            // Remove some entries, change others, and make sure the mirror follows suit
+            FileUtils.deleteDirectory(source.resolve("dir-01").toFile());
+            Files.delete(source.resolve("file-03.dat"));
+            Files.write(source.resolve("dir-00/file-00.dat"), randomBytes(r, 5000));
+            final Path target2 = this.tempDir.resolve("target2");
+            Assertions.assertEquals(0, upload.execute(source.toString(), true));
+            Assertions.assertEquals(0, download.execute(target2.toString(), true));
+            assertSameTree(source, target2);
+        }
+    }
+
+    @Test
+    public void testMissing() throws Exception
+    {
+        try (Session session = new Session.Builder().connect(FileTransferTest.SERVER.getConnectString()).build())
+        {
+            final Path file = this.tempDir.resolve("missing");
+            Assertions.assertEquals(1, new Download(session).execute(file.toString()));
+            Assertions.assertEquals(1, new Upload(session).execute(file.toString()));
+        }
+    }
+}
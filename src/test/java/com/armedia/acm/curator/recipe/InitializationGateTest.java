@@ -26,12 +26,19 @@
  */
 package com.armedia.acm.curator.recipe;
 
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CyclicBarrier;
@@ -49,6 +56,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.tools.JavaValueCodec;
 
 public class InitializationGateTest
 {
@@ -361,4 +369,177 @@ public class InitializationGateTest
 
         Assertions.assertFalse(failed.get(), "An exception was raised by one of the threads");
     }
+
+    @Test
+    public void testToHexString()
+    {
+        Assertions.assertNull(InitializationGate.toHexString(null));
+        Assertions.assertEquals("", InitializationGate.toHexString(new byte[0]));
+
+        final byte[] data = new byte[256];
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) i;
+            expected.append(String.format("%02x", i));
+        }
+        Assertions.assertEquals(expected.toString(), InitializationGate.toHexString(data));
+    }
+
+    @Test
+    public void testEncoding() throws Exception
+    {
+        final Map<String, String> extraData = new LinkedHashMap<>();
+        extraData.put("a", "1");
+        extraData.put("nothing", null);
+        extraData.put("unicode", "ñ 中文");
+
+        try (Session session = new Session.Builder().connect(InitializationGateTest.SERVER.getConnectString()).build())
+        {
+            final InitializationGate ig = new InitializationGate(session, UUID.randomUUID().toString());
+            Assertions.assertNull(ig.getInitializationInfo().getVersion());
+
+            final Instant started = Instant.now();
+            final Duration duration = Duration.ofMillis(12345);
+            ig.setInitializationInfo("1.2.3", started, duration, extraData);
+
+            final byte[] data = ig.decode(session.getClient().getData().forPath(ig.getPath()));
+            Assertions.assertFalse(JavaValueCodec.isSerialized(data));
+            Assertions.assertEquals("CWIG", new String(data, 0, 4, StandardCharsets.US_ASCII));
+
+            InitializationGate.InitializationInfo info = ig.getInitializationInfo();
+            Assertions.assertEquals("1.2.3", info.getVersion());
+            Assertions.assertEquals(started, info.getStarted());
+            Assertions.assertEquals(duration, info.getDuration());
+            Assertions.assertEquals(extraData, info.getExtraData());
+
+            // Nodes written with Java serialization must still be readable
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(baos))
+            {
+                out.writeObject("0.9");
+                out.writeObject(started);
+                out.writeObject(duration);
+                out.writeObject(new HashMap<>(extraData));
+            }
+            session.getClient().setData().forPath(ig.getPath(), baos.toByteArray());
+            info = ig.getInitializationInfo();
+            Assertions.assertEquals("0.9", info.getVersion());
+            Assertions.assertEquals(started, info.getStarted());
+            Assertions.assertEquals(duration, info.getDuration());
+            Assertions.assertEquals(extraData, info.getExtraData());
+
+            // An update rewrites the legacy node in the new layout
+            Assertions.assertTrue(ig.initialize(new InitializationGate.FunctionalInitializer("1.0", (v, x) -> x)));
+            Assertions.assertEquals("1.0", ig.getInitializationInfo().getVersion());
+            Assertions.assertEquals(extraData, ig.getInitializationInfo().getExtraData());
+            Assertions.assertFalse(JavaValueCodec.isSerialized(ig.decode(session.getClient().getData().forPath(ig.getPath()))));
+
+            session.getClient().setData().forPath(ig.getPath(), new byte[] {
+                1, 2, 3
+            });
+            Assertions.assertThrows(RuntimeException.class, ig::getInitializationInfo);
+            session.getClient().setData().forPath(ig.getPath(), Arrays.copyOf(data, data.length - 3));
+            Assertions.assertThrows(RuntimeException.class, ig::getInitializationInfo);
+        }
+    }
+
+    @Test
+    public void testCached() throws Exception
+    {
+        final String name = UUID.randomUUID().toString();
+        try (Session session = new Session.Builder().connect(InitializationGateTest.SERVER.getConnectString()).build())
+        {
+            final InitializationGate writer = new InitializationGate(session, name);
+            Assertions.assertFalse(writer.isCached());
+            try (InitializationGate.Cached reader = InitializationGate.cached(session, name))
+            {
+                Assertions.assertTrue(reader.isCached());
+                Assertions.assertEquals(writer.getPath(), reader.getPath());
+                Assertions.assertNull(reader.getInitializationInfo().getVersion());
+
+                writer.setInitializationInfo("1.0", Instant.now(), Duration.ZERO, null);
+                InitializationGate.InitializationInfo info = awaitVersion(reader, "1.0");
+
+                // Once the watch is up, repeated reads must come from memory
+                final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.acceptableWaitSecs);
+                while (reader.getInitializationInfo() != info)
+                {
+                    Assertions.assertTrue(System.currentTimeMillis() < deadline, "The information was never cached");
+                    info = reader.getInitializationInfo();
+                }
+                Assertions.assertSame(info, reader.getInitializationInfo());
+
+                // Changes made elsewhere must be picked up
+                writer.setInitializationInfo("2.0", Instant.now(), Duration.ZERO, null);
+                awaitVersion(reader, "2.0");
+
+                // ... as must deletions
+                session.getClient().delete().forPath(reader.getPath());
+                awaitVersion(reader, null);
+
+                // The cache must never cause a stale initialization
+                final AtomicInteger counter = new AtomicInteger();
+                final InitializationGate.Initializer initializer = new InitializationGate.FunctionalInitializer("3.0", (v, x) -> {
+                    counter.incrementAndGet();
+                    return x;
+                });
+                Assertions.assertTrue(reader.initialize(initializer));
+                Assertions.assertFalse(reader.initialize(initializer));
+                Assertions.assertFalse(writer.initialize(initializer));
+                Assertions.assertEquals(1, counter.get());
+                Assertions.assertEquals("3.0", reader.getInitializationInfo().getVersion());
+            }
+        }
+    }
+
+    @Test
+    public void testNeedsUpdate() throws Exception
+    {
+        try (Session session = new Session.Builder().connect(InitializationGateTest.SERVER.getConnectString()).build())
+        {
+            final Map<String, InitializationGate> gates = new LinkedHashMap<>();
+            for (String version : new String[] {
+                "1.0", "2.0", "2.0.0", "2.0-SNAPSHOT", "2.1", "10.0", null
+            })
+            {
+                final InitializationGate gate = new InitializationGate(session, UUID.randomUUID().toString());
+                if (version != null)
+                {
+                    gate.setInitializationInfo(version, Instant.now(), Duration.ZERO, null);
+                }
+                gates.put(String.valueOf(version), gate);
+            }
+
+            final Set<InitializationGate> expected = new LinkedHashSet<>();
+            expected.add(gates.get("1.0"));
+            expected.add(gates.get("2.0-SNAPSHOT"));
+            expected.add(gates.get("null"));
+            Assertions.assertEquals(expected, InitializationGate.needsUpdate(gates.values(), "2.0"));
+            for (Map.Entry<String, InitializationGate> e : gates.entrySet())
+            {
+                Assertions.assertEquals(expected.contains(e.getValue()), e.getValue().needsUpdate("2.0"), e.getKey());
+            }
+
+            Assertions.assertEquals(gates.size(), InitializationGate.needsUpdate(gates.values(), "11").size());
+            Assertions.assertTrue(InitializationGate.needsUpdate(gates.values(), null).isEmpty());
+            Assertions.assertTrue(InitializationGate.needsUpdate(Collections.emptyList(), "1.0").isEmpty());
+        }
+    }
+
+    private InitializationGate.InitializationInfo awaitVersion(InitializationGate gate, String version) throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.acceptableWaitSecs);
+        while (true)
+        {
+            final InitializationGate.InitializationInfo info = gate.getInitializationInfo();
+            if (Objects.equals(version, info.getVersion()))
+            {
+                return info;
+            }
+            Assertions.assertTrue(System.currentTimeMillis() < deadline,
+                    String.format("Timed out waiting for version %s (current = %s)", version, info.getVersion()));
+            Thread.sleep(50);
+        }
+    }
 }
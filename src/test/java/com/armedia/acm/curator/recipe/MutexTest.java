@@ -33,12 +33,15 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.curator.test.TestingServer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
@@ -344,4 +347,176 @@ public class MutexTest
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReentrant() throws Exception
+    {
+        final String name = UUID.randomUUID().toString();
+        try (Session session = new Session.Builder().connect(MutexTest.SERVER.getConnectString()).build())
+        {
+            final Mutex a = new Mutex(session, name);
+            final Mutex b = new Mutex(session, name);
+            final Duration d = Duration.of(2, ChronoUnit.SECONDS);
+            try (AutoCloseable outer = a.acquire(d))
+            {
+                Assertions.assertEquals(1, session.getLocks().size());
+                try (AutoCloseable inner = b.acquire(d))
+                {
+                    // Reentrant: the same lock node is reused
+                    Assertions.assertEquals(1, session.getClient().getChildren().forPath(a.getPath()).size());
+                }
+
+                // Still held, so other threads must wait
+                final AtomicBoolean timedOut = new AtomicBoolean(false);
+                final Thread t = new Thread(() -> {
+                    try (AutoCloseable c = b.acquire(Duration.of(500, ChronoUnit.MILLIS)))
+                    {
+                        // Shouldn't get here
+                    }
+                    catch (TimeoutException e)
+                    {
+                        timedOut.set(true);
+                    }
+                    catch (Exception e)
+                    {
+                        MutexTest.this.log.error("Unexpected exception", e);
+                    }
+                });
+                t.start();
+                t.join();
+                Assertions.assertTrue(timedOut.get());
+                Assertions.assertEquals(1, session.getLocks().size());
+            }
+            Assertions.assertEquals(0, session.getLocks().size());
+            Assertions.assertTrue(session.getClient().getChildren().forPath(a.getPath()).isEmpty());
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        final String name = UUID.randomUUID().toString();
+        try (Session session = new Session.Builder().connect(MutexTest.SERVER.getConnectString()).build();
+                Session other = new Session.Builder().connect(MutexTest.SERVER.getConnectString()).build())
+        {
+            final Mutex m = new Mutex(session, name);
+            final AtomicLong holders = new AtomicLong(0);
+            final AtomicLong maxNodes = new AtomicLong(0);
+            final Map<String, Throwable> exceptions = Collections.synchronizedMap(new LinkedHashMap<>());
+            final Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++)
+            {
+                final String key = String.format("coalesced-%02d", i);
+                threads[i] = new Thread(() -> {
+                    try
+                    {
+                        for (int j = 0; j < 5; j++)
+                        {
+                            try (AutoCloseable c = m.acquire(Duration.of(this.acceptableWaitSecs, ChronoUnit.SECONDS)))
+                            {
+                                Assertions.assertEquals(1, holders.incrementAndGet());
+                                // Only one node for the whole process, no matter how many threads are waiting
+                                final long nodes = session.getClient().getChildren().forPath(m.getPath()).size();
+                                maxNodes.accumulateAndGet(nodes, Math::max);
+                                Thread.sleep(5);
+                                Assertions.assertEquals(0, holders.decrementAndGet());
+                            }
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        exceptions.put(key, t);
+                    }
+                }, key);
+                threads[i].start();
+            }
+            for (Thread t : threads)
+            {
+                t.join();
+            }
+            exceptions.forEach((k, t) -> this.log.error("Thread {} failed", k, t));
+            Assertions.assertTrue(exceptions.isEmpty(), "Multithreaded mutex test failed");
+            Assertions.assertEquals(1, maxNodes.get());
+            Assertions.assertEquals(0, session.getLocks().size());
+            Assertions.assertTrue(session.getClient().getChildren().forPath(m.getPath()).isEmpty());
+
+            // Other processes are still excluded, even if they use a plain InterProcessMutex
+            final InterProcessMutex plain = new InterProcessMutex(other.getClient(), m.getPath());
+            try (AutoCloseable c = m.acquire())
+            {
+                Assertions.assertFalse(plain.acquire(200, TimeUnit.MILLISECONDS));
+            }
+            Assertions.assertTrue(plain.acquire(this.acceptableWaitSecs, TimeUnit.SECONDS));
+            try
+            {
+                Assertions.assertThrows(TimeoutException.class, () -> m.acquire(Duration.of(200, ChronoUnit.MILLIS)));
+                Assertions.assertEquals(0, session.getLocks().size());
+            }
+            finally
+            {
+                plain.release();
+            }
+        }
+    }
+
+    @Test
+    public void testHandoffTimeout() throws Exception
+    {
+        final String path = "/" + UUID.randomUUID().toString();
+        try (Session session = new Session.Builder().connect(MutexTest.SERVER.getConnectString()).build())
+        {
+            final CoalescedLock lock = new CoalescedLock(session.getClient(), path);
+            Assertions.assertTrue(lock.acquire(-1));
+
+            // The waiter gives up after the holder decided to hand the lock over to it, but before it let go
+            final CountDownLatch waiting = new CountDownLatch(1);
+            final CountDownLatch gaveUp = new CountDownLatch(1);
+            final CompletableFuture<Boolean> result = new CompletableFuture<>();
+            final Thread waiter = new Thread(() -> {
+                waiting.countDown();
+                try
+                {
+                    result.complete(lock.acquire(TimeUnit.MILLISECONDS.toNanos(500)));
+                }
+                catch (Throwable t)
+                {
+                    result.completeExceptionally(t);
+                }
+                finally
+                {
+                    gaveUp.countDown();
+                }
+            });
+            lock.beforeHandoff = () -> {
+                try
+                {
+                    gaveUp.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            waiter.start();
+            waiting.await();
+            while (!lock.isHeldLocally() || (session.getClient().getChildren().forPath(path).size() != 1))
+            {
+                Thread.sleep(10);
+            }
+            // Make sure the waiter is queued before we release
+            Thread.sleep(100);
+            lock.release();
+            waiter.join();
+
+            Assertions.assertFalse(result.get());
+            Assertions.assertFalse(lock.isHeldLocally());
+            Assertions.assertFalse(lock.isHeldInZooKeeper());
+            Assertions.assertTrue(session.getClient().getChildren().forPath(path).isEmpty());
+
+            // ... and a new instance isn't stuck behind an orphaned node
+            final CoalescedLock other = new CoalescedLock(session.getClient(), path);
+            Assertions.assertTrue(other.acquire(TimeUnit.SECONDS.toNanos(5)));
+            other.release();
+        }
+    }
+}
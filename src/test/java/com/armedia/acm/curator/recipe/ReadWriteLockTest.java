@@ -607,7 +607,57 @@ public class ReadWriteLockTest
                 try (ReadWriteLock.Write w = r.upgrade(Duration.of(100, ChronoUnit.MILLIS)))
                 {
                     // Lock was upgraded ...
+                    Assertions.assertEquals(1, session.getLocks().size());
                 }
+                Assertions.assertEquals(1, session.getLocks().size());
+            }
+            Assertions.assertEquals(0, session.getLocks().size());
+        }
+    }
+
+    @Test
+    public void testReentrant() throws Exception
+    {
+        try (Session session = new Session.Builder().connect(ReadWriteLockTest.SERVER.getConnectString()).build())
+        {
+            final String name = UUID.randomUUID().toString();
+            final ReadWriteLock a = new ReadWriteLock(session, name);
+            final ReadWriteLock b = new ReadWriteLock(session, name);
+            final Duration d = Duration.of(2, ChronoUnit.SECONDS);
+            try (ReadWriteLock.Write w = a.write(d))
+            {
+                // Reentrant, and can take the read lock while holding the write lock
+                try (ReadWriteLock.Write w2 = b.write(d); ReadWriteLock.Read r = b.read(d))
+                {
+                    Assertions.assertEquals(1, session.getLocks().size());
+                    Assertions.assertEquals(2, session.getClient().getChildren().forPath(a.getPath()).size());
+                }
+            }
+            Assertions.assertEquals(0, session.getLocks().size());
+            Assertions.assertTrue(session.getClient().getChildren().forPath(a.getPath()).isEmpty());
+
+            // A failed acquisition doesn't leave anything behind
+            final Thread t = new Thread(() -> {
+                try
+                {
+                    a.write(d);
+                }
+                catch (Exception e)
+                {
+                    ReadWriteLockTest.this.log.error("Unexpected exception", e);
+                }
+            });
+            t.start();
+            t.join();
+            try
+            {
+                Assertions.assertThrows(TimeoutException.class, () -> b.read(Duration.of(200, ChronoUnit.MILLIS)));
+                Assertions.assertEquals(1, session.getLocks().size());
+            }
+            finally
+            {
+                // The other thread never released it, so get rid of its node by hand
+                session.getClient().delete().deletingChildrenIfNeeded().forPath(a.getPath());
             }
         }
     }
@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PayloadCodecTest
+{
+    private static final PayloadCodec[] CODECS = {
+        PayloadCodec.NONE, PayloadCodec.DEFLATE, PayloadCodec.FAST
+    };
+
+    private byte[] compressible(int size)
+    {
+        byte[] data = new byte[size];
+        byte[] text = "The quick brown fox jumps over the lazy dog. ".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < size; i++)
+        {
+            data[i] = text[i % text.length];
+        }
+        return data;
+    }
+
+    @Test
+    public void testGet()
+    {
+        Assertions.assertSame(PayloadCodec.DEFAULT, PayloadCodec.get(null));
+        Assertions.assertSame(PayloadCodec.DEFAULT, PayloadCodec.get(""));
+        Assertions.assertSame(PayloadCodec.DEFAULT, PayloadCodec.get("   "));
+        for (PayloadCodec c : PayloadCodecTest.CODECS)
+        {
+            Assertions.assertSame(c, PayloadCodec.get(c.getName()));
+            Assertions.assertSame(c, PayloadCodec.get(c.getName().toUpperCase()));
+            Assertions.assertSame(c, PayloadCodec.get(" " + c.getName() + " "));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PayloadCodec.get("no-such-codec"));
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        final Random r = new Random(System.nanoTime());
+        for (PayloadCodec c : PayloadCodecTest.CODECS)
+        {
+            Assertions.assertNull(c.encode(null));
+            Assertions.assertNull(PayloadCodec.decode(null));
+
+            for (int size : new int[] {
+                0, 1, 10, PayloadCodec.DEFAULT_THRESHOLD - 1, PayloadCodec.DEFAULT_THRESHOLD, 100000
+            })
+            {
+                byte[] data = compressible(size);
+                byte[] encoded = c.encode(data);
+                Assertions.assertArrayEquals(data, PayloadCodec.decode(encoded), () -> c + " size = " + size);
+                if ((c == PayloadCodec.NONE) || (size < PayloadCodec.DEFAULT_THRESHOLD))
+                {
+                    // Stored raw
+                    Assertions.assertSame(data, encoded, () -> c + " size = " + size);
+                }
+                else
+                {
+                    Assertions.assertTrue(encoded.length < data.length, () -> c + " size = " + size);
+                }
+
+                // Incompressible data is stored raw
+                data = new byte[size];
+                r.nextBytes(data);
+                encoded = c.encode(data);
+                Assertions.assertArrayEquals(data, PayloadCodec.decode(encoded), () -> c + " size = " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testThreshold()
+    {
+        byte[] data = compressible(200);
+        Assertions.assertSame(data, PayloadCodec.DEFLATE.encode(data, 201));
+        byte[] encoded = PayloadCodec.DEFLATE.encode(data, 200);
+        Assertions.assertFalse(Arrays.equals(data, encoded));
+        Assertions.assertArrayEquals(data, PayloadCodec.decode(encoded));
+    }
+
+    @Test
+    public void testInvalidLength()
+    {
+        final byte[] encoded = PayloadCodec.DEFLATE.encode(compressible(PayloadCodec.DEFAULT_THRESHOLD));
+        for (int length : new int[] {
+            -1, Integer.MIN_VALUE, PayloadCodec.MAX_DECODED_LENGTH + 1, Integer.MAX_VALUE
+        })
+        {
+            // The original length follows the magic and the codec ID
+            final byte[] corrupt = encoded.clone();
+            corrupt[4] = (byte) (length >>> 24);
+            corrupt[5] = (byte) (length >>> 16);
+            corrupt[6] = (byte) (length >>> 8);
+            corrupt[7] = (byte) length;
+            final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> PayloadCodec.decode(corrupt),
+                    () -> "length = " + length);
+            Assertions.assertTrue(e.getCause() instanceof DataFormatException, () -> "length = " + length);
+        }
+
+        // Lengths within the limit are still subject to the codec's own checks
+        final byte[] corrupt = encoded.clone();
+        corrupt[7]++;
+        Assertions.assertThrows(IllegalStateException.class, () -> PayloadCodec.decode(corrupt));
+    }
+
+    @Test
+    public void testHeaderLookalike()
+    {
+        // Raw data that looks like it has a header must survive the round trip
+        byte[] data = {
+            (byte) 0xC7, 'W', 'Z', 0, 0, 0, 0, 5, 1, 2, 3
+        };
+        for (PayloadCodec c : PayloadCodecTest.CODECS)
+        {
+            byte[] encoded = c.encode(data);
+            Assertions.assertNotSame(data, encoded);
+            Assertions.assertArrayEquals(data, PayloadCodec.decode(encoded));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.tools;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ValueCodecTest
+{
+    private List<Serializable> getValues()
+    {
+        final Map<String, String> map = new LinkedHashMap<>();
+        map.put("a", "1");
+        map.put("b", null);
+        map.put("éè", "中文");
+
+        return Arrays.asList( //
+                null, //
+                "", "plain ascii", "non-ascii ñ 中文 😀", //
+                Boolean.TRUE, Boolean.FALSE, //
+                (byte) -7, (short) 12345, 'x', '中', //
+                0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, //
+                0L, Long.MIN_VALUE, Long.MAX_VALUE, //
+                1.5f, Float.NaN, Math.PI, Double.NEGATIVE_INFINITY, //
+                BigInteger.ZERO, new BigInteger("-123456789012345678901234567890"), //
+                new BigDecimal("-12345.678900"), //
+                UUID.randomUUID(), Instant.now(), Duration.ofSeconds(-5, 123), //
+                new TreeMap<>(map), (Serializable) map //
+        );
+    }
+
+    @Test
+    public void testGet()
+    {
+        Assertions.assertSame(ValueCodec.DEFAULT, ValueCodec.get(null));
+        Assertions.assertSame(ValueCodec.DEFAULT, ValueCodec.get("  "));
+        Assertions.assertSame(ValueCodec.DEFAULT, ValueCodec.get("java"));
+        Assertions.assertSame(ValueCodec.DEFAULT, ValueCodec.get(" JAVA "));
+        Assertions.assertSame(ValueCodec.BINARY, ValueCodec.get("binary"));
+        Assertions.assertSame(ValueCodec.BINARY, ValueCodec.get("Binary"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ValueCodec.get("no-such-codec"));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        for (ValueCodec codec : new ValueCodec[] {
+            ValueCodec.JAVA, ValueCodec.BINARY
+        })
+        {
+            for (Serializable value : getValues())
+            {
+                final byte[] data = codec.encode(value);
+                Assertions.assertEquals(value, codec.decode(data), String.valueOf(value));
+            }
+
+            final byte[] bytes = {
+                0, 1, 2, (byte) 0xAC, (byte) 0xED, (byte) 0xFF
+            };
+            Assertions.assertArrayEquals(bytes, (byte[]) codec.decode(codec.encode(bytes)));
+        }
+
+        // Values the binary codec handles itself must never be Java-serialized
+        for (Serializable value : getValues())
+        {
+            Assertions.assertFalse(JavaValueCodec.isSerialized(ValueCodec.BINARY.encode(value)), String.valueOf(value));
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception
+    {
+        for (Serializable value : getValues())
+        {
+            if (value == null)
+            {
+                continue;
+            }
+            final int binary = ValueCodec.BINARY.encode(value).length;
+            final int java = ValueCodec.JAVA.encode(value).length;
+            Assertions.assertTrue(binary < java, String.format("%s: binary=%d java=%d", value, binary, java));
+        }
+    }
+
+    @Test
+    public void testFallback() throws Exception
+    {
+        final Map<String, Object> mixed = new HashMap<>();
+        mixed.put("a", 1);
+        final ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+
+        for (Serializable value : new Serializable[] {
+            (Serializable) mixed, list, new int[] {
+                1, 2, 3
+            }
+        })
+        {
+            final byte[] data = ValueCodec.BINARY.encode(value);
+            Assertions.assertTrue(JavaValueCodec.isSerialized(data));
+            final Serializable decoded = ValueCodec.BINARY.decode(data);
+            if (value instanceof int[])
+            {
+                Assertions.assertArrayEquals((int[]) value, (int[]) decoded);
+            }
+            else
+            {
+                Assertions.assertEquals(value, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void testLegacy() throws Exception
+    {
+        // Data written by older versions must remain readable
+        for (Serializable value : getValues())
+        {
+            final byte[] legacy = ValueCodec.JAVA.encode(value);
+            Assertions.assertTrue(JavaValueCodec.isSerialized(legacy));
+            Assertions.assertEquals(value, ValueCodec.BINARY.decode(legacy), String.valueOf(value));
+            Assertions.assertEquals(value, Tools.deserialize(legacy), String.valueOf(value));
+
+            // By default, values are still written so older versions can read them, but binary ones can be read too
+            Assertions.assertTrue(JavaValueCodec.isSerialized(ValueCodec.DEFAULT.encode(value)), String.valueOf(value));
+            Assertions.assertEquals(value, ValueCodec.DEFAULT.decode(ValueCodec.BINARY.encode(value)), String.valueOf(value));
+        }
+    }
+
+    @Test
+    public void testLargeValue() throws Exception
+    {
+        final StringBuilder b = new StringBuilder();
+        while (b.length() < (256 * 1024))
+        {
+            b.append("0123456789abcdef");
+        }
+        final String big = b.toString();
+        Assertions.assertEquals(big, ValueCodec.BINARY.decode(ValueCodec.BINARY.encode(big)));
+        // The shared buffer must not be corrupted by the large value
+        Assertions.assertEquals("small", ValueCodec.BINARY.decode(ValueCodec.BINARY.encode("small")));
+    }
+
+    @Test
+    public void testCorrupt() throws Exception
+    {
+        final byte[] data = ValueCodec.BINARY.encode("some string value");
+        Assertions.assertThrows(IOException.class, () -> ValueCodec.BINARY.decode(Arrays.copyOf(data, data.length - 1)));
+        Assertions.assertThrows(IOException.class, () -> ValueCodec.BINARY.decode(Arrays.copyOf(data, data.length + 1)));
+        final byte[] badType = data.clone();
+        badType[2] = 127;
+        Assertions.assertThrows(IOException.class, () -> ValueCodec.BINARY.decode(badType));
+        final byte[] badVersion = data.clone();
+        badVersion[1] = 99;
+        Assertions.assertThrows(IOException.class, () -> ValueCodec.BINARY.decode(badVersion));
+    }
+}
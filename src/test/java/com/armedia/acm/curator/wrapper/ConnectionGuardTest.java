@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.wrapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.curator.framework.state.ConnectionState;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import com.armedia.acm.curator.wrapper.ConnectionGuard.Action;
+
+public class ConnectionGuardTest
+{
+    private static char getState(Process p) throws Exception
+    {
+        // The state follows the command name, which is in parentheses
+        final String stat = new String(Files.readAllBytes(Paths.get("/proc", String.valueOf(p.pid()), "stat")), StandardCharsets.UTF_8);
+        return stat.substring(stat.lastIndexOf(')') + 1).trim().charAt(0);
+    }
+
+    private static void awaitState(Process p, char state) throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (ConnectionGuardTest.getState(p) != state)
+        {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline,
+                    String.format("Process %d never reached state %s", p.pid(), state));
+            Thread.sleep(20);
+        }
+    }
+
+    private static Process sleep() throws Exception
+    {
+        return new ProcessBuilder("sleep", "60").start();
+    }
+
+    @Test
+    public void testParse()
+    {
+        Assertions.assertSame(Action.term, Action.parse(null, Action.term));
+        Assertions.assertSame(Action.term, Action.parse("  ", Action.term));
+        for (Action a : Action.values())
+        {
+            Assertions.assertSame(a, Action.parse(a.name(), null));
+            Assertions.assertSame(a, Action.parse(" " + a.name().toUpperCase() + " ", null));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Action.parse("bogus", null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ConnectionGuard(() -> null, Action.term, null));
+
+        final ConnectionGuard guard = new ConnectionGuard(() -> null, null, null);
+        Assertions.assertSame(ConnectionGuard.DEFAULT_ON_SUSPENDED, guard.getOnSuspended());
+        Assertions.assertSame(ConnectionGuard.DEFAULT_ON_LOST, guard.getOnLost());
+
+        // No process? Nothing to do
+        for (ConnectionState state : ConnectionState.values())
+        {
+            guard.stateChanged(null, state);
+        }
+    }
+
+    @Test
+    public void testSignals() throws Exception
+    {
+        Assumptions.assumeTrue(Files.isDirectory(Paths.get("/proc/self")), "No /proc filesystem available");
+
+        final AtomicReference<Process> child = new AtomicReference<>();
+        Process p = ConnectionGuardTest.sleep();
+        child.set(p);
+        try
+        {
+            ConnectionGuard guard = new ConnectionGuard(child::get, Action.stop, Action.term);
+
+            // Pause and resume
+            guard.stateChanged(null, ConnectionState.SUSPENDED);
+            Assertions.assertTrue(guard.isPaused());
+            ConnectionGuardTest.awaitState(p, 'T');
+            guard.stateChanged(null, ConnectionState.RECONNECTED);
+            Assertions.assertFalse(guard.isPaused());
+            ConnectionGuardTest.awaitState(p, 'S');
+
+            // Terminate after a pause
+            guard.stateChanged(null, ConnectionState.SUSPENDED);
+            ConnectionGuardTest.awaitState(p, 'T');
+            guard.stateChanged(null, ConnectionState.LOST);
+            Assertions.assertTrue(p.waitFor(5, TimeUnit.SECONDS));
+            Assertions.assertFalse(guard.isPaused());
+
+            // Nothing happens if we don't want it to
+            p = ConnectionGuardTest.sleep();
+            child.set(p);
+            guard = new ConnectionGuard(child::get, Action.none, Action.none);
+            guard.stateChanged(null, ConnectionState.SUSPENDED);
+            guard.stateChanged(null, ConnectionState.LOST);
+            Assertions.assertFalse(guard.isPaused());
+            Assertions.assertFalse(p.waitFor(200, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals('S', ConnectionGuardTest.getState(p));
+
+            // Leave it stopped on loss
+            guard = new ConnectionGuard(child::get, Action.none, Action.stop);
+            guard.stateChanged(null, ConnectionState.LOST);
+            Assertions.assertTrue(guard.isPaused());
+            ConnectionGuardTest.awaitState(p, 'T');
+
+            // Kill it outright
+            guard = new ConnectionGuard(child::get, Action.stop, Action.kill);
+            guard.stateChanged(null, ConnectionState.LOST);
+            Assertions.assertTrue(p.waitFor(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            final Process last = child.get();
+            if (last != null)
+            {
+                last.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*-
+ * #%L
+ * acm-curator-wrapper
+ * %%
+ * Copyright (C) 2023 ArkCase LLC
+ * %%
+ * This file is part of the ArkCase software.
+ *
+ * If the software was purchased under a paid ArkCase license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * ArkCase is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ArkCase is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ArkCase. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package com.armedia.acm.curator.wrapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.armedia.acm.curator.Session;
+import com.armedia.acm.curator.recipe.Mutex;
+import com.armedia.acm.curator.wrapper.conf.ExecCfg;
+import com.armedia.acm.curator.wrapper.conf.OperationMode;
+import com.armedia.acm.curator.wrapper.conf.RedirectCfg;
+import com.armedia.acm.curator.wrapper.conf.SessionCfg;
+import com.armedia.acm.curator.wrapper.conf.WrapperCfg;
+
+public class DaemonTest
+{
+    private static TestingServer SERVER = null;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    public static void beforeAll() throws Exception
+    {
+        if (DaemonTest.SERVER == null)
+        {
+            DaemonTest.SERVER = new TestingServer();
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() throws Exception
+    {
+        if (DaemonTest.SERVER != null)
+        {
+            try
+            {
+                DaemonTest.SERVER.close();
+            }
+            finally
+            {
+                DaemonTest.SERVER = null;
+            }
+        }
+    }
+
+    private SessionCfg newSessionCfg()
+    {
+        final SessionCfg session = new SessionCfg();
+        session.setConnect(DaemonTest.SERVER.getConnectString());
+        return session;
+    }
+
+    private DaemonRequest newRequest(OperationMode mode, String name, Map<String, String> params)
+    {
+        return newRequest(newSessionCfg(), mode, name, params);
+    }
+
+    private DaemonRequest newRequest(SessionCfg session, OperationMode mode, String name, Map<String, String> params)
+    {
+        final WrapperCfg cfg = new WrapperCfg();
+        cfg.setMode(mode);
+        cfg.setName(name);
+        cfg.setParam(params);
+        final DaemonRequest request = new DaemonRequest();
+        request.setSession(session.fingerprint());
+        request.setWrapper(cfg);
+        request.setWorkdir(this.tempDir.toString());
+        return request;
+    }
+
+    @Test
+    public void testCanForward()
+    {
+        final WrapperCfg cfg = new WrapperCfg();
+        for (OperationMode mode : new OperationMode[] {
+            OperationMode.delete, OperationMode.download, OperationMode.exists, OperationMode.mkroot, OperationMode.upload
+        })
+        {
+            cfg.setMode(mode);
+            Assertions.assertTrue(Daemon.canForward(cfg), mode.name());
+        }
+
+        for (OperationMode mode : new OperationMode[] {
+            OperationMode.direct, OperationMode.init, OperationMode.leader, OperationMode.mutex, OperationMode.dcldata
+        })
+        {
+            cfg.setMode(mode);
+            Assertions.assertFalse(Daemon.canForward(cfg), mode.name());
+        }
+
+        final RedirectCfg redirect = new RedirectCfg();
+        redirect.setStdin("null");
+        redirect.setStdout("out.log");
+        redirect.setStderr("err.log");
+        cfg.getExec().setRedirect(redirect);
+        cfg.setMode(OperationMode.mutex);
+        Assertions.assertTrue(Daemon.canForward(cfg));
+        cfg.setMode(OperationMode.init);
+        Assertions.assertTrue(Daemon.canForward(cfg));
+        cfg.setParam(Collections.singletonMap("marker", "MARK"));
+        Assertions.assertFalse(Daemon.canForward(cfg));
+        cfg.setMode(OperationMode.dcldata);
+        Assertions.assertFalse(Daemon.canForward(cfg));
+        cfg.getCheck().setRedirect(redirect);
+        Assertions.assertTrue(Daemon.canForward(cfg));
+        cfg.setMode(OperationMode.direct);
+        Assertions.assertFalse(Daemon.canForward(cfg));
+    }
+
+    @Test
+    public void testRequestEncoding()
+    {
+        final Map<String, String> params = new LinkedHashMap<>();
+        params.put("version", "1.2.3");
+        params.put("literal", "${NOT_EXPANDED}");
+        final DaemonRequest request = newRequest(OperationMode.init, "some-name", params);
+        final ExecCfg exec = new ExecCfg();
+        exec.setCommand(Arrays.asList("echo", "hello world"));
+        exec.getEnv().put("A", "B");
+        final RedirectCfg redirect = new RedirectCfg();
+        redirect.setStdout("out.log");
+        exec.setRedirect(redirect);
+        request.getWrapper().setExec(exec);
+        request.getWrapper().setTimeout(12345);
+        request.getEnv().put("PATH", "/bin:/usr/bin");
+        request.getProperties().put("wrapper.param.x", "y");
+
+        final DaemonRequest copy = DaemonRequest.decode(request.encode());
+        Assertions.assertEquals(request.getSession(), copy.getSession());
+        Assertions.assertNotNull(copy.getSession());
+        Assertions.assertEquals(request.getWorkdir(), copy.getWorkdir());
+        Assertions.assertEquals(request.getEnv(), copy.getEnv());
+        Assertions.assertEquals(request.getProperties(), copy.getProperties());
+        Assertions.assertEquals(OperationMode.init, copy.getWrapper().getMode());
+        Assertions.assertEquals("some-name", copy.getWrapper().getName());
+        Assertions.assertEquals(12345, copy.getWrapper().getTimeout());
+        Assertions.assertEquals(params, copy.getWrapper().getParam());
+        Assertions.assertEquals(exec.getCommand(), copy.getWrapper().getExec().getCommand());
+        Assertions.assertEquals(exec.getEnv(), copy.getWrapper().getExec().getEnv());
+        Assertions.assertEquals("out.log", copy.getWrapper().getExec().getRedirect().getStdout());
+        Assertions.assertNull(copy.getWrapper().getExec().getRedirect().getStdin());
+    }
+
+    @Test
+    public void testDaemon() throws Exception
+    {
+        Assumptions.assumeTrue(Daemon.isAvailable(), "Unix domain sockets are not available");
+
+        final Path socket = this.tempDir.resolve("daemon.sock");
+        final DaemonRequest exists = newRequest(OperationMode.exists, "/" + UUID.randomUUID().toString(), null);
+
+        // No daemon, so nothing gets executed
+        Assertions.assertNull(Daemon.submit(socket, exists));
+
+        try (Session session = new Session.Builder().connect(DaemonTest.SERVER.getConnectString()).build())
+        {
+            try (Daemon daemon = new Daemon(session, socket))
+            {
+                daemon.start();
+                Assertions.assertTrue(Files.exists(socket));
+                Assertions.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+                Assertions.assertTrue(Daemon.isListening(socket));
+                Assertions.assertEquals(newSessionCfg().fingerprint(), session.getFingerprint());
+
+                // Only one daemon per socket
+                Assertions.assertThrows(IOException.class, () -> new Daemon(session, socket).start());
+
+                Assertions.assertEquals(Integer.valueOf(1), Daemon.submit(socket, exists));
+
+                // Relative paths must be resolved against the client's directory
+                final String name = UUID.randomUUID().toString();
+                final byte[] data = "some data to transfer".getBytes(StandardCharsets.UTF_8);
+                Files.write(this.tempDir.resolve("source.txt"), data);
+                Assertions.assertEquals(Integer.valueOf(0),
+                        Daemon.submit(socket, newRequest(OperationMode.upload, name, Collections.singletonMap("src", "source.txt"))));
+                final String path = "/filetransfer/" + name;
+                Assertions.assertEquals(Integer.valueOf(0), Daemon.submit(socket, newRequest(OperationMode.exists, path, null)));
+                Assertions.assertEquals(Integer.valueOf(0), Daemon.submit(socket,
+                        newRequest(OperationMode.download, name, Collections.singletonMap("tgt", "target.txt"))));
+                Assertions.assertArrayEquals(data, Files.readAllBytes(this.tempDir.resolve("target.txt")));
+
+                Assertions.assertEquals(Integer.valueOf(1), Daemon.submit(socket,
+                        newRequest(OperationMode.download, UUID.randomUUID().toString(), Collections.singletonMap("tgt", "missing.txt"))));
+                Assertions.assertFalse(Files.exists(this.tempDir.resolve("missing.txt")));
+
+                // Operations that need the client's I/O are refused
+                Assertions.assertEquals(Integer.valueOf(1), Daemon.submit(socket, newRequest(OperationMode.leader, name, null)));
+
+                // Clients with a different session configuration must run the operation themselves
+                final SessionCfg other = newSessionCfg();
+                other.setInstanceId("other");
+                Assertions.assertNull(Daemon.submit(socket, newRequest(other, OperationMode.exists, path, null)));
+                other.setInstanceId(null);
+                other.setCodec("deflate");
+                Assertions.assertNull(Daemon.submit(socket, newRequest(other, OperationMode.exists, path, null)));
+                final DaemonRequest anonymous = newRequest(OperationMode.exists, path, null);
+                anonymous.setSession(null);
+                Assertions.assertNull(Daemon.submit(socket, anonymous));
+
+                // The lock metrics are available as text
+                final String mutexName = UUID.randomUUID().toString();
+                try (AutoCloseable c = new Mutex(session, mutexName).acquire())
+                {
+                    // Nothing to do
+                }
+                final String metrics = Daemon.query(socket, Daemon.QUERY_METRICS);
+                Assertions.assertTrue(metrics.contains(String.format("mutex %s acquisitions=1 timeouts=0 failures=0 waiting=0 held=0 ", mutexName)),
+                        metrics);
+                Assertions.assertThrows(IOException.class, () -> Daemon.query(socket, "bogus"));
+
+                // The session must survive the requests
+                Assertions.assertTrue(session.isEnabled());
+                Assertions.assertNotNull(session.getClient().checkExists().forPath("/"));
+            }
+
+            Assertions.assertFalse(Files.exists(socket));
+            Assertions.assertFalse(Daemon.isListening(socket));
+            Assertions.assertNull(Daemon.submit(socket, exists));
+            Assertions.assertNull(Daemon.query(socket, Daemon.QUERY_METRICS));
+
+            // A stale socket is replaced
+            Files.createFile(socket);
+            try (Daemon daemon = new Daemon(session, socket))
+            {
+                daemon.start();
+                Assertions.assertTrue(Daemon.isListening(socket));
+            }
+
+            // Others mustn't be able to replace the socket
+            final Path shared = Files.createDirectory(this.tempDir.resolve("shared"));
+            Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+            Assertions.assertThrows(IOException.class, () -> new Daemon(session, shared.resolve("daemon.sock")).start());
+            try (Stream<Path> s = Files.list(this.tempDir))
+            {
+                // No private directories left behind
+                Assertions.assertTrue(s.noneMatch((p) -> p.getFileName().toString().startsWith(".daemon-")));
+            }
+        }
+    }
+}
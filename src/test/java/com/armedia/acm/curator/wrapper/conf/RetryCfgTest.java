@@ -29,6 +29,9 @@ package com.armedia.acm.curator.wrapper.conf;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import com.armedia.acm.curator.RetryType;
+import com.armedia.acm.curator.Session;
+
 public class RetryCfgTest
 {
     @Test
@@ -89,4 +92,30 @@ public class RetryCfgTest
         Assertions.assertEquals(RetryCfg.MIN_DELAY, cfg.getDelay());
     }
 
+    @Test
+    public void testPolicy()
+    {
+        RetryCfg cfg = new RetryCfg();
+        Assertions.assertNull(cfg.getType());
+        Assertions.assertEquals(Session.DEFAULT_RETRY_MAX_DELAY, cfg.getMaxDelay());
+        Assertions.assertEquals(Session.DEFAULT_RETRY_MAX_ELAPSED, cfg.getMaxElapsed());
+
+        for (RetryType t : RetryType.values())
+        {
+            cfg.setType(t);
+            Assertions.assertSame(t, cfg.getType());
+        }
+
+        cfg.setMaxDelay(-1);
+        Assertions.assertEquals(Session.DEFAULT_RETRY_MAX_DELAY, cfg.getMaxDelay());
+        cfg.setMaxDelay(1);
+        Assertions.assertEquals(RetryCfg.MIN_DELAY, cfg.getMaxDelay());
+        cfg.setMaxDelay(12345);
+        Assertions.assertEquals(12345, cfg.getMaxDelay());
+
+        cfg.setMaxElapsed(-1);
+        Assertions.assertEquals(0, cfg.getMaxElapsed());
+        cfg.setMaxElapsed(12345);
+        Assertions.assertEquals(12345, cfg.getMaxElapsed());
+    }
 }
@@ -159,4 +159,26 @@ public class SessionCfgTest
         Assertions.assertNotSame(r, cfg.getRetry());
         Assertions.assertNotSame(n, cfg.getRetry());
     }
+
+    @Test
+    public void testLogSampling()
+    {
+        SessionCfg cfg = new SessionCfg();
+        Assertions.assertEquals(Session.DEFAULT_LOG_SAMPLING, cfg.getLogSampling());
+
+        for (int i = Integer.MIN_VALUE; i < 0; i /= 10)
+        {
+            cfg.setLogSampling(i);
+            Assertions.assertEquals(Session.DEFAULT_LOG_SAMPLING, cfg.getLogSampling());
+        }
+
+        for (int i = Integer.MAX_VALUE; i > 0; i /= 10)
+        {
+            cfg.setLogSampling(i);
+            Assertions.assertEquals(i, cfg.getLogSampling());
+        }
+
+        cfg.setLogSampling(0);
+        Assertions.assertEquals(Session.DEFAULT_LOG_SAMPLING, cfg.getLogSampling());
+    }
 }